@@ -1,6 +1,8 @@
 import java.util.*;
 
 public class AIPlayer extends Player {
+    private static final long serialVersionUID = 1L;
+
     public AIPlayer(String name) {
         super(name); // method to add later
     }
@@ -12,6 +14,18 @@ public class AIPlayer extends Player {
      * @param The card to play, or null if no playable card
      */
     public Card selectCardToPlay(Card topCard, Card.Suit forcedSuit) {
+        Game gameInstance = Game.getInstance(); // Method for later as well
+        return selectCardToPlay(topCard, forcedSuit,
+            gameInstance != null && gameInstance.mustDrawCards(),
+            gameInstance != null && gameInstance.lastCardWasOne());
+    }
+
+    /**
+     * The same choice for a game other than the current instance (server-hosted bots)
+     * @param mustDrawCards Whether a 2 is pending, so only another 2 avoids drawing
+     * @param lastCardWasOne Whether a 1 was just played and can be answered with a 1
+     */
+    public Card selectCardToPlay(Card topCard, Card.Suit forcedSuit, boolean mustDrawCards, boolean lastCardWasOne) {
         List<Card> playableCards = new ArrayList<>();
         
         // Find all playable cards
@@ -26,8 +40,7 @@ public class AIPlayer extends Player {
         }
 
         // Check if we need to counter a card 2 first
-        Game gameInstance = Game.getInstance(); // Method for later as well
-        if (gameInstance != null && gameInstance.mustDrawCards()) {
+        if (mustDrawCards) {
             // Look for a card 2 to counter
             for (Card card : playableCards) {
                 if (card.getValue() == 2) {
@@ -39,7 +52,7 @@ public class AIPlayer extends Player {
         }
         
         // Check if we need to counter a card 1
-        if (gameInstance != null && gameInstance.lastCardWasOne() && topCard.getValue() == 1) {
+        if (lastCardWasOne && topCard.getValue() == 1) {
             // Look for a card 1 to counter
             for (Card card : playableCards) {
                 if (card.getValue() == 1) {
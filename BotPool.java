@@ -0,0 +1,72 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.*;
+
+/**
+ * Compute pool shared by every server-hosted bot seat.
+ *
+ * Tables never think for their bots on their own worker: they hand the pool a
+ * copy of what the bot can see, and the decision comes back as an ordinary
+ * action in the table's mailbox. The pool has a fixed number of threads, which
+ * is the CPU budget for all bots together, and a bounded queue. A decision that
+ * does not fit is dropped; the turn timer then draws for the bot as it would
+ * for an idle player.
+ */
+public class BotPool {
+    private static final int MAX_QUEUED = 4096;
+
+    private final ThreadPoolExecutor executor;
+    private final ServerMetrics metrics;
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean cpuTimed;
+
+    public BotPool(int threadCount, ServerMetrics metrics) {
+        this.metrics = metrics;
+        this.cpuTimed = threads.isCurrentThreadCpuTimeSupported();
+        int size = Math.max(1, threadCount);
+        ThreadFactory factory = new ThreadFactory() {
+            private int next = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "bot-" + next++);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1); // Tables come first
+                return thread;
+            }
+        };
+        executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(MAX_QUEUED), factory, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Queue a bot decision
+     * @return false if the pool is over its budget and the decision was dropped
+     */
+    public boolean submit(Runnable decision) {
+        try {
+            executor.execute(() -> {
+                long start = cpuTimed ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+                try {
+                    decision.run();
+                } catch (Exception e) {
+                    System.err.println("Bot decision failed: " + e.getMessage());
+                }
+                long end = cpuTimed ? threads.getCurrentThreadCpuTime() : System.nanoTime();
+                metrics.getBotDecisionTime().record(end - start);
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            metrics.botDecisionDropped();
+            return false;
+        }
+    }
+
+    public void shutdown() {
+        executor.shutdownNow();
+    }
+
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+}
@@ -1,7 +1,10 @@
 import javax.swing.*;
 import java.io.File;
+import java.io.Serializable;
+
+public class Card implements Serializable {
+    private static final long serialVersionUID = 1L;
 
-public class Card {
     // Update enum names to match the rules image
     public enum Suit { STICKS, CUPS, SWORDS, GOLD }
 
@@ -31,38 +34,23 @@ public class Card {
      */
 
     public boolean canBePlayedOn(Card topCard, Card.Suit forcedSuit) {
-        if (forcedSuit != null) {
-            System.out.println("Forced Suit: " + forcedSuit);
-        }
-
         // Same number can always be played (highest priority rule)
         if (this.value == topCard.value) {
-            System.out.println("Same value check passed");
             return true;
         }
 
         // If there's a forced suit from a 7, must match that suit
         if (forcedSuit != null) {
-            boolean result = this.suit == forcedSuit;
-            System.out.println("Forced suit check result: " + result);
-            return result;
+            return this.suit == forcedSuit;
         }
 
         // Same suit as the top card can be played if there's no forced suit
         if (this.suit == topCard.suit) {
-            System.out.println("Same suit check passed");
             return true;
         }
 
         // Wild card (7) can be played on anything
-        if (this.value == 7) {
-            System.out.println("Wild card check passed");
-            return true;
-        }
-
-        System.out.println("No matching rule, card cannot be played");
-        return false;
-
+        return this.value == 7;
     }
 
     /**
@@ -1,80 +1,117 @@
 import java.io.*;
 import java.net.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
- * Handles communication with a single client connected to the game server
+ * Handles communication with a single client connected to the game server.
+ * Reads are rate limited per connection and per address, and pause while the
+ * client's table is backlogged, so a flooding client only slows itself down.
+ *
+ * A client on its own connection gets a reader thread and a writer thread. A
+ * client on a multiplexed link (MuxConnection) gets neither: the link hands
+ * its frames to receive, and holds back the credit for them instead of
+ * pausing a read.
  */
 public class ClientHandler implements Runnable {
-    private Socket clientSocket;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
+    private static final int MAX_NAME_LENGTH = 32;
+    
+    private Transport.Connection connection;
+    private MuxConnection.Session session; // Set instead of connection for multiplexed clients
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
     private GameServer gameServer;
+    private volatile GameRoom room; // Set by the matchmaker's thread for players who asked for a match
+    private volatile GameRoom watching; // Table this connection watches without a seat
     private String playerName;
-    private boolean isRunning = true;
+    private OutboundQueue outbound;
+    private Matchmaker.Ticket matchTicket;
+    private volatile boolean isRunning = true;
+    private volatile boolean inputEnded = false;
+    private final AtomicBoolean cleanedUp = new AtomicBoolean(false);
+    private boolean greeted = false; // The first message (which table to sit at) has arrived
+    private volatile long lastReceivedAt = System.currentTimeMillis();
+    private TimingWheel.Timeout heartbeat;
+    private final TokenBucket rateLimit;
+    private final TokenBucket addressRateLimit;
+    
+    private static final long BACKLOG_POLL_NANOS = 1000000;
     
-    public ClientHandler(Socket clientSocket, GameServer gameServer) {
-        this.clientSocket = clientSocket;
+    /**
+     * @param inputStream The connection's buffered input, which the server has already peeked into
+     */
+    public ClientHandler(Transport.Connection connection, DataInputStream inputStream, GameServer gameServer) {
+        this.connection = connection;
+        this.inputStream = inputStream;
         this.gameServer = gameServer;
+        ServerConfig config = gameServer.getConfig();
+        this.rateLimit = new TokenBucket(config.getInboundRatePerSecond(), config.getInboundBurst());
+        this.addressRateLimit = gameServer.addressBucket(connection.getRemoteAddress());
         
         try {
-            // Create output stream first to avoid deadlock
-            outputStream = new ObjectOutputStream(clientSocket.getOutputStream());
-            outputStream.flush();
-            inputStream = new ObjectInputStream(clientSocket.getInputStream());
+            // Messages are exchanged as length-prefixed frames (see MessageCodec)
+            outputStream = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
             
+            // Writes go through a bounded queue drained by this connection's own writer thread
+            outbound = new OutboundQueue(
+                String.valueOf(connection),
+                new OutboundQueue.Sink() {
+                    public void write(EncodedMessage message) throws IOException {
+                        MessageCodec.writeFrame(outputStream, message);
+                        gameServer.getMetrics().messageOut(message.length());
+                    }
+                    public void flush() throws IOException {
+                        outputStream.flush();
+                    }
+                },
+                gameServer.getSlowClientPolicy(),
+                gameServer.getMetrics().getOutboundQueueWait(),
+                this::close);
+            outbound.start();
+        
         } catch (IOException e) {
             System.err.println("Error creating client handler streams: " + e.getMessage());
             close();
         }
     }
     
+    /**
+     * Serve one session of a multiplexed link, which reads and writes for it
+     */
+    public ClientHandler(MuxConnection.Session session, GameServer gameServer) {
+        this.session = session;
+        this.gameServer = gameServer;
+        ServerConfig config = gameServer.getConfig();
+        this.rateLimit = new TokenBucket(config.getInboundRatePerSecond(), config.getInboundBurst());
+        this.addressRateLimit = gameServer.addressBucket(session.getRemoteAddress());
+        this.outbound = new OutboundQueue(String.valueOf(session), gameServer.getSlowClientPolicy(),
+            gameServer.getMetrics().getOutboundQueueWait(), session::outboundReady);
+        session.attach(this, outbound);
+    }
+    
     @Override
     public void run() {
+        scheduleHeartbeat();
         try {
-            // Wait for initial join message
-            NetworkMessage joinMessage = (NetworkMessage) inputStream.readObject();
-            
-            if (joinMessage.getType() == NetworkMessage.MessageType.JOIN_GAME) {
-                playerName = joinMessage.getPlayerName();
-                String gameKey = (String) joinMessage.getData();
-                
-                // Verify game key and add player
-                if (gameKey.equals(gameServer.getGameKey())) {
-                    boolean joined = gameServer.addClient(playerName, this);
+            while (isRunning && !inputEnded) {
+                try {
+                    handle(decode(MessageCodec.readFrame(inputStream)));
                     
-                    if (joined) {
-                        // Send confirmation
-                        sendMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_JOINED, "Welcome to the game!"));
-                        
-                        // Listen for messages from this client
-                        while (isRunning) {
-                            try {
-                                NetworkMessage message = (NetworkMessage) inputStream.readObject();
-                                
-                                if (message != null) {
-                                    System.out.println("Received from " + playerName + ": " + message);
-                                    gameServer.handlePlayerMove(playerName, message);
-                                }
-                                
-                            } catch (EOFException e) {
-                                // Client disconnected
-                                break;
-                            } catch (SocketException e) {
-                                // Socket closed
-                                break;
-                            }
-                        }
-                    } else {
-                        // Game full or name taken
-                        sendMessage(new NetworkMessage(NetworkMessage.MessageType.ERROR, "Cannot join game"));
-                    }
-                } else {
-                    // Invalid game key
-                    sendMessage(new NetworkMessage(NetworkMessage.MessageType.ERROR, "Invalid game key"));
+                    // Not reading is the backpressure: the client's socket buffers fill up instead
+                    throttle();
+                    awaitTableCapacity();
+                
+                } catch (EOFException e) {
+                    // Client disconnected
+                    break;
+                } catch (SocketException e) {
+                    // Socket closed
+                    break;
                 }
             }
-            
-        } catch (IOException | ClassNotFoundException e) {
+        
+        } catch (IOException e) {
             System.err.println("Error in client handler: " + e.getMessage());
         } finally {
             cleanup();
@@ -82,16 +119,337 @@ public class ClientHandler implements Runnable {
     }
     
     /**
-     * Send a message to this client
+     * Start serving a multiplexed session
      */
-    public synchronized void sendMessage(NetworkMessage message) {
-        if (outputStream != null && isRunning) {
-            try {
-                outputStream.writeObject(message);
-                outputStream.flush();
-                
-            } catch (IOException e) {
-                System.err.println("Error sending message to " + playerName + ": " + e.getMessage());
+    public void start() {
+        scheduleHeartbeat();
+    }
+    
+    /**
+     * Take one frame the link read for this multiplexed session. Returns without
+     * blocking; the client may send another frame once its rate limit and table allow.
+     */
+    public void receive(byte[] frame) {
+        if (!isRunning || inputEnded) {
+            return;
+        }
+        try {
+            handle(decode(frame));
+        } catch (IOException e) {
+            System.err.println("Error in client handler: " + e.getMessage());
+            close();
+            return;
+        }
+        
+        long wait = reserveInbound();
+        GameRoom table = room;
+        if (table != null && table.isBacklogged()) {
+            gameServer.getMetrics().mailboxBackpressure();
+        }
+        if (wait > 0) {
+            gameServer.schedule(this::returnCredit, Math.max(1, wait / 1000000));
+        } else {
+            returnCredit();
+        }
+    }
+    
+    /**
+     * Let a multiplexed client send its next frame, once its table is keeping up
+     */
+    private void returnCredit() {
+        GameRoom table = room;
+        if (isRunning && table != null && table.isBacklogged()) {
+            gameServer.schedule(this::returnCredit, 1);
+            return;
+        }
+        session.credit();
+    }
+    
+    /**
+     * Act on one message from this client: the first says where to sit, the rest are moves
+     */
+    private void handle(NetworkMessage message) {
+        lastReceivedAt = System.currentTimeMillis();
+        if (!greeted) {
+            greeted = true;
+            join(message);
+            return;
+        }
+        
+        if (message.getType() == NetworkMessage.MessageType.PONG) {
+            // Only proves the connection is alive
+            return;
+        }
+        
+        if (watching != null) {
+            reject(message, "Spectators cannot play");
+            return;
+        }
+        
+        GameRoom table = room;
+        if (table == null) {
+            // Still waiting for a match; hanging up leaves the queue
+            reject(message, "Not seated at a table yet");
+            return;
+        }
+        
+        if (!GameRoom.isWellFormed(message)) {
+            reject(message, "Malformed action");
+            return;
+        }
+        
+        if (isTurnAction(message) && table.isGameStarted() && !table.mayAct(playerName, message)) {
+            // Answer out-of-turn moves here instead of queueing them on the table
+            gameServer.getMetrics().outOfTurnRejected();
+            reject(message, "Not your turn");
+            return;
+        }
+        
+        table.handlePlayerMove(playerName, message);
+    }
+    
+    /**
+     * Turn an action down, echoing its trace and number so the client knows which one it was
+     */
+    private void reject(NetworkMessage action, String reason) {
+        NetworkMessage rejection = new NetworkMessage(NetworkMessage.MessageType.INVALID_MOVE, reason);
+        rejection.setTrace(action.getTrace());
+        rejection.setActionSequence(action.getActionSequence());
+        sendMessage(rejection);
+    }
+    
+    /**
+     * Take the seat the join message asks for. The table answers on its own thread;
+     * a refusal is sent to the client, which is then hung up on.
+     */
+    private void join(NetworkMessage joinMessage) {
+        if (joinMessage.getType() == NetworkMessage.MessageType.RESUME_SESSION) {
+            // Reconnect to a seat we held before the connection dropped
+            if (!(joinMessage.getData() instanceof SessionTicket)) {
+                refuse("Malformed session ticket");
+                return;
+            }
+            SessionTicket ticket = (SessionTicket) joinMessage.getData();
+            if (ticket.getGameKey() == null || !isValidName(ticket.getPlayerName())) {
+                refuse("Malformed session ticket");
+                return;
+            }
+            GameRoom table = gameServer.getRoom(ticket.getGameKey());
+            if (table == null) {
+                refuse("Session expired");
+                return;
+            }
+            playerName = ticket.getPlayerName();
+            room = table;
+            awaitSeat(table, table.resumeClient(ticket, this), "Session expired");
+        
+        } else if (!isValidName(joinMessage.getPlayerName())) {
+            refuse("Invalid player name");
+        
+        } else if (joinMessage.getType() == NetworkMessage.MessageType.JOIN_GAME
+                || joinMessage.getType() == NetworkMessage.MessageType.CREATE_GAME) {
+            playerName = joinMessage.getPlayerName();
+            GameRoom table;
+            
+            if (joinMessage.getType() == NetworkMessage.MessageType.CREATE_GAME) {
+                // Open a fresh table for this player as the TableOptions describe
+                // (older clients send just TRUE to ask for a two-seat lockstep table)
+                Object data = joinMessage.getData();
+                TableOptions options = data instanceof TableOptions ? (TableOptions) data
+                    : new TableOptions(TableOptions.DEFAULT_SEATS, Boolean.TRUE.equals(data));
+                if (!options.isValid()) {
+                    refuse("Tables seat " + TableOptions.MIN_SEATS + " to " + TableOptions.MAX_SEATS + " players");
+                    return;
+                }
+                table = gameServer.createRoom(options.isLockstep(), options.getSeats());
+                if (table == null) {
+                    refuse("Server is full");
+                    return;
+                }
+            } else {
+                // Look up the table by its game key
+                table = findRoom(joinMessage.getData());
+                if (table == null) {
+                    refuse("Invalid game key");
+                    return;
+                }
+            }
+            
+            // The room seats players on its own thread and refuses if the game is full or the name taken
+            room = table;
+            awaitSeat(table, table.addClient(playerName, this), "Cannot join game");
+        
+        } else if (joinMessage.getType() == NetworkMessage.MessageType.FIND_MATCH) {
+            // Queue for an opponent; the matchmaker seats us through seatMatched
+            playerName = joinMessage.getPlayerName();
+            Object rating = joinMessage.getData();
+            matchTicket = gameServer.getMatchmaker().enqueue(playerName,
+                rating instanceof Integer ? (Integer) rating : Matchmaker.DEFAULT_RATING, this);
+        
+        } else if (joinMessage.getType() == NetworkMessage.MessageType.WATCH_GAME) {
+            // Watch the table without a seat; the table confirms with SPECTATING
+            playerName = joinMessage.getPlayerName();
+            GameRoom table = findRoom(joinMessage.getData());
+            if (table == null) {
+                refuse("Invalid game key");
+                return;
+            }
+            watching = table;
+            table.addSpectator(this).thenAccept(watched -> {
+                if (!watched) {
+                    watching = null;
+                    refuse("Cannot watch this game");
+                } else if (!isRunning) {
+                    // Hung up while joining the audience
+                    table.removeSpectator(this);
+                }
+            });
+        
+        } else {
+            endInput();
+        }
+    }
+    
+    /**
+     * The table a join names by its key, or null if the key is not one
+     */
+    private GameRoom findRoom(Object gameKey) {
+        return gameKey instanceof String ? gameServer.getRoom((String) gameKey) : null;
+    }
+    
+    private static boolean isValidName(String name) {
+        return name != null && !name.isBlank() && name.length() <= MAX_NAME_LENGTH;
+    }
+    
+    /**
+     * Act on the table's answer to a request for a seat
+     */
+    private void awaitSeat(GameRoom table, CompletableFuture<Boolean> seated, String refusal) {
+        seated.thenAccept(joined -> {
+            if (!joined) {
+                room = null;
+                refuse(refusal);
+            } else if (!isRunning) {
+                // Hung up while the seat was being taken
+                table.removeClient(playerName, this);
+            }
+        });
+    }
+    
+    /**
+     * Tell the client why it cannot sit down, then hang up once that has been sent
+     */
+    private void refuse(String reason) {
+        sendMessage(new NetworkMessage(NetworkMessage.MessageType.ERROR, reason));
+        endInput();
+    }
+    
+    private static boolean isTurnAction(NetworkMessage message) {
+        switch (message.getType()) {
+            case PLAY_CARD:
+            case DRAW_CARD:
+            case CHOOSE_SUIT:
+            case LOCKSTEP_MOVE:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Wait until both this connection and its address may send another message
+     */
+    private void throttle() {
+        long wait = reserveInbound();
+        if (wait > 0) {
+            LockSupport.parkNanos(wait);
+        }
+    }
+    
+    /**
+     * Take this connection's and its address's next token
+     * @return nanoseconds until the client may send again
+     */
+    private long reserveInbound() {
+        long wait = Math.max(rateLimit.reserve(), addressRateLimit.reserve());
+        if (wait > 0) {
+            gameServer.getMetrics().inboundThrottled();
+        }
+        return wait;
+    }
+    
+    /**
+     * Hold off while the table is working through a backlog
+     */
+    private void awaitTableCapacity() {
+        GameRoom table = room;
+        if (table == null || !table.isBacklogged()) {
+            return;
+        }
+        gameServer.getMetrics().mailboxBackpressure();
+        while (isRunning && table.isBacklogged()) {
+            LockSupport.parkNanos(BACKLOG_POLL_NANOS);
+        }
+    }
+    
+    /**
+     * Decode a frame from this client, recording its size and decode time
+     */
+    private NetworkMessage decode(byte[] frame) throws IOException {
+        long start = System.nanoTime();
+        NetworkMessage message = MessageCodec.decode(frame);
+        if (message.getTrace() != null) {
+            message.getTrace().markReceived();
+        }
+        ServerMetrics metrics = gameServer.getMetrics();
+        metrics.getDecodeTime().record(System.nanoTime() - start);
+        metrics.messageIn(frame.length);
+        return message;
+    }
+    
+    /**
+     * Arm the next heartbeat on the server's timing wheel
+     */
+    private void scheduleHeartbeat() {
+        heartbeat = gameServer.schedule(this::heartbeat, gameServer.getHeartbeatIntervalMillis());
+    }
+    
+    /**
+     * Drop the connection if the client has gone silent, otherwise ping it
+     */
+    private void heartbeat() {
+        if (!isRunning) {
+            return;
+        }
+        long idle = System.currentTimeMillis() - lastReceivedAt;
+        if (idle > gameServer.getIdleTimeoutMillis()) {
+            // Half-open or dead peer: closing ends the read loop and frees (or holds) the seat
+            System.err.println("Closing idle connection " + playerName + " (" + idle + " ms silent)");
+            close();
+            return;
+        }
+        sendMessage(new NetworkMessage(NetworkMessage.MessageType.PING));
+        scheduleHeartbeat();
+    }
+    
+    /**
+     * Queue a message for this client without blocking the caller
+     */
+    public void sendMessage(NetworkMessage message) {
+        EncodedMessage encoded = MessageCodec.encode(message);
+        send(encoded);
+        encoded.release();
+    }
+    
+    /**
+     * Queue an already encoded message; the caller keeps its own reference
+     */
+    public void send(EncodedMessage message) {
+        if (outbound != null && isRunning) {
+            if (!outbound.offer(message)) {
+                // Queue full or too far behind: drop the client rather than stall its table
+                System.err.println("Disconnecting slow client " + playerName + " (" + gameServer.getSlowClientPolicy() + ")");
+                gameServer.getMetrics().slowClientDropped();
                 close();
             }
         }
@@ -103,6 +461,20 @@ public class ClientHandler implements Runnable {
     public void close() {
         isRunning = false;
         
+        if (heartbeat != null) {
+            heartbeat.cancel();
+        }
+        
+        if (outbound != null) {
+            outbound.close();
+        }
+        
+        if (session != null) {
+            session.close();
+            cleanup();
+            return;
+        }
+        
         try {
             if (inputStream != null) {
                 inputStream.close();
@@ -110,20 +482,77 @@ public class ClientHandler implements Runnable {
             if (outputStream != null) {
                 outputStream.close();
             }
-            if (clientSocket != null && !clientSocket.isClosed()) {
-                clientSocket.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
             }
         } catch (IOException e) {
             System.err.println("Error closing client handler: " + e.getMessage());
         }
     }
     
+    /**
+     * Take the seat the matchmaker found for this connection, or give up if there was no table for it
+     */
+    public void seatMatched(GameRoom matched) {
+        if (matched == null) {
+            refuse("Server is full");
+            return;
+        }
+        room = matched;
+        awaitSeat(matched, matched.addClient(playerName, this), "Cannot join game");
+    }
+    
+    /**
+     * End the read loop as if the client had hung up, so queued replies still get sent
+     */
+    public void endInput() {
+        inputEnded = true;
+        if (session != null) {
+            cleanup();
+            return;
+        }
+        try {
+            connection.shutdownInput();
+        } catch (IOException e) {
+            close();
+        }
+    }
+    
     /**
      * Cleanup when client disconnects
      */
     private void cleanup() {
-        if (playerName != null) {
-            gameServer.removeClient(playerName);
+        if (!cleanedUp.compareAndSet(false, true)) {
+            return;
+        }
+        isRunning = false;
+        if (matchTicket != null) {
+            gameServer.getMatchmaker().cancel(matchTicket);
+        }
+        GameRoom table = room;
+        if (table != null && playerName != null) {
+            table.removeClient(playerName, this);
+        }
+        GameRoom watched = watching;
+        if (watched != null) {
+            watched.removeSpectator(this);
+        }
+        gameServer.connectionClosed(this);
+        
+        if (session != null) {
+            // The link sends what is queued, then ends the session; a client that stopped reading gets a second
+            if (heartbeat != null) {
+                heartbeat.cancel();
+            }
+            outbound.stopAccepting();
+            session.closeWhenDrained();
+            gameServer.schedule(session::close, 1000);
+            return;
+        }
+        
+        // Let queued replies (such as join errors) reach the client before the socket goes
+        if (outbound != null) {
+            outbound.drainAndClose(1000);
         }
         close();
     }
@@ -131,4 +560,8 @@ public class ClientHandler implements Runnable {
     public String getPlayerName() {
         return playerName;
     }
+    
+    public GameRoom getRoom() {
+        return room;
+    }
 }
\ No newline at end of file
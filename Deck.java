@@ -1,3 +1,6 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
 /**
@@ -9,6 +12,31 @@ public class Deck {
     private List<Card> cards = new ArrayList<>();
 
     public Deck() {
+        addAllCards();
+        Collections.shuffle(cards);
+    }
+
+    /**
+     * A deck whose order is fully determined by the seed (lockstep tables re-deal from it).
+     * The shuffle draws from a SHA-256 stream keyed by all 64 bits of the seed; a seeded
+     * java.util.Random keeps only 48 of them and its output gives its state away.
+     */
+    public Deck(long seed) {
+        addAllCards();
+        SeedStream stream = new SeedStream(seed);
+        for (int i = cards.size() - 1; i > 0; i--) {
+            Collections.swap(cards, i, stream.nextInt(i + 1));
+        }
+    }
+
+    /**
+     * A deck holding exactly these cards in this order (a table restored from its snapshot)
+     */
+    public Deck(List<Card> cards) {
+        this.cards = new ArrayList<>(cards);
+    }
+
+    private void addAllCards() {
         for (Card.Suit suit : Card.Suit.values()) {
             // add cards 1-7
             for (int i = 1; i <= 7; i++) {
@@ -20,7 +48,6 @@ public class Deck {
                 cards.add(new Card(suit, i));
             }
         }
-        shuffle();
     }
 
     public void shuffle() {
@@ -39,4 +66,49 @@ public class Deck {
     public int size() {
         return cards.size();
     }
+
+    public List<Card> getCards() {
+        return Collections.unmodifiableList(cards);
+    }
+
+    /**
+     * SHA-256(seed, counter) blocks read as a stream of 31-bit values
+     */
+    private static class SeedStream {
+        private static final long RANGE = 1L << 31;
+
+        private final MessageDigest digest;
+        private final long seed;
+        private long counter = 0;
+        private ByteBuffer block = ByteBuffer.allocate(0);
+
+        SeedStream(long seed) {
+            this.seed = seed;
+            try {
+                this.digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                // Every JRE ships SHA-256
+                throw new IllegalStateException(e);
+            }
+        }
+
+        /**
+         * A value in [0, bound), every one equally likely
+         */
+        int nextInt(int bound) {
+            long limit = RANGE - RANGE % bound; // Values past the last whole multiple of bound would bias the low ones
+            long value;
+            do {
+                value = nextBits();
+            } while (value >= limit);
+            return (int) (value % bound);
+        }
+
+        private int nextBits() {
+            if (block.remaining() < 4) {
+                block = ByteBuffer.wrap(digest.digest(ByteBuffer.allocate(16).putLong(seed).putLong(counter++).array()));
+            }
+            return block.getInt() & Integer.MAX_VALUE;
+        }
+    }
 }
\ No newline at end of file
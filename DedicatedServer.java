@@ -0,0 +1,51 @@
+/**
+ * Headless entry point that runs only the game server, with no window.
+ * Players connect to it with "Join Game", or with "Host Game" pointed at it.
+ *
+ * Usage: java DedicatedServer [--port=12345] [--bind=0.0.0.0] [--max-rooms=N]
+ *        [--max-connections=N] [--workers=N] [--max-queued=N] [--max-lag-ms=N]
+ *        [--resume-grace-ms=N] [--heartbeat-ms=N] [--idle-timeout-ms=N] [--turn-time-ms=N]
+ *        [--rate=N] [--burst=N] [--ip-rate=N] [--ip-burst=N] [--metrics-port=N] [--move-log=DIR] [--move-log-segment-mb=N]
+ *        [--bot-fill-ms=N] [--bot-think-ms=N] [--bot-threads=N]
+ *        [--transport=tcp|shm] [--match-gap=N] [--match-widen-per-sec=N] [--match-max-gap=N] [--match-interval-ms=N]
+ *        [--spectator-delay-ms=N] [--max-spectators=N] [--spectator-threads=N]
+ */
+public class DedicatedServer {
+
+    public static void main(String[] args) {
+        long startTime = System.nanoTime();
+
+        ServerConfig config;
+        try {
+            config = ServerConfig.fromArgs(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
+            return;
+        }
+
+        GameServer server = new GameServer(config);
+        try {
+            server.start();
+        } catch (Exception e) {
+            System.err.println("Could not start server: " + e.getMessage());
+            System.exit(1);
+            return;
+        }
+
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            System.out.println("Shutting down (" + server.getConnectionCount() + " connections, "
+                + server.getRoomCount() + " rooms)");
+            server.stop();
+        }, "shutdown"));
+
+        System.out.printf("Dedicated server ready in %d ms: %s%n",
+            (System.nanoTime() - startTime) / 1000000, config);
+
+        try {
+            server.awaitTermination();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An immutable, already-serialized NetworkMessage that can be written to any
+ * number of connections as-is.
+ *
+ * The buffer is reference counted: whoever creates it holds one reference, each
+ * outbound queue that accepts it retains one more, and everyone releases theirs
+ * once done. After the last release the bytes are dropped, so a stale reference
+ * that is written by mistake fails loudly instead of sending the wrong frame.
+ */
+public class EncodedMessage {
+    private final NetworkMessage.MessageType type;
+    private final AtomicInteger refCount = new AtomicInteger(1);
+    private volatile byte[] bytes;
+
+    public EncodedMessage(NetworkMessage.MessageType type, byte[] bytes) {
+        this.type = type;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Take an additional reference
+     */
+    public EncodedMessage retain() {
+        while (true) {
+            int count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Encoded " + type + " already released");
+            }
+            if (refCount.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Drop a reference; the buffer is freed when the last one goes
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            bytes = null;
+        } else if (count < 0) {
+            throw new IllegalStateException("Encoded " + type + " released too many times");
+        }
+    }
+
+    /**
+     * The serialized message; callers must not modify it
+     */
+    public byte[] bytes() {
+        byte[] current = bytes;
+        if (current == null) {
+            throw new IllegalStateException("Encoded " + type + " used after release");
+        }
+        return current;
+    }
+
+    public NetworkMessage.MessageType getType() { return type; }
+    public int length() { return bytes().length; }
+    public int refCount() { return refCount.get(); }
+}
@@ -0,0 +1,126 @@
+import java.util.function.Consumer;
+
+/**
+ * Fixed-size ring of the most recent sequenced events of one table, kept so a
+ * reconnecting client can be sent just the events it missed.
+ *
+ * An event is either one encoding shared by every seat, or one encoding per seat
+ * when the table redacts it (state updates). The ring holds a reference to each
+ * encoding and releases it when the slot is overwritten. Every state update is a
+ * full snapshot, so only the latest one is kept: an older one is released as soon
+ * as the next arrives and its slot replays as nothing, since any gap covering it
+ * also covers its successor. The ring's size is then the latest state plus the
+ * small events around it. Only the table's actor thread touches it.
+ */
+public class EventRing {
+    private final long[] sequences;
+    private final EncodedMessage[] shared;
+    private final EncodedMessage[][] perSeat;
+    private long lastSequence = 0;
+    private long latestState = 0; // Sequence of the state update still held, 0 if none
+
+    public EventRing(int capacity) {
+        sequences = new long[capacity];
+        shared = new EncodedMessage[capacity];
+        perSeat = new EncodedMessage[capacity][];
+    }
+
+    /**
+     * Record an event every seat sees identically
+     */
+    public void append(long sequence, EncodedMessage message) {
+        int slot = claimSlot(sequence);
+        shared[slot] = message.retain();
+    }
+
+    /**
+     * Record an event with a distinct encoding per seat
+     */
+    public void append(long sequence, EncodedMessage[] seatViews) {
+        int slot = claimSlot(sequence);
+        EncodedMessage[] copy = new EncodedMessage[seatViews.length];
+        boolean state = false;
+        for (int i = 0; i < seatViews.length; i++) {
+            copy[i] = seatViews[i] == null ? null : seatViews[i].retain();
+            state |= copy[i] != null && copy[i].getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE;
+        }
+        perSeat[slot] = copy;
+        if (state) {
+            if (latestState > 0) {
+                int previous = (int) (latestState % sequences.length);
+                if (sequences[previous] == latestState) {
+                    releaseSeatViews(previous);
+                }
+            }
+            latestState = sequence;
+        }
+    }
+
+    private int claimSlot(long sequence) {
+        int slot = (int) (sequence % sequences.length);
+        if (shared[slot] != null) {
+            shared[slot].release();
+            shared[slot] = null;
+        }
+        releaseSeatViews(slot);
+        sequences[slot] = sequence;
+        lastSequence = sequence;
+        return slot;
+    }
+
+    /**
+     * Hand every event after afterSequence, as seen by the given seat, to the consumer.
+     * @return false if some of those events were already overwritten; nothing is replayed then
+     */
+    public boolean replay(long afterSequence, int seat, Consumer<EncodedMessage> consumer) {
+        long missed = lastSequence - afterSequence;
+        if (missed <= 0) {
+            return true;
+        }
+        if (missed > sequences.length) {
+            return false;
+        }
+        for (long sequence = afterSequence + 1; sequence <= lastSequence; sequence++) {
+            int slot = (int) (sequence % sequences.length);
+            if (sequences[slot] != sequence) {
+                return false;
+            }
+        }
+        for (long sequence = afterSequence + 1; sequence <= lastSequence; sequence++) {
+            int slot = (int) (sequence % sequences.length);
+            if (shared[slot] != null) {
+                consumer.accept(shared[slot]);
+            } else if (perSeat[slot] != null && seat < perSeat[slot].length && perSeat[slot][seat] != null) {
+                consumer.accept(perSeat[slot][seat]);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Release everything still held
+     */
+    public void clear() {
+        for (int slot = 0; slot < sequences.length; slot++) {
+            if (shared[slot] != null) {
+                shared[slot].release();
+                shared[slot] = null;
+            }
+            releaseSeatViews(slot);
+        }
+        latestState = 0;
+    }
+
+    private void releaseSeatViews(int slot) {
+        if (perSeat[slot] != null) {
+            for (EncodedMessage view : perSeat[slot]) {
+                if (view != null) {
+                    view.release();
+                }
+            }
+            perSeat[slot] = null;
+        }
+    }
+
+    public long getLastSequence() { return lastSequence; }
+}
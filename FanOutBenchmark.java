@@ -0,0 +1,151 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Fan-out cost as tables grow from two to six seats.
+ * Every state change is encoded once per seat, since each seat sees its own
+ * hand, so the work per move grows with the table. For each table size this
+ * runs many tables of local players, then reports moves per second, the fan-out
+ * time per event and the bytes one event costs across all its views.
+ *
+ * Local seats have no connection, so nothing is written to sockets; writer
+ * threads are measured by LoadGenerator.
+ *
+ * Usage: java FanOutBenchmark [tables] [secondsPerRun] [threads]
+ */
+public class FanOutBenchmark {
+    private static final int MOVES_PER_GAME = 1000; // Start a fresh table after this many moves
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Tables: " + tables + ", " + seconds + "s per run, " + threads + " threads");
+        for (int seats = TableOptions.MIN_SEATS; seats <= TableOptions.MAX_SEATS; seats++) {
+            run(tables, seconds, threads, seats);
+        }
+        System.exit(0);
+    }
+
+    private static void run(int tables, int seconds, int threads, int seats) throws InterruptedException {
+        TableScheduler scheduler = new TableScheduler(threads);
+        GameServer server = new GameServer(new ServerConfig(), scheduler);
+        LongAdder moves = new LongAdder();
+        List<TableDriver> drivers = new ArrayList<>();
+
+        for (int i = 0; i < tables; i++) {
+            drivers.add(new TableDriver(server, seats, moves));
+        }
+
+        // Warm up, then measure; the histogram covers both, which the warm-up barely moves
+        for (TableDriver driver : drivers) {
+            driver.start();
+        }
+        Thread.sleep(1000);
+        long startMoves = moves.sum();
+        long startTime = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - startTime;
+        long measured = moves.sum() - startMoves;
+
+        for (TableDriver driver : drivers) {
+            driver.running = false;
+        }
+        LatencyHistogram fanOut = server.getMetrics().getFanOutTime();
+        System.out.printf("seats=%d  moves/sec=%,.0f  fan-out p50=%.1fus p99=%.1fus  bytes/event=%,d%n",
+            seats, measured * 1e9 / elapsed,
+            fanOut.getValueAtPercentile(0.5) / 1e3, fanOut.getValueAtPercentile(0.99) / 1e3,
+            eventBytes(seats));
+        server.stop();
+    }
+
+    /**
+     * Size of one state update across every seat's view, for a freshly dealt game
+     */
+    private static int eventBytes(int seats) {
+        List<String> names = new ArrayList<>();
+        for (int i = 0; i < seats; i++) {
+            names.add("P" + i);
+        }
+        Game game = new Game(names, false);
+        int total = 0;
+        for (int seat = 0; seat < seats; seat++) {
+            EncodedMessage view = MessageCodec.encode(new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE,
+                GameServer.GameStateData.forViewer(game, seat)));
+            total += view.length();
+            view.release();
+        }
+        return total;
+    }
+
+    /**
+     * Keeps one table busy: every turn it picks a legal move for the current player
+     * and re-posts itself behind that move, so each table always has work queued.
+     */
+    private static class TableDriver implements Runnable {
+        private final GameServer server;
+        private final int seats;
+        private final LongAdder moves;
+        private GameRoom room;
+        private int movesThisGame;
+        private long countedVersion; // Actions of this table already added to moves
+        volatile boolean running = true;
+
+        TableDriver(GameServer server, int seats, LongAdder moves) {
+            this.server = server;
+            this.seats = seats;
+            this.moves = moves;
+        }
+
+        void start() {
+            openTable();
+        }
+
+        private void openTable() {
+            room = server.createRoom(false, seats);
+            movesThisGame = 0;
+            countedVersion = 0;
+            for (int i = 0; i < seats; i++) {
+                room.addLocalPlayer("P" + i);
+            }
+            room.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            // Count what the table applied since the last turn; rejected actions are not moves
+            moves.add(room.getStateVersion() - countedVersion);
+            countedVersion = room.getStateVersion();
+            Game game = room.getGame();
+            if (game == null || room.isFinished() || movesThisGame >= MOVES_PER_GAME) {
+                server.closeRoom(room.getGameKey());
+                openTable();
+                return;
+            }
+
+            Player current = game.getCurrentPlayer();
+            Card move = null;
+            for (Card card : current.getHand()) {
+                if (card.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+                    move = card;
+                    break;
+                }
+            }
+            NetworkMessage message = move != null
+                ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, move)
+                : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+            room.handlePlayerMove(current.getName(), message);
+            if (move != null && move.getValue() == 7) {
+                // Nobody moves until a 7's suit is named; it goes right behind the 7, as a bot's does
+                room.handlePlayerMove(current.getName(),
+                    new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, move.getSuit()));
+            }
+            movesThisGame++;
+            room.execute(this);
+        }
+    }
+}
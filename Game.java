@@ -21,7 +21,30 @@ public class Game {
     
         // Constructor with AI option // Multiplayer will be added laters
         public Game(List<String> playerNames, boolean withAI) {
-            deck = new Deck();
+            this(playerNames, withAI, new Deck());
+        }
+
+        // Constructor for a deal fully determined by the seed (lockstep tables)
+        public Game(List<String> playerNames, long seed) {
+            this(playerNames, false, new Deck(seed));
+        }
+
+        // Constructor for a table restored from its snapshot (see TableSnapshot)
+        public Game(List<Player> players, Deck deck, Card topCard, Card.Suit forcedSuit, int currentPlayerIndex,
+                    boolean skipNext, int accumulatedDrawCards, boolean mustDrawCards, boolean lastCardWasOne) {
+            this.players = players;
+            this.deck = deck;
+            this.topCard = topCard;
+            this.forcedSuit = forcedSuit;
+            this.currentPlayerIndex = currentPlayerIndex;
+            this.skipNext = skipNext;
+            this.accumulatedDrawCards = accumulatedDrawCards;
+            this.mustDrawCards = mustDrawCards;
+            this.lastCardWasOne = lastCardWasOne;
+        }
+
+        private Game(List<String> playerNames, boolean withAI, Deck deck) {
+            this.deck = deck;
             players = new ArrayList<>();
             isAIGame = withAI;
 
@@ -240,14 +263,11 @@ public class Game {
 
             // If there are accumulated draw cards from "2" cards
             if (accumulatedDrawCards > 0) {
-                System.out.println("Player must draw " + accumulatedDrawCards + " cards");
-
                 // Draw the accumulated number of cards
                 for (int i = 0; i < accumulatedDrawCards; i++) {
                     Card drawCard = deck.draw();
                     if (drawCard != null) {
                         current.getHand().add(drawCard);
-                        System.out.println("Drew card: " + drawCard);
                     }
                 }
 
@@ -255,9 +275,10 @@ public class Game {
                 accumulatedDrawCards = 0;
                 mustDrawCards = false;
                 
-                // Skip the current player's turn and return to the previous player
-                // This is done by going back one player in the rotation
-                currentPlayerIndex = (currentPlayerIndex - 1 + players.size()) % players.size();
+                // Drawing the penalty uses up the current player's turn; play moves on to
+                // the next seat, as after any other turn (with two seats that is whoever
+                // played the last 2)
+                advanceTurn();
             } else {
                 // Normal draw - Just one card
                 current.drawCard(deck);
@@ -288,6 +309,10 @@ public class Game {
             this.forcedSuit = suit;
         }
 
+        public boolean isSkipNext() {
+            return skipNext;
+        }
+
         public int getAccumulatedDrawCards() {
             return accumulatedDrawCards;
         }
@@ -1,85 +1,431 @@
 import java.io.*;
 import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 
 /**
- * Client that connects to a multiplayer Hez game
+ * Client that connects to a multiplayer Hez game.
+ * If the connection drops mid-game the client reconnects on its own and resumes
+ * its seat with the ticket the server issued, receiving only the events it missed.
+ * Actions are numbered and carry the state version they were based on, so the
+ * ones still unanswered can simply be sent again after a resume.
+ *
+ * Every join and action also has an asynchronous form returning a
+ * CompletableFuture, for bots and load generators that drive many clients from
+ * few threads: joins complete with the table's key, actions with the server's
+ * answer to them. Blocking handshakes run on a pool shared by every client in
+ * the JVM, and the connect, read and join timeouts are configurable.
+ *
+ * Messages are decoded on the listener thread and reach the handler in order on
+ * its executor: the EDT for the Swing UI, or the listener thread itself for
+ * headless bots. The executor is handed one task per burst rather than one per
+ * message. Consecutive state updates waiting for it are merged, latest wins, so
+ * a burst of moves costs one repaint instead of one each.
  */
 public class GameClient {
-    private static final String SERVER_HOST = "localhost";
-    private static final int SERVER_PORT = 12345;
+    private static final long RESUME_WINDOW_MS = 60000; // Matches the server's grace period
+    private static final long RESUME_RETRY_MS = 1000;
+    private static final int DEFAULT_CONNECT_TIMEOUT_MS = 10000;
+    private static final int DEFAULT_READ_TIMEOUT_MS = 45000; // The server pings every 15 s, so silence this long means a dead link
+    private static final long LISTENER_STACK_BYTES = 256 * 1024; // Listeners only decode small frames, so thousands fit in one JVM
     
-    private Socket socket;
-    private ObjectInputStream inputStream;
-    private ObjectOutputStream outputStream;
-    private boolean isConnected = false;
+    // Runs the blocking handshakes behind the asynchronous API, for every client in the JVM
+    private static final ExecutorService HANDSHAKES = Executors.newCachedThreadPool(task -> {
+        Thread thread = new Thread(null, task, "game-client-join", LISTENER_STACK_BYTES);
+        thread.setDaemon(true);
+        return thread;
+    });
+    
+    private final Transport transport;
+    private final String host;
+    private final int port;
+    private final Executor handlerExecutor; // Where the message handler runs
+    private volatile int connectTimeoutMillis = DEFAULT_CONNECT_TIMEOUT_MS;
+    private volatile int readTimeoutMillis = DEFAULT_READ_TIMEOUT_MS;
+    private volatile long joinTimeoutMillis = 0; // 0: wait as long as the server keeps the connection alive
+    private Transport.Connection connection;
+    private DataInputStream inputStream;
+    private DataOutputStream outputStream;
+    private volatile boolean isConnected = false;
+    private volatile boolean userDisconnected = false;
     private String playerName;
+    private String gameKey;
+    private volatile SessionTicket ticket;
+    private volatile long lastAppliedSequence = 0;
     private Consumer<NetworkMessage> messageHandler;
+    private final TraceCollector traces = new TraceCollector();
+    private volatile LockstepState lockstepState; // Our replica at a lockstep table, built from the server's snapshot
+    private volatile long stateVersion = -1; // Table state of the last update applied; -1 before the first
+    // Guarded by this, like the output stream
+    private long actionSequence = 0; // Numbers our actions so the table can drop one it has already seen
+    private long pipelinedVersion = -1; // State our newest unanswered action will leave the table in
+    private final ArrayDeque<NetworkMessage> unanswered = new ArrayDeque<>(); // Resent after a resume
+    private final Map<NetworkMessage, CompletableFuture<NetworkMessage>> answers = new IdentityHashMap<>(); // For actions sent asynchronously
     private Thread listenerThread;
+    // Guarded by uiUpdates
+    private final ArrayDeque<UiUpdate> uiUpdates = new ArrayDeque<>(); // Waiting for the handler's executor
+    private UiUpdate mergeableState; // Newest waiting update, if it is a state a newer one may replace
+    private volatile long mergedStates = 0; // State updates the UI never saw because a newer one replaced them
+    
+    /**
+     * A message on its way to the UI, with the traces of any states it replaced
+     */
+    private static class UiUpdate {
+        NetworkMessage message;
+        List<MoveTrace> replacedTraces;
+        
+        UiUpdate(NetworkMessage message) {
+            this.message = message;
+        }
+        
+        void replaceWith(NetworkMessage newer) {
+            if (message.getTrace() != null) {
+                if (replacedTraces == null) {
+                    replacedTraces = new ArrayList<>(2);
+                }
+                replacedTraces.add(message.getTrace());
+            }
+            message = newer;
+        }
+    }
+    
+    /**
+     * A client for a server on this machine's default port, handling messages on the EDT
+     */
+    public GameClient() {
+        this(new TcpTransport(), "localhost", ServerConfig.DEFAULT_PORT);
+    }
+    
+    /**
+     * A client that reaches its server through the given transport, e.g. an InMemoryTransport
+     * shared with it, and handles messages on the EDT
+     */
+    public GameClient(Transport transport, String host, int port) {
+        this(transport, host, port, javax.swing.SwingUtilities::invokeLater);
+    }
+    
+    /**
+     * @param handlerExecutor runs the message handler; a headless client passes Runnable::run
+     *        to handle messages on the listener thread without touching AWT
+     */
+    public GameClient(Transport transport, String host, int port, Executor handlerExecutor) {
+        this.transport = transport;
+        this.host = host;
+        this.port = port;
+        this.handlerExecutor = handlerExecutor;
+    }
+    
+    /**
+     * How long opening a connection may take; 0 waits forever
+     */
+    public void setConnectTimeoutMillis(int connectTimeoutMillis) {
+        this.connectTimeoutMillis = connectTimeoutMillis;
+    }
     
     /**
-     * Connect to a game server
+     * How long the connection may stay silent before it counts as dead; 0 waits forever
+     */
+    public void setReadTimeoutMillis(int readTimeoutMillis) {
+        this.readTimeoutMillis = readTimeoutMillis;
+    }
+    
+    /**
+     * How long an asynchronous join may take from start to seat, matchmaking
+     * included, before it fails with a TimeoutException; 0 waits forever
+     */
+    public void setJoinTimeoutMillis(long joinTimeoutMillis) {
+        this.joinTimeoutMillis = joinTimeoutMillis;
+    }
+    
+    /**
+     * Connect to a game server and join the table with the given key
      */
     public boolean connect(String gameKey, String playerName, Consumer<NetworkMessage> messageHandler) {
-        this.playerName = playerName;
+        return connect(new NetworkMessage(NetworkMessage.MessageType.JOIN_GAME, gameKey, playerName), messageHandler);
+    }
+    
+    /**
+     * Connect to a game server and open a new table there
+     */
+    public boolean createGame(String playerName, Consumer<NetworkMessage> messageHandler) {
+        return createGame(playerName, messageHandler, false);
+    }
+    
+    /**
+     * Connect and open a new table, optionally one that plays in lockstep (see LockstepSession)
+     */
+    public boolean createGame(String playerName, Consumer<NetworkMessage> messageHandler, boolean lockstep) {
+        return createGame(playerName, messageHandler, new TableOptions(TableOptions.DEFAULT_SEATS, lockstep));
+    }
+    
+    /**
+     * Connect and open a new table with the given number of seats and mode
+     */
+    public boolean createGame(String playerName, Consumer<NetworkMessage> messageHandler, TableOptions options) {
+        return connect(new NetworkMessage(NetworkMessage.MessageType.CREATE_GAME, options, playerName), messageHandler);
+    }
+    
+    /**
+     * Connect and wait in the server's matchmaking queue until an opponent of similar rating turns up.
+     * Disconnecting meanwhile takes the player out of the queue.
+     */
+    public boolean findMatch(String playerName, int rating, Consumer<NetworkMessage> messageHandler) {
+        return connect(new NetworkMessage(NetworkMessage.MessageType.FIND_MATCH, rating, playerName), messageHandler);
+    }
+    
+    /**
+     * Connect and watch the table with the given key from no seat. Spectators see
+     * every hand hidden and cannot act; a dropped connection is not resumed.
+     */
+    public boolean watch(String gameKey, String playerName, Consumer<NetworkMessage> messageHandler) {
+        return connect(new NetworkMessage(NetworkMessage.MessageType.WATCH_GAME, gameKey, playerName), messageHandler);
+    }
+    
+    /**
+     * Join the table with the given key without waiting
+     * @return completes with the table's key once seated, or exceptionally if the join fails
+     */
+    public CompletableFuture<String> connectAsync(String gameKey, String playerName, Consumer<NetworkMessage> messageHandler) {
+        return joinAsync(new NetworkMessage(NetworkMessage.MessageType.JOIN_GAME, gameKey, playerName), messageHandler);
+    }
+    
+    /**
+     * Open a new table without waiting
+     * @return completes with the new table's key once seated there
+     */
+    public CompletableFuture<String> createGameAsync(String playerName, Consumer<NetworkMessage> messageHandler, TableOptions options) {
+        return joinAsync(new NetworkMessage(NetworkMessage.MessageType.CREATE_GAME, options, playerName), messageHandler);
+    }
+    
+    /**
+     * Queue for a match without waiting
+     * @return completes with the key of the table the match was seated at
+     */
+    public CompletableFuture<String> findMatchAsync(String playerName, int rating, Consumer<NetworkMessage> messageHandler) {
+        return joinAsync(new NetworkMessage(NetworkMessage.MessageType.FIND_MATCH, rating, playerName), messageHandler);
+    }
+    
+    /**
+     * Start watching a table without waiting
+     * @return completes with the table's key once the server is sending it
+     */
+    public CompletableFuture<String> watchAsync(String gameKey, String playerName, Consumer<NetworkMessage> messageHandler) {
+        return joinAsync(new NetworkMessage(NetworkMessage.MessageType.WATCH_GAME, gameKey, playerName), messageHandler);
+    }
+    
+    /**
+     * Connect and send the given join request, waiting for the outcome
+     */
+    private boolean connect(NetworkMessage joinMessage, Consumer<NetworkMessage> messageHandler) {
+        try {
+            joinAsync(joinMessage, messageHandler).join();
+            return true;
+        } catch (CompletionException | CancellationException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * Run the join handshake on the shared pool, giving up after the join timeout
+     */
+    private CompletableFuture<String> joinAsync(NetworkMessage joinMessage, Consumer<NetworkMessage> messageHandler) {
+        CompletableFuture<String> joined = new CompletableFuture<>();
+        long timeout = joinTimeoutMillis;
+        if (timeout > 0) {
+            joined.orTimeout(timeout, TimeUnit.MILLISECONDS).whenComplete((key, e) -> {
+                if (e instanceof TimeoutException) {
+                    System.err.println("No answer to join after " + timeout + " ms");
+                    disconnect(); // Unblocks the handshake, which then fails
+                }
+            });
+        }
+        HANDSHAKES.execute(() -> {
+            if (joined.isDone()) {
+                return;
+            }
+            try {
+                joined.complete(join(joinMessage, messageHandler));
+            } catch (IOException e) {
+                joined.completeExceptionally(e);
+            }
+        });
+        return joined;
+    }
+    
+    /**
+     * Connect and send the given join request
+     * @return the table's key
+     */
+    private String join(NetworkMessage joinMessage, Consumer<NetworkMessage> messageHandler) throws IOException {
+        this.playerName = joinMessage.getPlayerName();
         this.messageHandler = messageHandler;
+        this.userDisconnected = false;
+        this.lastAppliedSequence = 0;
+        this.lockstepState = null;
+        resetActions();
         
+        NetworkMessage response;
         try {
-            socket = new Socket(SERVER_HOST, SERVER_PORT);
-            
-            // Create streams
-            outputStream = new ObjectOutputStream(socket.getOutputStream());
+            response = handshake(joinMessage);
+        } catch (IOException e) {
+            System.err.println("Error connecting to server: " + e.getMessage());
+            disconnect();
+            throw e;
+        }
+        
+        if (response.getType() == NetworkMessage.MessageType.GAME_JOINED) {
+            acceptTicket(response);
+            System.out.println("Successfully connected to game!");
+            return gameKey;
+        
+        } else if (response.getType() == NetworkMessage.MessageType.SPECTATING) {
+            ticket = null;
+            gameKey = (String) response.getData();
+            isConnected = true;
+            startMessageListener();
+            System.out.println("Watching game " + gameKey);
+            return gameKey;
+        }
+        
+        String reason = response.getType() == NetworkMessage.MessageType.ERROR
+            ? String.valueOf(response.getData()) : "unexpected " + response.getType();
+        System.err.println("Failed to join game: " + reason);
+        disconnect();
+        throw new IOException("Failed to join game: " + reason);
+    }
+    
+    /**
+     * Open a connection, send the first request and wait for the server's answer
+     */
+    private NetworkMessage handshake(NetworkMessage request) throws IOException {
+        connection = transport.connect(host, port, connectTimeoutMillis, readTimeoutMillis);
+        
+        // Create streams; messages travel as length-prefixed frames (see MessageCodec)
+        outputStream = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        inputStream = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        
+        MessageCodec.writeFrame(outputStream, MessageCodec.encode(request));
+        outputStream.flush();
+        
+        // A match can take longer than one heartbeat, so keep answering pings until the answer comes
+        NetworkMessage response = MessageCodec.readMessage(inputStream);
+        while (response.getType() == NetworkMessage.MessageType.PING) {
+            MessageCodec.writeFrame(outputStream, MessageCodec.encode(new NetworkMessage(NetworkMessage.MessageType.PONG)));
             outputStream.flush();
-            inputStream = new ObjectInputStream(socket.getInputStream());
-            
-            // Send join request
-            NetworkMessage joinMessage = new NetworkMessage(NetworkMessage.MessageType.JOIN_GAME, gameKey, playerName);
-            sendMessage(joinMessage);
-            
-            // Wait for response
-            NetworkMessage response = (NetworkMessage) inputStream.readObject();
+            response = MessageCodec.readMessage(inputStream);
+        }
+        return response;
+    }
+    
+    /**
+     * Store the session ticket from GAME_JOINED and start listening
+     */
+    private void acceptTicket(NetworkMessage response) {
+        ticket = (SessionTicket) response.getData();
+        gameKey = ticket.getGameKey();
+        isConnected = true;
+        startMessageListener();
+    }
+    
+    /**
+     * Try to get our seat back on a new connection
+     */
+    private boolean resume() {
+        SessionTicket current = ticket;
+        if (current == null) {
+            return false;
+        }
+        closeStreams();
+        
+        try {
+            NetworkMessage request = new NetworkMessage(NetworkMessage.MessageType.RESUME_SESSION,
+                current.withLastSequence(lastAppliedSequence), playerName);
+            NetworkMessage response = handshake(request);
             
             if (response.getType() == NetworkMessage.MessageType.GAME_JOINED) {
-                isConnected = true;
-                
-                // Start listening for messages
-                startMessageListener();
-                
-                System.out.println("Successfully connected to game!");
+                if (((SessionTicket) response.getData()).getLastSequence() < lastAppliedSequence) {
+                    // The server restarted and restored the table from its move log, numbering
+                    // events afresh; it sends a snapshot next
+                    lastAppliedSequence = 0;
+                }
+                acceptTicket(response);
+                System.out.println("Resumed session after " + lastAppliedSequence);
+                resendUnanswered();
                 return true;
-                
-            } else if (response.getType() == NetworkMessage.MessageType.ERROR) {
-                System.err.println("Failed to join game: " + response.getData());
-                disconnect();
-                return false;
             }
             
-        } catch (IOException | ClassNotFoundException e) {
-            System.err.println("Error connecting to server: " + e.getMessage());
-            disconnect();
-            return false;
-        }
+            // The server no longer knows the seat; no point retrying
+            System.err.println("Resume rejected: " + response.getData());
+            ticket = null;
         
+        } catch (IOException e) {
+            System.err.println("Resume attempt failed: " + e.getMessage());
+        }
+        closeStreams();
         return false;
     }
     
+    /**
+     * Keep trying to resume until the server's grace period would have run out
+     */
+    private void reconnectLoop() {
+        long deadline = System.currentTimeMillis() + RESUME_WINDOW_MS;
+        while (!userDisconnected && ticket != null && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(RESUME_RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (!userDisconnected && resume()) {
+                return;
+            }
+        }
+        
+        if (!userDisconnected) {
+            failUnanswered("Lost connection to server");
+            deliver(new NetworkMessage(NetworkMessage.MessageType.ERROR, "Lost connection to server"));
+        }
+    }
+    
     /**
      * Start listening for messages from the server
      */
     private void startMessageListener() {
-        listenerThread = new Thread(() -> {
+        DataInputStream input = inputStream;
+        listenerThread = new Thread(null, () -> {
             try {
                 while (isConnected) {
                     try {
-                        NetworkMessage message = (NetworkMessage) inputStream.readObject();
+                        NetworkMessage message = MessageCodec.readMessage(input);
+                        if (message.getTrace() != null) {
+                            message.getTrace().markDecoded();
+                        }
                         
-                        if (message != null && messageHandler != null) {
-                            // Handle message on EDT for UI updates
-                            javax.swing.SwingUtilities.invokeLater(() -> {
-                                messageHandler.accept(message);
-                            });
+                        if (message.getType() == NetworkMessage.MessageType.PING) {
+                            sendMessage(new NetworkMessage(NetworkMessage.MessageType.PONG));
+                            continue;
                         }
                         
+                        // Events replayed after a resume may overlap what we already applied
+                        long sequence = message.getSequence();
+                        if (sequence > 0) {
+                            if (sequence <= lastAppliedSequence) {
+                                continue;
+                            }
+                            lastAppliedSequence = sequence;
+                        }
+                        if (isLockstepMessage(message)) {
+                            handleLockstep(message);
+                            continue;
+                        }
+                        if (message.getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE) {
+                            stateApplied(message.getStateVersion(), message, message.getActionSequence());
+                        } else if (message.getType() == NetworkMessage.MessageType.INVALID_MOVE) {
+                            actionRejected(message);
+                        }
+                        deliver(message);
+                    
                     } catch (EOFException e) {
                         // Server disconnected
                         break;
@@ -88,19 +434,241 @@ public class GameClient {
                         break;
                     }
                 }
-            } catch (IOException | ClassNotFoundException e) {
+            } catch (IOException e) {
                 if (isConnected) {
                     System.err.println("Error receiving message: " + e.getMessage());
                 }
             } finally {
                 isConnected = false;
             }
-        });
+            
+            // A drop we did not ask for: try to get the seat back
+            if (!userDisconnected) {
+                reconnectLoop();
+            }
+        }, "game-client-" + playerName, LISTENER_STACK_BYTES);
         
         listenerThread.setDaemon(true);
         listenerThread.start();
     }
     
+    private static boolean isLockstepMessage(NetworkMessage message) {
+        switch (message.getType()) {
+            case LOCKSTEP_SNAPSHOT:
+            case LOCKSTEP_MOVE:
+            case LOCKSTEP_REVEAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+    
+    /**
+     * Advance our lockstep replica and show the UI the state it produces, so the
+     * UI handles lockstep and ordinary tables alike
+     */
+    private void handleLockstep(NetworkMessage message) {
+        boolean ownMove = false;
+        switch (message.getType()) {
+            case LOCKSTEP_SNAPSHOT:
+                lockstepState = new LockstepState((LockstepSession.Snapshot) message.getData());
+                break;
+            
+            case LOCKSTEP_MOVE:
+                LockstepState state = lockstepState;
+                LockstepMove move = (LockstepMove) message.getData();
+                if (state == null || !state.apply(move)) {
+                    // A fresh snapshot follows a resume, so a stray move can be ignored
+                    System.err.println("Out of step, ignoring " + move);
+                    return;
+                }
+                ownMove = move.getSeat() == state.getSeat();
+                if (state.getMoveNumber() % LockstepSession.HASH_INTERVAL == 0) {
+                    sendMessage(new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_HASH,
+                        new long[] {state.getMoveNumber(), state.stateHash()}));
+                }
+                break;
+            
+            case LOCKSTEP_REVEAL:
+                if (lockstepState != null) {
+                    boolean fair = lockstepState.verify((LockstepSession.Reveal) message.getData(), gameKey);
+                    System.out.println(fair ? "Deal verified against the server's commitments"
+                        : "WARNING: the revealed deal does not match the server's commitments");
+                }
+                return;
+            
+            default:
+                return;
+        }
+        // At a lockstep table the state version is the move number. Binary moves carry
+        // no action number, but the table applies a seat's actions in the order sent, so
+        // a move of ours answers our oldest action that was not turned down
+        NetworkMessage state = new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE, lockstepState.toGameState());
+        stateApplied(lockstepState.getMoveNumber(), state, ownMove ? oldestUnanswered() : 0);
+        deliver(state);
+    }
+    
+    private synchronized long oldestUnanswered() {
+        return unanswered.isEmpty() ? 0 : unanswered.peek().getActionSequence();
+    }
+    
+    /**
+     * The table reached a new state
+     * @param answeredSequence number of our last action the table has applied as of this state; 0 if none.
+     *        Every action up to it is answered with this state, including one whose own reply was
+     *        replaced by this newer state before we read it.
+     */
+    private void stateApplied(long version, NetworkMessage state, long answeredSequence) {
+        List<CompletableFuture<NetworkMessage>> answered = null;
+        synchronized (this) {
+            if (version < 0) {
+                return;
+            }
+            stateVersion = version;
+            pipelinedVersion = Math.max(pipelinedVersion, version);
+            while (answeredSequence > 0 && !unanswered.isEmpty()
+                    && unanswered.peek().getActionSequence() <= answeredSequence) {
+                CompletableFuture<NetworkMessage> answer = answers.remove(unanswered.poll());
+                if (answer != null) {
+                    if (answered == null) {
+                        answered = new ArrayList<>(2);
+                    }
+                    answered.add(answer);
+                }
+            }
+        }
+        // Outside the lock, so whatever was chained on an answer can send the next action
+        if (answered != null) {
+            for (CompletableFuture<NetworkMessage> answer : answered) {
+                answer.complete(state);
+            }
+        }
+    }
+    
+    /**
+     * The table turned down the action whose number the rejection echoes; whatever
+     * was pipelined behind it will be turned down too
+     */
+    private void actionRejected(NetworkMessage rejection) {
+        CompletableFuture<NetworkMessage> answer = null;
+        synchronized (this) {
+            Iterator<NetworkMessage> actions = unanswered.iterator();
+            while (actions.hasNext()) {
+                NetworkMessage action = actions.next();
+                if (action.getActionSequence() == rejection.getActionSequence()) {
+                    actions.remove();
+                    answer = answers.remove(action);
+                    break;
+                }
+            }
+            pipelinedVersion = stateVersion;
+        }
+        if (answer != null) {
+            answer.complete(rejection);
+        }
+    }
+    
+    private void resetActions() {
+        synchronized (this) {
+            stateVersion = -1;
+            pipelinedVersion = -1;
+            unanswered.clear();
+        }
+        failUnanswered("Joined a new table");
+    }
+    
+    /**
+     * Fail every asynchronous action still waiting for an answer that will not come
+     */
+    private void failUnanswered(String reason) {
+        List<CompletableFuture<NetworkMessage>> waiting;
+        synchronized (this) {
+            if (answers.isEmpty()) {
+                return;
+            }
+            waiting = new ArrayList<>(answers.values());
+            answers.clear();
+        }
+        for (CompletableFuture<NetworkMessage> answer : waiting) {
+            answer.completeExceptionally(new IOException(reason));
+        }
+    }
+    
+    /**
+     * Send again what the old connection may have lost. The table drops anything
+     * it already applied, and rejects anything the game has moved past.
+     */
+    private synchronized void resendUnanswered() {
+        for (NetworkMessage action : unanswered) {
+            sendMessage(action);
+        }
+    }
+    
+    /**
+     * Hand a message to the UI. A state update replaces one still waiting for the
+     * handler's executor, unless that one answers our own move: the UI confirms its
+     * predictions against those one by one.
+     */
+    private void deliver(NetworkMessage message) {
+        if (messageHandler == null) {
+            return;
+        }
+        boolean isState = message.getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE;
+        boolean wasEmpty;
+        synchronized (uiUpdates) {
+            if (isState && mergeableState != null) {
+                mergeableState.replaceWith(message);
+                mergedStates++;
+                if (isOwnMove(message)) {
+                    mergeableState = null;
+                }
+                return;
+            }
+            wasEmpty = uiUpdates.isEmpty();
+            UiUpdate update = new UiUpdate(message);
+            uiUpdates.addLast(update);
+            mergeableState = isState && !isOwnMove(message) ? update : null;
+        }
+        if (wasEmpty) {
+            handlerExecutor.execute(this::applyUiUpdates);
+        }
+    }
+    
+    private boolean isOwnMove(NetworkMessage message) {
+        MoveTrace trace = message.getTrace();
+        return trace != null && trace.getPlayerName().equals(playerName);
+    }
+    
+    /**
+     * Runs on the handler's executor: give the handler everything that has arrived since the last run
+     */
+    private void applyUiUpdates() {
+        List<UiUpdate> batch;
+        synchronized (uiUpdates) {
+            batch = new ArrayList<>(uiUpdates);
+            uiUpdates.clear();
+            mergeableState = null;
+        }
+        for (UiUpdate update : batch) {
+            messageHandler.accept(update.message);
+            
+            // The handler has updated the UI for this move, and for any it replaced; close their traces
+            if (update.replacedTraces != null) {
+                for (MoveTrace trace : update.replacedTraces) {
+                    rendered(trace);
+                }
+            }
+            if (update.message.getTrace() != null) {
+                rendered(update.message.getTrace());
+            }
+        }
+    }
+    
+    private void rendered(MoveTrace trace) {
+        trace.markRendered();
+        traces.record(trace, playerName);
+    }
+    
     /**
      * Send a message to the server
      */
@@ -111,70 +679,177 @@ public class GameClient {
         
         try {
             message.setPlayerName(playerName);
-            outputStream.writeObject(message);
+            MessageCodec.writeFrame(outputStream, MessageCodec.encode(message));
             outputStream.flush();
             return true;
-            
+        
         } catch (IOException e) {
+            // The listener notices the broken connection and resumes
             System.err.println("Error sending message: " + e.getMessage());
-            disconnect();
             return false;
         }
     }
     
     /**
      * Send a card play action
+     * @return the message sent, whose trace identifies the server's answer, or null if it could not be sent
      */
-    public boolean playCard(Card card) {
-        NetworkMessage message = new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, card);
-        return sendMessage(message);
+    public NetworkMessage playCard(Card card) {
+        NetworkMessage message = cardAction(card);
+        return sendAction(message) ? message : null;
     }
     
     /**
      * Send a draw card action
      */
     public boolean drawCard() {
-        NetworkMessage message = new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
-        return sendMessage(message);
+        return sendAction(drawAction());
     }
     
     /**
      * Send a suit choice (for wild cards)
      */
     public boolean chooseSuit(Card.Suit suit) {
-        NetworkMessage message = new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, suit);
+        return sendAction(suitAction(suit));
+    }
+    
+    /**
+     * Play a card without waiting for the table
+     * @return completes with the state update that answers the play, or with INVALID_MOVE if the table turns it down
+     */
+    public CompletableFuture<NetworkMessage> playCardAsync(Card card) {
+        return sendActionAsync(cardAction(card));
+    }
+    
+    /**
+     * Draw without waiting for the table
+     * @return completes like playCardAsync
+     */
+    public CompletableFuture<NetworkMessage> drawCardAsync() {
+        return sendActionAsync(drawAction());
+    }
+    
+    /**
+     * Choose a suit without waiting for the table
+     * @return completes like playCardAsync
+     */
+    public CompletableFuture<NetworkMessage> chooseSuitAsync(Card.Suit suit) {
+        return sendActionAsync(suitAction(suit));
+    }
+    
+    private NetworkMessage cardAction(Card card) {
+        return lockstepState != null ? lockstepAction(MoveCodec.cardCode(card))
+            : tracedAction(new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, card));
+    }
+    
+    private NetworkMessage drawAction() {
+        return lockstepState != null ? lockstepAction(MoveCodec.DRAW)
+            : tracedAction(new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD));
+    }
+    
+    private NetworkMessage suitAction(Card.Suit suit) {
+        return lockstepState != null ? lockstepAction(MoveCodec.suitCode(suit))
+            : tracedAction(new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, suit));
+    }
+    
+    private NetworkMessage tracedAction(NetworkMessage message) {
+        message.setTrace(MoveTrace.start(playerName));
+        return message;
+    }
+    
+    /**
+     * Number an action and base it on the state our earlier actions will have
+     * produced, so it can go out without waiting for their answers
+     */
+    private synchronized boolean sendAction(NetworkMessage message) {
+        message.setActionSequence(++actionSequence);
+        if (stateVersion >= 0) {
+            long basedOn = Math.max(stateVersion, pipelinedVersion);
+            message.setStateVersion(basedOn);
+            pipelinedVersion = basedOn + 1;
+        }
+        unanswered.add(message);
         return sendMessage(message);
     }
     
+    /**
+     * Send an action whose answer completes the returned future. An action that
+     * cannot go out while the client is resuming waits to be resent like any other.
+     */
+    private CompletableFuture<NetworkMessage> sendActionAsync(NetworkMessage message) {
+        CompletableFuture<NetworkMessage> answer = new CompletableFuture<>();
+        synchronized (this) {
+            answers.put(message, answer);
+            if (sendAction(message) || (ticket != null && !userDisconnected)) {
+                return answer;
+            }
+            answers.remove(message);
+            unanswered.remove(message);
+        }
+        answer.completeExceptionally(new IOException("Not connected"));
+        return answer;
+    }
+    
+    /**
+     * A move at a lockstep table travels as its bare code; binary frames carry no trace
+     */
+    private NetworkMessage lockstepAction(byte code) {
+        return new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE, LockstepMove.request(code));
+    }
+    
     /**
      * Disconnect from the server
      */
     public void disconnect() {
+        userDisconnected = true;
         isConnected = false;
         
+        if (listenerThread != null && listenerThread.isAlive()) {
+            listenerThread.interrupt();
+        }
+        closeStreams();
+        failUnanswered("Disconnected");
+        
+        System.out.println("Disconnected from server");
+        if (traces.getLastTrace() != null) {
+            System.out.print("Move latency breakdown (ms):\n" + traces.getSummary());
+        }
+    }
+    
+    /**
+     * Close the current connection and its streams
+     */
+    private synchronized void closeStreams() {
         try {
-            if (listenerThread != null && listenerThread.isAlive()) {
-                listenerThread.interrupt();
-            }
-            
             if (inputStream != null) {
                 inputStream.close();
             }
             if (outputStream != null) {
                 outputStream.close();
             }
-            if (socket != null && !socket.isClosed()) {
-                socket.close();
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
             }
-            
+        
         } catch (IOException e) {
             System.err.println("Error disconnecting: " + e.getMessage());
         }
-        
-        System.out.println("Disconnected from server");
+    }
+    
+    /**
+     * Drop the connection without giving up the seat, as a network failure would
+     */
+    public void simulateConnectionLoss() {
+        closeStreams();
     }
     
     // Getters
     public boolean isConnected() { return isConnected; }
     public String getPlayerName() { return playerName; }
-}
\ No newline at end of file
+    public String getGameKey() { return gameKey; }
+    public long getLastAppliedSequence() { return lastAppliedSequence; }
+    public long getStateVersion() { return stateVersion; }
+    public TraceCollector getTraces() { return traces; }
+    public long getMergedStateCount() { return mergedStates; }
+    public LockstepState getLockstepState() { return lockstepState; }
+}
@@ -0,0 +1,1211 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A single Hez table hosted by the game server, identified by its game key.
+ *
+ * The room is an actor: public entry points only enqueue work on its mailbox,
+ * and the TableScheduler drains that mailbox on the one worker thread this room
+ * is pinned to. Table state is therefore only touched by a single thread and
+ * needs no locking.
+ *
+ * Seats outlive connections: every seated client gets a resume token, and once
+ * the game is running a dropped connection only marks the seat as away for a
+ * grace period. Broadcast events are numbered and kept in an EventRing so a
+ * client that resumes is sent just what it missed (of the state updates, only
+ * the latest), or a fresh snapshot if the ring no longer covers the gap.
+ *
+ * When the server keeps a MoveLog, every applied move is logged before anyone
+ * hears about it: output produced after a log append is held until the record
+ * is durable, so a client never sees a move the server could forget in a crash.
+ *
+ * Clients number their actions and name the state version each was based on.
+ * The table drops an action it has already seen from that seat, so a resend
+ * after a reconnect is harmless, and rejects one based on a state that has since
+ * moved on. A client can therefore send a 7 and its suit back to back: the suit
+ * names the version the 7 will produce.
+ *
+ * When the server allows it, bots fill the seats nobody took within the wait
+ * and the seats of players who left mid-game for good. A bot thinks on the
+ * server's BotPool and its move comes back through the mailbox like anyone's.
+ *
+ * Anyone may watch a table without a seat. Spectators get the table's public
+ * view, encoded once per state, through its SpectatorFeed.
+ */
+public class GameRoom {
+    private static final int MAILBOX_BATCH = 64; // Messages handled per turn before yielding the worker
+    private static final int EVENT_RING_CAPACITY = 128;
+    private static final int MAILBOX_HIGH_WATER = 256; // Connections stop reading for this table above this many tasks
+    private static final SecureRandom tokenRandom = new SecureRandom();
+
+    private final String gameKey;
+    private final GameServer gameServer;
+    private final TableScheduler scheduler;
+    private final int shard;
+    private final long createdAt;
+    private final boolean lockstepMode;
+    private final int seats; // The game starts once this many players sit down
+    private final MoveLog moveLog; // null when the server keeps no log
+    private final Queue<Runnable> mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private final AtomicInteger mailboxSize = new AtomicInteger();
+
+    // Owned by the actor thread
+    private Game game;
+    private Map<String, ClientHandler> clients = new HashMap<>();
+    private List<String> playerNames = new ArrayList<>();
+    private Map<String, String> resumeTokens = new HashMap<>();
+    private Map<String, Long> awaySince = new HashMap<>(); // Seats whose connection dropped mid-game
+    private EventRing events = new EventRing(EVENT_RING_CAPACITY);
+    private long sequence = 0;
+    private long startSequence = 0;
+    private int localPlayers = 0; // Seats played in-process rather than over a connection
+    private TimingWheel.Timeout turnTimer;
+    private long turnSerial = 0;
+    private MoveTrace currentTrace; // Trace of the move being applied, passed on to the events it causes
+    private LockstepSession lockstep; // Set when a lockstep table starts
+    private final ArrayDeque<HeldOutput> heldOutput = new ArrayDeque<>();
+    private long loggedRecords = 0;
+    private long durableRecords = 0;
+    private Set<String> needsSnapshot = new HashSet<>(); // Seats restored from the log, owed a snapshot on resume
+    private long stateVersion = 0; // Moves applied since the deal
+    private Map<String, Long> lastActionSequence = new HashMap<>(); // Highest action number seen from each seat
+    private int suitChooser = -1; // Seat that may still name a suit for the 7 it just played
+    private long currentAction; // Client number of the action being applied, logged with its move
+    private Set<String> botSeats = new HashSet<>(); // Seats the server plays
+    private int botsSeated = 0;
+    private boolean botFillArmed = false;
+    private long botTurn = -1; // State version a bot move was last requested for
+    private final SpectatorFeed spectators;
+    private long spectatorVersion = -1; // State version of the last public view handed to the spectators
+
+    // Published for readers outside the actor
+    private volatile long lastActivity;
+    private volatile List<String> playerNamesView = Collections.emptyList();
+    private volatile boolean gameStarted = false;
+    private volatile boolean finished = false;
+    private volatile String turnView; // Whose turn it is, for cheap checks on connection threads
+    private volatile String suitChooserView; // Who may still choose a suit, likewise
+
+    public GameRoom(String gameKey, GameServer gameServer, TableScheduler scheduler) {
+        this(gameKey, gameServer, scheduler, false, TableOptions.DEFAULT_SEATS);
+    }
+
+    /**
+     * @param lockstepMode Deal from a committed seed and exchange only move codes (see LockstepSession)
+     * @param seats Players the table waits for, TableOptions.MIN_SEATS to MAX_SEATS
+     */
+    public GameRoom(String gameKey, GameServer gameServer, TableScheduler scheduler, boolean lockstepMode, int seats) {
+        this.gameKey = gameKey;
+        this.lockstepMode = lockstepMode;
+        this.seats = seats;
+        this.gameServer = gameServer;
+        this.moveLog = gameServer.getMoveLog();
+        this.scheduler = scheduler;
+        this.shard = scheduler.shardFor(gameKey);
+        this.createdAt = System.currentTimeMillis();
+        this.lastActivity = createdAt;
+        ServerConfig config = gameServer.getConfig();
+        this.spectators = new SpectatorFeed(gameServer, gameServer.getSpectatorPool(),
+            config.getSpectatorDelayMillis(), config.getMaxSpectators());
+    }
+
+    /**
+     * Output waiting for the log records written before it
+     */
+    private static class HeldOutput {
+        final long barrier;
+        final Runnable output;
+
+        HeldOutput(long barrier, Runnable output) {
+            this.barrier = barrier;
+            this.output = output;
+        }
+    }
+
+    /**
+     * Rebuild a running table from its newest logged snapshot and the moves logged after it.
+     * The players are all away until they resume with their tickets.
+     */
+    public static GameRoom restore(String gameKey, GameServer gameServer, TableScheduler scheduler,
+                                   MoveLog.TableHistory history) throws IOException {
+        TableSnapshot snapshot = TableSnapshot.decode(history.getSnapshot());
+        GameRoom room = new GameRoom(gameKey, gameServer, scheduler, snapshot.isLockstep(), snapshot.getPlayers().size());
+        room.restoreFrom(snapshot, history.getMoves());
+        room.execute(room::awaitRestoredPlayers);
+        return room;
+    }
+
+    private void restoreFrom(TableSnapshot snapshot, List<byte[]> moves) throws IOException {
+        playerNames = new ArrayList<>(snapshot.getPlayers());
+        playerNamesView = List.copyOf(playerNames);
+        for (int seat = 0; seat < playerNames.size(); seat++) {
+            String token = snapshot.getResumeTokens().get(seat);
+            if (token != null) {
+                resumeTokens.put(playerNames.get(seat), token);
+            }
+        }
+        game = snapshot.getGame();
+        lockstep = snapshot.toSession(gameKey);
+        sequence = snapshot.getSequence();
+        startSequence = snapshot.getStartSequence();
+        stateVersion = snapshot.getStateVersion();
+        suitChooser = snapshot.getSuitChooser();
+        for (int seat = 0; seat < playerNames.size(); seat++) {
+            long actionSequence = snapshot.getLastActionSequences()[seat];
+            if (actionSequence > 0) {
+                lastActionSequence.put(playerNames.get(seat), actionSequence);
+            }
+        }
+
+        for (byte[] move : moves) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(move));
+            byte code = in.readByte();
+            int mover = MoveCodec.isSuitChoice(code) ? suitChooser : game.getCurrentPlayerIndex();
+            applyLogged(code);
+            stateVersion++;
+            if (lockstep != null) {
+                lockstep.recordMove(game);
+            }
+            sequence = in.readLong();
+            long actionSequence = in.readLong();
+            if (actionSequence > 0) {
+                lastActionSequence.put(playerNames.get(mover), actionSequence);
+            }
+        }
+        // Events after the last logged one may have reached clients before the crash; number past them
+        sequence++;
+        needsSnapshot.addAll(resumeTokens.keySet());
+        gameStarted = true;
+    }
+
+    /**
+     * Hold every seat of a restored table for the resume grace period
+     */
+    private void awaitRestoredPlayers() {
+        long since = System.currentTimeMillis();
+        for (String playerName : playerNames) {
+            if (!resumeTokens.containsKey(playerName) && gameServer.getBotFillMillis() > 0) {
+                // Nobody can resume this seat (it was a bot's, or a local one); a bot plays it
+                botSeats.add(playerName);
+                continue;
+            }
+            awaySince.put(playerName, since);
+            gameServer.schedule(() -> execute(() -> expireSeat(playerName, since)), gameServer.getResumeGraceMillis());
+        }
+        updateTurnView();
+        armTurnTimer();
+        armBotMove();
+    }
+
+    private void updateTurnView() {
+        turnView = game == null || finished ? null : game.getCurrentPlayer().getName();
+        suitChooserView = suitChooser < 0 || finished ? null : playerNames.get(suitChooser);
+    }
+
+    /**
+     * Enqueue a task to run on this room's actor thread
+     */
+    public void execute(Runnable task) {
+        mailboxSize.incrementAndGet();
+        mailbox.offer(task);
+        if (scheduled.compareAndSet(false, true)) {
+            scheduler.schedule(this);
+        }
+    }
+
+    /**
+     * Run pending mailbox tasks; called only by this room's scheduler worker
+     */
+    void drainMailbox() {
+        try {
+            for (int i = 0; i < MAILBOX_BATCH; i++) {
+                Runnable task = mailbox.poll();
+                if (task == null) {
+                    break;
+                }
+                mailboxSize.decrementAndGet();
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    System.err.println("[" + gameKey + "] Error in table task: " + e.getMessage());
+                    e.printStackTrace();
+                }
+            }
+        } finally {
+            scheduled.set(false);
+            // Re-arm if work is left over or arrived after the last poll
+            if (!mailbox.isEmpty() && scheduled.compareAndSet(false, true)) {
+                scheduler.schedule(this);
+            }
+        }
+    }
+
+    /**
+     * Add a player that is not backed by a connection (the in-process host)
+     */
+    public CompletableFuture<Boolean> addLocalPlayer(String playerName) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        execute(() -> result.complete(seatPlayer(playerName, null)));
+        return result;
+    }
+
+    /**
+     * Add a client to this table; completes with whether the seat was taken
+     */
+    public CompletableFuture<Boolean> addClient(String playerName, ClientHandler clientHandler) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        execute(() -> result.complete(seatPlayer(playerName, clientHandler)));
+        return result;
+    }
+
+    private boolean seatPlayer(String playerName, ClientHandler clientHandler) {
+        if (finished || gameStarted || playerNames.size() >= seats) {
+            return false;
+        }
+
+        // Check if name is already taken
+        if (playerNames.contains(playerName)) {
+            return false;
+        }
+
+        playerNames.add(playerName);
+        playerNamesView = List.copyOf(playerNames);
+        lastActivity = System.currentTimeMillis();
+
+        System.out.println("[" + gameKey + "] Player joined: " + playerName);
+
+        if (clientHandler == null) {
+            localPlayers++;
+        } else {
+            clients.put(playerName, clientHandler);
+            String token = newResumeToken();
+            resumeTokens.put(playerName, token);
+
+            // Confirm the seat before anything else reaches this client
+            SessionTicket ticket = new SessionTicket(gameKey, playerName, token, sequence);
+            emit(() -> clientHandler.sendMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_JOINED, ticket)));
+        }
+
+        // Notify all clients about the new player
+        broadcast(new NetworkMessage(NetworkMessage.MessageType.PLAYER_CONNECTED, playerName));
+
+        // Give the other seats to bots if nobody takes them in time
+        if (clientHandler != null && !botFillArmed && gameServer.getBotFillMillis() > 0
+                && playerNames.size() < seats) {
+            botFillArmed = true;
+            gameServer.schedule(() -> execute(this::fillWithBots), gameServer.getBotFillMillis());
+        }
+
+        // Start game once the table is full
+        if (playerNames.size() == seats) {
+            startGame();
+        }
+
+        return true;
+    }
+
+    /**
+     * Nobody else came in time: seat bots so the players waiting can start
+     */
+    private void fillWithBots() {
+        if (finished || gameStarted || clients.isEmpty()) {
+            return;
+        }
+        while (playerNames.size() < seats) {
+            String botName;
+            do {
+                botName = "Bot " + (++botsSeated);
+            } while (playerNames.contains(botName));
+            botSeats.add(botName);
+            playerNames.add(botName);
+            playerNamesView = List.copyOf(playerNames);
+            gameServer.getMetrics().botSeated();
+
+            System.out.println("[" + gameKey + "] Bot joined: " + botName);
+            broadcast(new NetworkMessage(NetworkMessage.MessageType.PLAYER_CONNECTED, botName));
+        }
+        startGame();
+    }
+
+    private static String newResumeToken() {
+        byte[] bytes = new byte[16];
+        tokenRandom.nextBytes(bytes);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+    }
+
+    /**
+     * Put a reconnecting client back in its seat; completes with whether the ticket was accepted
+     */
+    public CompletableFuture<Boolean> resumeClient(SessionTicket ticket, ClientHandler clientHandler) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        execute(() -> result.complete(resumeSeat(ticket, clientHandler)));
+        return result;
+    }
+
+    private boolean resumeSeat(SessionTicket ticket, ClientHandler clientHandler) {
+        String playerName = ticket.getPlayerName();
+        String token = resumeTokens.get(playerName);
+        if (finished || token == null || !token.equals(ticket.getResumeToken())) {
+            return false;
+        }
+
+        // The old connection may still look alive (half-open); the new one wins
+        ClientHandler previous = clients.put(playerName, clientHandler);
+        if (previous != null && previous != clientHandler) {
+            previous.close();
+        }
+        awaySince.remove(playerName);
+        lastActivity = System.currentTimeMillis();
+
+        SessionTicket renewed = new SessionTicket(gameKey, playerName, token, sequence);
+        int seat = playerNames.indexOf(playerName);
+        boolean restored = needsSnapshot.remove(playerName);
+        emit(() -> {
+            clientHandler.sendMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_JOINED, renewed));
+
+            if (restored) {
+                // The table came back from the move log: its ring is empty and the
+                // client may have numbers from before the crash that we reuse
+                sendSnapshot(clientHandler, seat, Math.max(ticket.getLastSequence(), startSequence));
+            } else if (!events.replay(ticket.getLastSequence(), seat, clientHandler::send)) {
+                // Replay what was missed, or fall back to a snapshot if the ring has moved on
+                sendSnapshot(clientHandler, seat, ticket.getLastSequence());
+            }
+        });
+
+        System.out.println("[" + gameKey + "] Player resumed: " + playerName + " after event " + ticket.getLastSequence());
+        broadcast(new NetworkMessage(NetworkMessage.MessageType.PLAYER_CONNECTED, playerName));
+        return true;
+    }
+
+    /**
+     * Bring a client up to date with the current state instead of replaying events
+     */
+    private void sendSnapshot(ClientHandler clientHandler, int seat, long lastSequence) {
+        if (!gameStarted || game == null) {
+            return;
+        }
+        if (lastSequence < startSequence) {
+            NetworkMessage start = new NetworkMessage(NetworkMessage.MessageType.GAME_START, new ArrayList<>(playerNames));
+            start.setSequence(startSequence);
+            clientHandler.sendMessage(start);
+        }
+        NetworkMessage state = lockstep != null
+            ? new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_SNAPSHOT, lockstep.snapshotFor(seat, game, playerNames))
+            : new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE, GameServer.GameStateData.forViewer(game, seat));
+        state.setSequence(sequence);
+        state.setStateVersion(stateVersion);
+        clientHandler.sendMessage(state);
+    }
+
+    /**
+     * Let a connection watch this table from no seat; completes with whether it may
+     */
+    public CompletableFuture<Boolean> addSpectator(ClientHandler clientHandler) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        execute(() -> {
+            if (finished) {
+                result.complete(false);
+                return;
+            }
+            // Confirm before the feed sends anything, and after output the log still holds back
+            emit(() -> {
+                if (!spectators.watch(clientHandler)) {
+                    result.complete(false);
+                    return;
+                }
+                clientHandler.sendMessage(new NetworkMessage(NetworkMessage.MessageType.SPECTATING, gameKey));
+                result.complete(true);
+            });
+            // The feed skips states while nobody watches; catch it up
+            publishPublicView(true);
+        });
+        return result;
+    }
+
+    /**
+     * Stop sending this table to a spectator
+     */
+    public void removeSpectator(ClientHandler clientHandler) {
+        spectators.unwatch(clientHandler);
+    }
+
+    /**
+     * A client's connection ended. Mid-game the seat is held for the resume grace
+     * period; otherwise the player leaves the table.
+     */
+    public void removeClient(String playerName, ClientHandler clientHandler) {
+        execute(() -> connectionLost(playerName, clientHandler));
+    }
+
+    private void connectionLost(String playerName, ClientHandler clientHandler) {
+        if (clients.get(playerName) != clientHandler) {
+            // Stale connection that was already replaced by a resumed one
+            return;
+        }
+
+        if (gameStarted && !finished) {
+            clients.remove(playerName);
+            long since = System.currentTimeMillis();
+            awaySince.put(playerName, since);
+            lastActivity = since;
+
+            System.out.println("[" + gameKey + "] Player connection lost: " + playerName);
+            broadcast(new NetworkMessage(NetworkMessage.MessageType.PLAYER_RECONNECTING, playerName));
+
+            gameServer.schedule(() -> execute(() -> expireSeat(playerName, since)), gameServer.getResumeGraceMillis());
+            return;
+        }
+
+        clients.remove(playerName);
+        unseatPlayer(playerName);
+    }
+
+    /**
+     * The grace period ran out; give up on the seat unless it was resumed meanwhile
+     */
+    private void expireSeat(String playerName, long since) {
+        Long away = awaySince.get(playerName);
+        if (away == null || away != since) {
+            return;
+        }
+        awaySince.remove(playerName);
+        if (gameStarted && !finished && gameServer.getBotFillMillis() > 0 && !clients.isEmpty()) {
+            handSeatToBot(playerName);
+            return;
+        }
+        unseatPlayer(playerName);
+    }
+
+    /**
+     * A player left mid-game for good while others play on: a bot finishes the game in their seat
+     */
+    private void handSeatToBot(String playerName) {
+        resumeTokens.remove(playerName);
+        botSeats.add(playerName);
+        lastActivity = System.currentTimeMillis();
+        gameServer.getMetrics().botSeated();
+
+        System.out.println("[" + gameKey + "] Bot took over the seat of " + playerName);
+        broadcast(new NetworkMessage(NetworkMessage.MessageType.BOT_TOOK_SEAT, playerName));
+        armBotMove();
+    }
+
+    private void unseatPlayer(String playerName) {
+        resumeTokens.remove(playerName);
+        playerNames.remove(playerName);
+        playerNamesView = List.copyOf(playerNames);
+        lastActivity = System.currentTimeMillis();
+
+        System.out.println("[" + gameKey + "] Player disconnected: " + playerName);
+
+        // Notify remaining clients
+        broadcast(new NetworkMessage(NetworkMessage.MessageType.PLAYER_DISCONNECTED, playerName));
+
+        // End game if a player disconnects during gameplay
+        if (gameStarted && game != null && !finished) {
+            logRecord(MoveLog.END, new byte[0]);
+            broadcast(new NetworkMessage(NetworkMessage.MessageType.GAME_OVER, "Player disconnected"));
+            finished = true;
+        }
+
+        // Nobody left to play, free the game key right away
+        if (clients.isEmpty() && awaySince.isEmpty()) {
+            finished = true;
+            events.clear();
+            emit(spectators::close);
+            gameServer.closeRoom(gameKey);
+        }
+    }
+
+    /**
+     * Start the multiplayer game
+     */
+    private void startGame() {
+        if (lockstepMode) {
+            long seed = tokenRandom.nextLong();
+            game = new Game(playerNames, seed);
+            lockstep = new LockstepSession(gameKey, seed, game, tokenRandom);
+        } else {
+            game = new Game(playerNames, false); // No AI for multiplayer
+        }
+        gameStarted = true;
+
+        System.out.println("[" + gameKey + "] Starting game with players: " + playerNames);
+        logRecord(MoveLog.SNAPSHOT, captureSnapshot());
+
+        // Send game start message to all clients
+        startSequence = sequence + 1;
+        NetworkMessage startMessage = new NetworkMessage(NetworkMessage.MessageType.GAME_START, new ArrayList<>(playerNames));
+        broadcast(startMessage);
+
+        // Send initial game state
+        if (lockstep != null) {
+            sendLockstepSnapshots();
+        } else {
+            sendGameStateUpdate();
+        }
+    }
+
+    /**
+     * Handle a player's move
+     */
+    public void handlePlayerMove(String playerName, NetworkMessage message) {
+        long queuedAt = System.nanoTime();
+        execute(() -> {
+            ServerMetrics metrics = gameServer.getMetrics();
+            long start = System.nanoTime();
+            metrics.getTableQueueWait().record(start - queuedAt);
+            currentTrace = message.getTrace();
+            try {
+                applyMove(playerName, message);
+            } finally {
+                currentTrace = null;
+                currentAction = 0;
+            }
+            metrics.getMoveProcessingTime().record(System.nanoTime() - start);
+        });
+    }
+
+    private void applyMove(String playerName, NetworkMessage message) {
+        if (!gameStarted || game == null || finished) {
+            return;
+        }
+        lastActivity = System.currentTimeMillis();
+
+        // Lockstep clients send bare move codes, and state hashes that are not turn actions
+        if (message.getType() == NetworkMessage.MessageType.LOCKSTEP_HASH) {
+            if (isWellFormed(message)) {
+                checkLockstepHash(playerName, (long[]) message.getData());
+            }
+            return;
+        }
+
+        // A resent action was already applied the first time; one that was turned down is judged again
+        long actionSequence = message.getActionSequence();
+        if (actionSequence > 0) {
+            Long last = lastActionSequence.get(playerName);
+            if (last != null && actionSequence <= last) {
+                gameServer.getMetrics().duplicateActionDropped();
+                return;
+            }
+        }
+        currentAction = actionSequence;
+        long basedOn = message.getStateVersion();
+        if (!isWellFormed(message)) {
+            reject(playerName, "Malformed action");
+            return;
+        }
+
+        if (message.getType() == NetworkMessage.MessageType.LOCKSTEP_MOVE) {
+            if (lockstep == null) {
+                return;
+            }
+            message = MoveCodec.toAction(((LockstepMove) message.getData()).getCode());
+        }
+
+        // Verify it's the player's turn; the suit for a 7 comes from whoever played it,
+        // and nobody moves until it has been named
+        boolean suitChoice = message.getType() == NetworkMessage.MessageType.CHOOSE_SUIT;
+        if (suitChoice) {
+            if (suitChooser < 0 || !playerNames.get(suitChooser).equals(playerName)) {
+                reject(playerName, "No suit to choose");
+                return;
+            }
+        } else if (suitChooser >= 0) {
+            reject(playerName, "Waiting for " + playerNames.get(suitChooser) + " to choose a suit");
+            return;
+        } else if (!game.getCurrentPlayer().getName().equals(playerName)) {
+            // Send invalid move message
+            reject(playerName, "Not your turn");
+            return;
+        }
+
+        // Only the chooser can answer a pending 7, so a suit pipelined behind it cannot be stale
+        if (!suitChoice && basedOn >= 0 && basedOn != stateVersion) {
+            gameServer.getMetrics().staleActionRejected();
+            reject(playerName, "Stale action: based on state " + basedOn + " but the table is at state " + stateVersion);
+            return;
+        }
+
+        long versionBefore = stateVersion;
+        try {
+            switch (message.getType()) {
+                case PLAY_CARD:
+                    handlePlayCard(playerName, message);
+                    break;
+                case DRAW_CARD:
+                    handleDrawCard(playerName);
+                    break;
+                case CHOOSE_SUIT:
+                    handleChooseSuit(playerName, message);
+                    break;
+            }
+        } catch (Exception e) {
+            System.err.println("Error handling player move: " + e.getMessage());
+            e.printStackTrace();
+        }
+        // Only an action the table applied counts as seen; a resent one is then dropped
+        if (actionSequence > 0 && stateVersion != versionBefore) {
+            lastActionSequence.put(playerName, actionSequence);
+        }
+    }
+
+    /**
+     * Handle playing a card
+     */
+    private void handlePlayCard(String playerName, NetworkMessage message) {
+        Card cardToPlay = (Card) message.getData();
+        Player currentPlayer = game.getCurrentPlayer();
+
+        // Find the actual card in player's hand
+        Card actualCard = null;
+        for (Card card : currentPlayer.getHand()) {
+            if (card.getSuit() == cardToPlay.getSuit() && card.getValue() == cardToPlay.getValue()) {
+                actualCard = card;
+                break;
+            }
+        }
+
+        if (actualCard == null || !actualCard.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+            // Invalid move
+            reject(playerName, "Invalid card");
+            return;
+        }
+        markValidated();
+
+        // Play the card
+        int seat = game.getCurrentPlayerIndex();
+        game.playCard(actualCard);
+        suitChooser = actualCard.getValue() == 7 ? seat : -1;
+
+        // Check if game is over
+        if (game.isGameOver()) {
+            if (lockstep != null) {
+                // Lockstep clients need the winning card before the result
+                publishMove(seat, MoveCodec.cardCode(actualCard), -1);
+            }
+            logRecord(MoveLog.END, new byte[0]);
+            Player winner = game.getWinner();
+            broadcast(new NetworkMessage(NetworkMessage.MessageType.GAME_OVER, winner.getName()));
+            if (lockstep != null) {
+                // Open the commitments so every client can check the deal
+                broadcast(new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_REVEAL, lockstep.reveal()));
+            }
+            finished = true;
+        } else {
+            // Send game state update
+            publishMove(seat, MoveCodec.cardCode(actualCard), -1);
+        }
+    }
+
+    /**
+     * Handle drawing a card
+     */
+    private void handleDrawCard(String playerName) {
+        markValidated();
+        int seat = game.getCurrentPlayerIndex();
+        int handSizeBefore = game.getCurrentPlayer().getHand().size();
+        applyLogged(MoveCodec.DRAW);
+        publishMove(seat, MoveCodec.DRAW, handSizeBefore);
+    }
+
+    /**
+     * Apply a move that has already been validated: one the handlers accepted, or
+     * one replayed from the move log. Must stay in step with the handlers.
+     */
+    private void applyLogged(byte code) {
+        if (MoveCodec.isDraw(code)) {
+            // Drawing the cards owed to a 2 already passes the turn on; a normal draw ends the turn
+            boolean penaltyDraw = game.mustDrawCards() && game.getAccumulatedDrawCards() > 0;
+            game.drawCardFromDeck();
+            if (!penaltyDraw) {
+                game.advanceTurn();
+            }
+            suitChooser = -1;
+        } else if (MoveCodec.isSuitChoice(code)) {
+            game.setForcedSuit(MoveCodec.decodeSuit(code));
+            suitChooser = -1;
+        } else {
+            Card played = MoveCodec.decodeCard(code);
+            int seat = game.getCurrentPlayerIndex();
+            for (Card card : game.getCurrentPlayer().getHand()) {
+                if (card.getSuit() == played.getSuit() && card.getValue() == played.getValue()) {
+                    game.playCard(card);
+                    suitChooser = played.getValue() == 7 ? seat : -1;
+                    return;
+                }
+            }
+            throw new IllegalStateException("Logged card " + played + " is not in the current hand");
+        }
+    }
+
+    /**
+     * Turn down the action being applied, naming it by its trace and number so the
+     * player can tell which of their pipelined actions it was
+     */
+    private void reject(String playerName, String reason) {
+        NetworkMessage rejection = new NetworkMessage(NetworkMessage.MessageType.INVALID_MOVE, reason);
+        rejection.setTrace(currentTrace);
+        rejection.setActionSequence(currentAction);
+        send(playerName, rejection);
+    }
+
+    /**
+     * Stamp the traced move, if any, as having passed the table's checks
+     */
+    private void markValidated() {
+        if (currentTrace != null) {
+            currentTrace.markValidated();
+        }
+    }
+
+    /**
+     * Restart the turn clock for whoever is to play now
+     */
+    private void armTurnTimer() {
+        if (turnTimer != null) {
+            turnTimer.cancel();
+            turnTimer = null;
+        }
+        // Local seats are driven by the host's UI, which the table cannot act for
+        if (finished || game == null || localPlayers > 0) {
+            return;
+        }
+        long serial = ++turnSerial;
+        turnTimer = gameServer.schedule(() -> execute(() -> turnExpired(serial)), gameServer.getTurnTimeLimitMillis());
+    }
+
+    /**
+     * If a bot is to play, have the bot pool choose its move after the think time
+     */
+    private void armBotMove() {
+        if (botSeats.isEmpty() || finished || game == null || botTurn == stateVersion) {
+            return;
+        }
+        Player current = game.getCurrentPlayer();
+        if (!botSeats.contains(current.getName())) {
+            return;
+        }
+        if (suitChooser >= 0) {
+            // Nobody moves until the suit for the 7 is named; a bot's own suit is already on its way
+            return;
+        }
+        botTurn = stateVersion;
+
+        // What the bot can see, copied so it can think off the table's thread
+        AIPlayer bot = new AIPlayer(current.getName());
+        bot.getHand().addAll(current.getHand());
+        Card topCard = game.getTopCard();
+        Card.Suit forcedSuit = game.getForcedSuit();
+        boolean mustDrawCards = game.mustDrawCards();
+        boolean lastCardWasOne = game.lastCardWasOne();
+        long basedOn = stateVersion;
+        gameServer.schedule(() -> gameServer.getBotPool().submit(
+            () -> playBot(bot, topCard, forcedSuit, mustDrawCards, lastCardWasOne, basedOn)),
+            gameServer.getBotThinkMillis());
+    }
+
+    /**
+     * Choose a bot's move; runs on the bot pool and queues the move like a player's action
+     */
+    private void playBot(AIPlayer bot, Card topCard, Card.Suit forcedSuit, boolean mustDrawCards,
+                         boolean lastCardWasOne, long basedOn) {
+        Card card = bot.selectCardToPlay(topCard, forcedSuit, mustDrawCards, lastCardWasOne);
+        NetworkMessage move = card != null
+            ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, card)
+            : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+        move.setStateVersion(basedOn);
+        handlePlayerMove(bot.getName(), move);
+
+        if (card != null && card.getValue() == 7 && bot.getHand().size() > 1) {
+            // The suit goes right behind the 7, based on the state the 7 produces
+            bot.playCard(card);
+            NetworkMessage suit = new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, bot.selectForcedSuit());
+            suit.setStateVersion(basedOn + 1);
+            handlePlayerMove(bot.getName(), suit);
+        }
+    }
+
+    /**
+     * The current player ran out of time: draw for them so the game moves on
+     */
+    private void turnExpired(long serial) {
+        if (serial != turnSerial || finished || game == null) {
+            return;
+        }
+        if (suitChooser >= 0) {
+            // Whoever played the 7 never named a suit: keep the 7's own
+            String chooser = playerNames.get(suitChooser);
+            System.out.println("[" + gameKey + "] Suit choice timed out: " + chooser);
+            handleChooseSuit(chooser, new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT,
+                game.getTopCard().getSuit()));
+            return;
+        }
+        String playerName = game.getCurrentPlayer().getName();
+        System.out.println("[" + gameKey + "] Turn timed out: " + playerName);
+        handleDrawCard(playerName);
+    }
+
+    /**
+     * Handle choosing a suit (for wild cards); the turn has already passed on
+     */
+    private void handleChooseSuit(String playerName, NetworkMessage message) {
+        Card.Suit chosenSuit = (Card.Suit) message.getData();
+        markValidated();
+        int seat = suitChooser;
+        applyLogged(MoveCodec.suitCode(chosenSuit));
+        publishMove(seat, MoveCodec.suitCode(chosenSuit), -1);
+    }
+
+    /**
+     * Tell every seat about a move that was just applied: the full state, or at
+     * lockstep tables only the move code (plus the drawn cards for the drawer)
+     */
+    private void publishMove(int seat, byte code, int handSizeBefore) {
+        stateVersion++;
+        if (moveLog != null) {
+            // Log the move with the number of the event published below and the action that asked for it
+            logRecord(MoveLog.MOVE, ByteBuffer.allocate(17).put(code).putLong(sequence + 1).putLong(currentAction).array());
+        }
+        if (lockstep == null) {
+            sendGameStateUpdate(seat);
+            return;
+        }
+        long start = System.nanoTime();
+        long moveNumber = lockstep.recordMove(game);
+        int nextSeat = game.getCurrentPlayerIndex();
+        long eventSequence = ++sequence;
+
+        NetworkMessage publicMove = new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE,
+            new LockstepMove(moveNumber, seat, code, nextSeat, null));
+        publicMove.setSequence(eventSequence);
+        EncodedMessage shared = MessageCodec.encode(publicMove);
+
+        EncodedMessage[] views = new EncodedMessage[playerNames.size()];
+        List<Card> hand = game.getPlayers().get(seat).getHand();
+        for (int viewer = 0; viewer < views.length; viewer++) {
+            if (viewer == seat && MoveCodec.isDraw(code) && hand.size() > handSizeBefore) {
+                byte[] drawn = new byte[hand.size() - handSizeBefore];
+                for (int i = 0; i < drawn.length; i++) {
+                    drawn[i] = MoveCodec.cardCode(hand.get(handSizeBefore + i));
+                }
+                NetworkMessage privateMove = new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE,
+                    new LockstepMove(moveNumber, seat, code, nextSeat, drawn));
+                privateMove.setSequence(eventSequence);
+                views[viewer] = MessageCodec.encode(privateMove);
+            } else {
+                views[viewer] = shared.retain();
+            }
+        }
+        shared.release();
+        publishViews(eventSequence, views, start);
+    }
+
+    /**
+     * Send every seat its own snapshot of a lockstep table
+     */
+    private void sendLockstepSnapshots() {
+        long start = System.nanoTime();
+        long eventSequence = ++sequence;
+        EncodedMessage[] views = new EncodedMessage[playerNames.size()];
+        for (int seat = 0; seat < views.length; seat++) {
+            NetworkMessage snapshot = new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_SNAPSHOT,
+                lockstep.snapshotFor(seat, game, playerNames));
+            snapshot.setSequence(eventSequence);
+            views[seat] = MessageCodec.encode(snapshot);
+        }
+        publishViews(eventSequence, views, start);
+    }
+
+    /**
+     * A lockstep client reported the hash of its state; resend its snapshot if it drifted
+     */
+    private void checkLockstepHash(String playerName, long[] report) {
+        if (lockstep == null || lockstep.checkHash(report[0], report[1])) {
+            return;
+        }
+        System.err.println("[" + gameKey + "] Lockstep desync: " + playerName + " at move " + report[0]);
+        gameServer.getMetrics().lockstepDesync();
+        int seat = playerNames.indexOf(playerName);
+        send(playerName, new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_SNAPSHOT,
+            lockstep.snapshotFor(seat, game, playerNames)));
+    }
+
+    /**
+     * Send game state update to all clients, each seeing only their own hand
+     */
+    private void sendGameStateUpdate() {
+        sendGameStateUpdate(-1);
+    }
+
+    /**
+     * Every view names the last action of its seat the table has applied, so a
+     * client still learns its action was applied when the state that answered it
+     * is replaced by a newer one in its queue or in the ring
+     * @param mover seat whose action produced this state, applied but not yet recorded as seen
+     */
+    private void sendGameStateUpdate(int mover) {
+        if (game == null) return;
+        long start = System.nanoTime();
+
+        // One encoding per seat's view, shared by every recipient of that view and
+        // kept in the event ring for seats that are away
+        long eventSequence = ++sequence;
+        if (currentTrace != null) {
+            currentTrace.markBroadcast();
+        }
+        EncodedMessage[] views = new EncodedMessage[playerNames.size()];
+        for (int seat = 0; seat < views.length; seat++) {
+            GameServer.GameStateData gameState = GameServer.GameStateData.forViewer(game, seat);
+            NetworkMessage stateMessage = new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE, gameState);
+            stateMessage.setSequence(eventSequence);
+            stateMessage.setStateVersion(stateVersion);
+            stateMessage.setTrace(currentTrace);
+            stateMessage.setActionSequence(seat == mover && currentAction > 0 ? currentAction
+                : lastActionSequence.getOrDefault(playerNames.get(seat), 0L));
+            views[seat] = MessageCodec.encode(stateMessage);
+        }
+        publishViews(eventSequence, views, start);
+    }
+
+    /**
+     * Record one event's per-seat encodings in the ring and hand each connected
+     * seat its own; releases the views
+     */
+    private void publishViews(long eventSequence, EncodedMessage[] views, long start) {
+        // Before anyone can see the new state and answer it
+        updateTurnView();
+        emit(() -> {
+            events.append(eventSequence, views);
+
+            for (Map.Entry<String, ClientHandler> client : clients.entrySet()) {
+                int seat = playerNames.indexOf(client.getKey());
+                if (seat >= 0) {
+                    client.getValue().send(views[seat]);
+                }
+            }
+            for (EncodedMessage view : views) {
+                view.release();
+            }
+        });
+        publishPublicView(false);
+        gameServer.getMetrics().getFanOutTime().record(System.nanoTime() - start);
+
+        // Every state change may hand the turn to someone else
+        armTurnTimer();
+        armBotMove();
+    }
+
+    /**
+     * Hand the spectators the table's public view, if anyone is watching and it has
+     * changed. Encoded here once; the feed's pool writes it to every spectator.
+     * @param joining A spectator is about to join, though the feed may not have them yet
+     */
+    private void publishPublicView(boolean joining) {
+        if (game == null || !gameStarted || spectatorVersion == stateVersion || !(joining || spectators.isWatched())) {
+            return;
+        }
+        spectatorVersion = stateVersion;
+        NetworkMessage stateMessage = new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE,
+            GameServer.GameStateData.forViewer(game, GameServer.GameStateData.PUBLIC_VIEW));
+        stateMessage.setStateVersion(stateVersion);
+        EncodedMessage publicView = MessageCodec.encode(stateMessage);
+        emit(() -> {
+            spectators.publish(publicView);
+            publicView.release();
+        });
+    }
+
+    /**
+     * Broadcast a message to all connected clients at this table
+     */
+    public void broadcastMessage(NetworkMessage message) {
+        execute(() -> broadcast(message));
+    }
+
+    /**
+     * Serialize once and hand the same bytes to every client
+     */
+    private void broadcast(NetworkMessage message) {
+        if (clients.isEmpty() && awaySince.isEmpty()) {
+            return;
+        }
+        long start = System.nanoTime();
+        message.setSequence(++sequence);
+        if (currentTrace != null && message.getTrace() == null) {
+            currentTrace.markBroadcast();
+            message.setTrace(currentTrace);
+        }
+        EncodedMessage encoded = MessageCodec.encode(message);
+        emit(() -> {
+            events.append(message.getSequence(), encoded);
+            for (ClientHandler client : clients.values()) {
+                client.send(encoded);
+            }
+            spectators.publish(encoded);
+            encoded.release();
+        });
+        gameServer.getMetrics().getFanOutTime().record(System.nanoTime() - start);
+    }
+
+    /**
+     * Send a message to a specific client at this table
+     */
+    private void send(String playerName, NetworkMessage message) {
+        // Lets the client match a rejection to the move it predicted
+        if (currentTrace != null && message.getTrace() == null) {
+            message.setTrace(currentTrace);
+        }
+        emit(() -> {
+            ClientHandler client = clients.get(playerName);
+            if (client != null) {
+                client.sendMessage(message);
+            }
+        });
+    }
+
+    /**
+     * Run output now, or after the log records appended before it are durable
+     */
+    private void emit(Runnable output) {
+        if (heldOutput.isEmpty() && durableRecords == loggedRecords) {
+            output.run();
+        } else {
+            heldOutput.add(new HeldOutput(loggedRecords, output));
+        }
+    }
+
+    /**
+     * Append a record to the move log; output from here on waits until it is durable
+     */
+    private void logRecord(byte type, byte[] payload) {
+        if (moveLog == null) {
+            return;
+        }
+        long barrier = ++loggedRecords;
+        moveLog.append(type, gameKey, payload, () -> execute(() -> recordDurable(barrier)));
+    }
+
+    private void recordDurable(long barrier) {
+        durableRecords = Math.max(durableRecords, barrier);
+        while (!heldOutput.isEmpty() && heldOutput.peek().barrier <= durableRecords) {
+            heldOutput.poll().output.run();
+        }
+    }
+
+    private byte[] captureSnapshot() {
+        return TableSnapshot.encode(playerNames, resumeTokens, lastActionSequence, sequence, startSequence,
+            stateVersion, suitChooser, game, lockstep);
+    }
+
+    /**
+     * Log a fresh snapshot of a running table, so the log before it can be dropped
+     * @return completes once the snapshot is durable, or at once if there is nothing to keep
+     */
+    public CompletableFuture<Void> checkpoint() {
+        CompletableFuture<Void> written = new CompletableFuture<>();
+        execute(() -> {
+            if (moveLog == null || !gameStarted || finished || game == null) {
+                written.complete(null);
+                return;
+            }
+            // Nothing waits on a checkpoint, so it doesn't hold output back
+            moveLog.append(MoveLog.SNAPSHOT, gameKey, captureSnapshot(), () -> written.complete(null));
+        });
+        return written;
+    }
+
+    /**
+     * Close every connection seated at this table
+     */
+    public void closeAll() {
+        finished = true;
+        execute(() -> {
+            for (ClientHandler client : clients.values()) {
+                client.close();
+            }
+            clients.clear();
+            awaySince.clear();
+            events.clear();
+            spectators.close();
+            if (turnTimer != null) {
+                turnTimer.cancel();
+            }
+        });
+    }
+
+    /**
+     * Whether the room can be reclaimed: the game ended, or nobody is seated
+     * and nothing has happened for longer than the given idle time
+     */
+    public boolean isReclaimable(long now, long abandonAfterMillis) {
+        if (finished) {
+            return true;
+        }
+        return playerNamesView.isEmpty() && now - lastActivity > abandonAfterMillis;
+    }
+
+    /**
+     * Whether the table has so much queued work that connections should stop reading for it
+     */
+    public boolean isBacklogged() {
+        return mailboxSize.get() >= MAILBOX_HIGH_WATER;
+    }
+
+    /**
+     * Whether the player may make this move as of the last state the table
+     * published: it is their turn, or it is the suit for a 7 they just played,
+     * which must come before anyone's next move.
+     * Readable from any thread; the table itself still makes the final check.
+     */
+    public boolean mayAct(String playerName, NetworkMessage message) {
+        boolean suitChoice = message.getType() == NetworkMessage.MessageType.CHOOSE_SUIT
+            || (message.getType() == NetworkMessage.MessageType.LOCKSTEP_MOVE && message.getData() instanceof LockstepMove
+                && MoveCodec.isSuitChoice(((LockstepMove) message.getData()).getCode()));
+        String chooser = suitChooserView;
+        if (chooser != null) {
+            return suitChoice && playerName.equals(chooser);
+        }
+        return playerName.equals(turnView);
+    }
+
+    /**
+     * Whether an action carries the payload its type calls for. Frames decode to
+     * any serialized message, so this is checked before anything casts the data.
+     */
+    public static boolean isWellFormed(NetworkMessage message) {
+        Object data = message.getData();
+        switch (message.getType()) {
+            case PLAY_CARD:
+                return data instanceof Card && ((Card) data).getSuit() != null;
+            case CHOOSE_SUIT:
+                return data instanceof Card.Suit;
+            case LOCKSTEP_MOVE:
+                return data instanceof LockstepMove;
+            case LOCKSTEP_HASH:
+                return data instanceof long[] && ((long[]) data).length >= 2;
+            default:
+                return true;
+        }
+    }
+
+    // Getters
+    public String getGameKey() { return gameKey; }
+    public int getShard() { return shard; }
+    public int getSeats() { return seats; }
+    public boolean isGameStarted() { return gameStarted; }
+    public boolean isFinished() { return finished; }
+    public long getStateVersion() { return stateVersion; } // Actions applied since the deal; read on the table's thread
+    public long getCreatedAt() { return createdAt; }
+    public int getSpectatorCount() { return spectators.getWatcherCount(); }
+    public List<String> getPlayerNames() { return new ArrayList<>(playerNamesView); }
+    public Game getGame() { return game; }
+}
@@ -1,308 +1,464 @@
 import java.io.*;
 import java.net.*;
+import java.nio.file.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
- * Server that hosts multiplayer Hez games
+ * Server that hosts multiplayer Hez games.
+ * It never touches AWT or Swing, so it runs the same inside the game (when a
+ * player hosts from the menu) and as a headless DedicatedServer.
  */
 public class GameServer {
-    private static final int PORT = 12345;
-    private ServerSocket serverSocket;
-    private boolean isRunning = false;
-    private String gameKey;
-    private Game game;
-    private Map<String, ClientHandler> clients = new ConcurrentHashMap<>();
-    private List<String> playerNames = new ArrayList<>();
-    private boolean gameStarted = false;
+    private static final long ROOM_SWEEP_INTERVAL_MS = 30000;
+    private static final long ROOM_ABANDON_TIMEOUT_MS = 5 * 60 * 1000;
+    
+    private final ServerConfig config;
+    private Transport.Acceptor acceptor;
+    private Thread acceptThread;
+    private volatile boolean isRunning = false;
+    private final Map<String, GameRoom> rooms = new ConcurrentHashMap<>();
+    private final Set<ClientHandler> connections = ConcurrentHashMap.newKeySet();
+    private final Set<MuxConnection> links = ConcurrentHashMap.newKeySet(); // Multiplexed connections, each carrying many clients
+    private final Random random = new Random();
+    private final TableScheduler tableScheduler;
+    private final TimingWheel timers = new TimingWheel("server-timer", 100, 512);
+    private final ServerMetrics metrics = new ServerMetrics();
+    private MetricsEndpoint metricsEndpoint;
+    private MoveLog moveLog;
+    private final AtomicBoolean checkpointRunning = new AtomicBoolean(false);
+    private final Map<InetAddress, TokenBucket> addressBuckets = new ConcurrentHashMap<>();
+    private final BotPool botPool;
+    private final Matchmaker matchmaker;
+    private final ExecutorService spectatorPool;
     
     public GameServer() {
-        generateGameKey();
+        this(new ServerConfig());
+    }
+    
+    public GameServer(ServerConfig config) {
+        this(config, new TableScheduler(config.getWorkerThreads()));
+    }
+    
+    public GameServer(ServerConfig config, TableScheduler tableScheduler) {
+        this.config = config;
+        this.tableScheduler = tableScheduler;
+        this.botPool = new BotPool(config.getBotThreads(), metrics);
+        this.spectatorPool = SpectatorFeed.newDeliveryPool(config.getSpectatorThreads());
+        this.matchmaker = new Matchmaker(config.getMatchGap(), config.getMatchGapWidenPerSecond(),
+            config.getMatchMaxGap(), this::seatMatch);
     }
     
     /**
      * Generate a random 6-digit game key
      */
-    private void generateGameKey() {
-        Random random = new Random();
-        gameKey = String.format("%06d", random.nextInt(1000000));
+    private String generateGameKey() {
+        return String.format("%06d", random.nextInt(1000000));
     }
     
     /**
-     * Start the server
+     * Allocate a new room under a game key that no other live room is using
      */
-    public void start(String hostPlayerName) throws IOException {
-        serverSocket = new ServerSocket(PORT);
-        isRunning = true;
-        
-        // Add host as first player
-        playerNames.add(hostPlayerName);
-        
-        System.out.println("Game server started on port " + PORT);
-        System.out.println("Game Key: " + gameKey);
+    public GameRoom createRoom() {
+        return createRoom(false, TableOptions.DEFAULT_SEATS);
+    }
+    
+    /**
+     * Allocate a new room with the given number of seats, optionally played in lockstep (see LockstepSession)
+     */
+    public GameRoom createRoom(boolean lockstep, int seats) {
+        if (rooms.size() >= config.getMaxRooms()) {
+            return null;
+        }
         
-        // Accept client connections
-        while (isRunning && playerNames.size() < 2) {
-            try {
-                Socket clientSocket = serverSocket.accept();
-                System.out.println("Client connected: " + clientSocket.getInetAddress());
-                
-                ClientHandler clientHandler = new ClientHandler(clientSocket, this);
-                new Thread(clientHandler).start();
-                
-            } catch (IOException e) {
-                if (isRunning) {
-                    System.err.println("Error accepting client connection: " + e.getMessage());
-                }
+        // putIfAbsent makes the claim atomic, so two concurrent creations can never share a key
+        while (true) {
+            String key = generateGameKey();
+            GameRoom room = new GameRoom(key, this, tableScheduler, lockstep, seats);
+            if (rooms.putIfAbsent(key, room) == null) {
+                return room;
             }
         }
     }
     
     /**
-     * Stop the server
+     * Look up a live room by its game key
      */
-    public void stop() {
-        isRunning = false;
-        try {
-            if (serverSocket != null && !serverSocket.isClosed()) {
-                serverSocket.close();
-            }
-            
-            // Close all client connections
-            for (ClientHandler client : clients.values()) {
-                client.close();
-            }
-            clients.clear();
-            
-        } catch (IOException e) {
-            System.err.println("Error stopping server: " + e.getMessage());
+    public GameRoom getRoom(String gameKey) {
+        if (gameKey == null) {
+            return null;
         }
+        return rooms.get(gameKey);
     }
     
     /**
-     * Add a client to the game
+     * Release a room's game key so it can be reused
      */
-    public synchronized boolean addClient(String playerName, ClientHandler clientHandler) {
-        if (gameStarted || playerNames.size() >= 2) {
-            return false;
+    public void closeRoom(String gameKey) {
+        if (rooms.remove(gameKey) != null) {
+            System.out.println("Room closed: " + gameKey + " (" + rooms.size() + " active)");
         }
-        
-        // Check if name is already taken
-        if (playerNames.contains(playerName)) {
-            return false;
-        }
-        
-        playerNames.add(playerName);
-        clients.put(playerName, clientHandler);
-        
-        System.out.println("Player joined: " + playerName);
-        
-        // Notify all clients about the new player
-        broadcastMessage(new NetworkMessage(NetworkMessage.MessageType.PLAYER_CONNECTED, playerName));
-        
-        // Start game if we have 2 players
-        if (playerNames.size() == 2) {
-            startGame();
-        }
-        
-        return true;
     }
     
     /**
-     * Remove a client from the game
+     * Start listening on the configured transport and accept connections in the background.
+     * Returns once the port is bound, so bind failures surface to the caller.
      */
-    public synchronized void removeClient(String playerName) {
-        clients.remove(playerName);
-        playerNames.remove(playerName);
+    public void start() throws IOException {
+        acceptor = config.getTransport().listen(config.getBindAddress(), config.getPort());
+        isRunning = true;
         
-        System.out.println("Player disconnected: " + playerName);
+        System.out.println("Game server started on " + config.getBindAddress() + ":" + config.getPort());
         
-        // Notify remaining clients
-        broadcastMessage(new NetworkMessage(NetworkMessage.MessageType.PLAYER_DISCONNECTED, playerName));
+        if (config.getMoveLogDirectory() != null) {
+            recoverTables();
+        }
         
-        // End game if a player disconnects during gameplay
-        if (gameStarted && game != null) {
-            broadcastMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_OVER, "Player disconnected"));
+        if (config.getMetricsPort() > 0) {
+            metricsEndpoint = new MetricsEndpoint(this, config.getMetricsPort());
+            metricsEndpoint.start();
         }
+        
+        startRoomReaper();
+        matchmaker.start(config.getMatchIntervalMillis());
+        
+        acceptThread = new Thread(this::acceptConnections, "acceptor");
+        acceptThread.start();
     }
     
     /**
-     * Start the multiplayer game
+     * Bring back every table the move log says was still running, then keep
+     * logging to a fresh segment. Must run before any room is created.
+     * @return the number of tables restored
      */
-    private void startGame() {
-        gameStarted = true;
-        game = new Game(playerNames, false); // No AI for multiplayer
+    public int recoverTables() throws IOException {
+        long start = System.nanoTime();
+        Path directory = Paths.get(config.getMoveLogDirectory());
+        Map<String, MoveLog.TableHistory> histories = MoveLog.recover(directory);
+        moveLog = new MoveLog(directory, config.getMoveLogSegmentBytes(), metrics.getMoveLogSyncTime(), this::checkpoint);
         
-        System.out.println("Starting game with players: " + playerNames);
-        
-        // Send game start message to all clients
-        NetworkMessage startMessage = new NetworkMessage(NetworkMessage.MessageType.GAME_START, playerNames);
-        broadcastMessage(startMessage);
+        int moves = 0;
+        for (Map.Entry<String, MoveLog.TableHistory> table : histories.entrySet()) {
+            try {
+                rooms.put(table.getKey(), GameRoom.restore(table.getKey(), this, tableScheduler, table.getValue()));
+                moves += table.getValue().getMoves().size();
+            } catch (IOException | RuntimeException e) {
+                System.err.println("Could not restore table " + table.getKey() + ": " + e.getMessage());
+            }
+        }
+        System.out.printf("Recovered %d tables (%d moves replayed) from the move log in %d ms%n",
+            rooms.size(), moves, (System.nanoTime() - start) / 1000000);
         
-        // Send initial game state
-        sendGameStateUpdate();
+        // The restored state now lives in memory only; snapshot it into the new segment
+        checkpoint(moveLog.getSegment());
+        return rooms.size();
     }
     
     /**
-     * Handle a player's move
+     * Have every running table log a fresh snapshot, then drop the segments before the given one
      */
-    public synchronized void handlePlayerMove(String playerName, NetworkMessage message) {
-        if (!gameStarted || game == null) {
+    private void checkpoint(int segment) {
+        // One at a time; a rotation during a checkpoint is covered by the next one
+        if (!checkpointRunning.compareAndSet(false, true)) {
             return;
         }
-        
-        // Verify it's the player's turn
-        if (!game.getCurrentPlayer().getName().equals(playerName)) {
-            // Send invalid move message
-            ClientHandler client = clients.get(playerName);
-            if (client != null) {
-                client.sendMessage(new NetworkMessage(NetworkMessage.MessageType.INVALID_MOVE, "Not your turn"));
+        List<CompletableFuture<Void>> snapshots = new ArrayList<>(rooms.size());
+        for (GameRoom room : rooms.values()) {
+            snapshots.add(room.checkpoint());
+        }
+        CompletableFuture.allOf(snapshots.toArray(new CompletableFuture<?>[0]))
+            .whenComplete((done, e) -> {
+                try {
+                    // A table that failed to snapshot still needs its old segments
+                    if (e == null) {
+                        moveLog.deleteSegmentsBefore(segment);
+                    }
+                } finally {
+                    checkpointRunning.set(false);
+                }
+            });
+    }
+    
+    /**
+     * Accept client connections for every room until the server stops
+     */
+    private void acceptConnections() {
+        while (isRunning) {
+            try {
+                Transport.Connection connection = acceptor.accept();
+                
+                if (connections.size() >= config.getMaxConnections()) {
+                    // Over the limit: refuse before spending a thread on it
+                    metrics.connectionRefused();
+                    connection.close();
+                    continue;
+                }
+                System.out.println("Client connected: " + connection.getRemoteAddress());
+                metrics.connectionAccepted();
+                
+                new Thread(() -> serve(connection)).start();
+                
+            } catch (IOException e) {
+                if (isRunning) {
+                    System.err.println("Error accepting client connection: " + e.getMessage());
+                }
             }
-            return;
         }
+    }
+    
+    /**
+     * Serve an accepted connection on the calling thread, as a multiplexed link
+     * if it opens with MultiplexedTransport.MAGIC and as a single client otherwise
+     */
+    private void serve(Transport.Connection connection) {
+        // A peer that never sends a byte is dropped like any other idle client
+        TimingWheel.Timeout silent = schedule(() -> {
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+        }, config.getIdleTimeoutMillis());
         
         try {
-            switch (message.getType()) {
-                case PLAY_CARD:
-                    handlePlayCard(playerName, message);
-                    break;
-                case DRAW_CARD:
-                    handleDrawCard(playerName);
-                    break;
-                case CHOOSE_SUIT:
-                    handleChooseSuit(playerName, message);
-                    break;
+            DataInputStream input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            input.mark(4);
+            int first = input.readInt();
+            silent.cancel();
+            
+            if (first == MultiplexedTransport.MAGIC) {
+                MuxConnection link = new MuxConnection(connection, input, this);
+                links.add(link);
+                link.run();
+            } else {
+                input.reset();
+                ClientHandler clientHandler = new ClientHandler(connection, input, this);
+                connections.add(clientHandler);
+                clientHandler.run();
+            }
+        
+        } catch (IOException e) {
+            silent.cancel();
+            try {
+                connection.close();
+            } catch (IOException closeError) {
+                // Already gone
             }
-        } catch (Exception e) {
-            System.err.println("Error handling player move: " + e.getMessage());
-            e.printStackTrace();
         }
     }
     
     /**
-     * Handle playing a card
+     * Block until the accept loop ends
      */
-    private void handlePlayCard(String playerName, NetworkMessage message) {
-        Card cardToPlay = (Card) message.getData();
-        Player currentPlayer = game.getCurrentPlayer();
-        
-        // Find the actual card in player's hand
-        Card actualCard = null;
-        for (Card card : currentPlayer.getHand()) {
-            if (card.getSuit() == cardToPlay.getSuit() && card.getValue() == cardToPlay.getValue()) {
-                actualCard = card;
-                break;
-            }
+    public void awaitTermination() throws InterruptedException {
+        if (acceptThread != null) {
+            acceptThread.join();
         }
+    }
+    
+    /**
+     * Periodically drop rooms that have finished or were abandoned before anyone sat down
+     */
+    private void startRoomReaper() {
+        schedule(this::reapRooms, ROOM_SWEEP_INTERVAL_MS);
+    }
+    
+    private void reapRooms() {
+        if (isRunning) {
+            schedule(this::reapRooms, ROOM_SWEEP_INTERVAL_MS);
+        }
+        // A full bucket carries no state worth keeping
+        addressBuckets.values().removeIf(TokenBucket::isIdle);
         
-        if (actualCard == null || !actualCard.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
-            // Invalid move
-            ClientHandler client = clients.get(playerName);
-            if (client != null) {
-                client.sendMessage(new NetworkMessage(NetworkMessage.MessageType.INVALID_MOVE, "Invalid card"));
+        long now = System.currentTimeMillis();
+        for (GameRoom room : rooms.values()) {
+            if (room.isReclaimable(now, ROOM_ABANDON_TIMEOUT_MS)) {
+                room.closeAll();
+                closeRoom(room.getGameKey());
             }
-            return;
         }
-        
-        // Play the card
-        game.playCard(actualCard);
-        
-        // Check if game is over
-        if (game.isGameOver()) {
-            Player winner = game.getWinner();
-            broadcastMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_OVER, winner.getName()));
-        } else {
-            // Send game state update
-            sendGameStateUpdate();
+    }
+    
+    /**
+     * Stop the server
+     */
+    public void stop() {
+        isRunning = false;
+        try {
+            timers.stop();
+            matchmaker.stop();
+            if (metricsEndpoint != null) {
+                metricsEndpoint.stop();
+            }
+            if (acceptor != null) {
+                acceptor.close();
+            }
+            
+            // Close all client connections
+            for (ClientHandler client : connections) {
+                client.close();
+            }
+            connections.clear();
+            for (MuxConnection link : links) {
+                link.close();
+            }
+            links.clear();
+            rooms.clear();
+            tableScheduler.shutdown();
+            botPool.shutdown();
+            spectatorPool.shutdownNow();
+            if (moveLog != null) {
+                moveLog.close();
+            }
+            
+        } catch (IOException e) {
+            System.err.println("Error stopping server: " + e.getMessage());
         }
     }
     
     /**
-     * Handle drawing a card
+     * Open a two-seat table for a pair the matchmaker found and seat both players
      */
-    private void handleDrawCard(String playerName) {
-        game.drawCardFromDeck();
-        sendGameStateUpdate();
+    private void seatMatch(Matchmaker.Ticket first, Matchmaker.Ticket second) {
+        GameRoom room = createRoom();
+        ((ClientHandler) first.getOwner()).seatMatched(room);
+        ((ClientHandler) second.getOwner()).seatMatched(room);
     }
     
     /**
-     * Handle choosing a suit (for wild cards)
+     * Run a task once after the given delay on the server's timing wheel.
+     * The task runs on the wheel thread and must only hand work off.
      */
-    private void handleChooseSuit(String playerName, NetworkMessage message) {
-        Card.Suit chosenSuit = (Card.Suit) message.getData();
-        game.setForcedSuit(chosenSuit);
-        sendGameStateUpdate();
+    public TimingWheel.Timeout schedule(Runnable task, long delayMillis) {
+        return timers.schedule(task, delayMillis);
     }
     
     /**
-     * Send game state update to all clients
+     * The rate limit shared by every connection from one address
      */
-    private void sendGameStateUpdate() {
-        if (game == null) return;
-        
-        GameStateData gameState = new GameStateData(
-            game.getTopCard(),
-            game.getForcedSuit(),
-            game.getCurrentPlayerIndex(),
-            game.getPlayers(),
-            game.mustDrawCards(),
-            game.getAccumulatedDrawCards(),
-            game.lastCardWasOne()
-        );
-        
-        NetworkMessage stateMessage = new NetworkMessage(NetworkMessage.MessageType.GAME_STATE_UPDATE, gameState);
-        broadcastMessage(stateMessage);
+    public TokenBucket addressBucket(InetAddress address) {
+        return addressBuckets.computeIfAbsent(address,
+            a -> new TokenBucket(config.getAddressRatePerSecond(), config.getAddressBurst()));
     }
     
     /**
-     * Broadcast a message to all connected clients
+     * Forget a connection once its handler has shut down
      */
-    public void broadcastMessage(NetworkMessage message) {
-        for (ClientHandler client : clients.values()) {
-            client.sendMessage(message);
-        }
+    public void connectionClosed(ClientHandler clientHandler) {
+        connections.remove(clientHandler);
     }
     
     /**
-     * Send a message to a specific client
+     * Track a client on one session of a multiplexed link
      */
-    public void sendMessageToClient(String playerName, NetworkMessage message) {
-        ClientHandler client = clients.get(playerName);
-        if (client != null) {
-            client.sendMessage(message);
+    public void sessionOpened(ClientHandler clientHandler) {
+        connections.add(clientHandler);
+    }
+    
+    /**
+     * Forget a multiplexed link once it has closed
+     */
+    public void linkClosed(MuxConnection link) {
+        links.remove(link);
+    }
+    
+    /**
+     * Connections watching any table
+     */
+    public int getSpectatorCount() {
+        int count = 0;
+        for (GameRoom room : rooms.values()) {
+            count += room.getSpectatorCount();
         }
+        return count;
     }
     
     // Getters
-    public String getGameKey() { return gameKey; }
-    public boolean isGameStarted() { return gameStarted; }
-    public List<String> getPlayerNames() { return new ArrayList<>(playerNames); }
-    public Game getGame() { return game; }
+    public ServerConfig getConfig() { return config; }
+    public ServerMetrics getMetrics() { return metrics; }
+    public MoveLog getMoveLog() { return moveLog; }
+    public BotPool getBotPool() { return botPool; }
+    public Matchmaker getMatchmaker() { return matchmaker; }
+    public ExecutorService getSpectatorPool() { return spectatorPool; }
+    public boolean isRunning() { return isRunning; }
+    public int getRoomCount() { return rooms.size(); }
+    public int getConnectionCount() { return connections.size(); }
+    public int getLinkCount() { return links.size(); }
+    public SlowClientPolicy getSlowClientPolicy() { return config.getSlowClientPolicy(); }
+    public long getResumeGraceMillis() { return config.getResumeGraceMillis(); }
+    public long getHeartbeatIntervalMillis() { return config.getHeartbeatIntervalMillis(); }
+    public long getIdleTimeoutMillis() { return config.getIdleTimeoutMillis(); }
+    public long getTurnTimeLimitMillis() { return config.getTurnTimeLimitMillis(); }
+    public long getBotFillMillis() { return config.getBotFillMillis(); }
+    public long getBotThinkMillis() { return config.getBotThinkMillis(); }
+    public long getPendingTimerCount() { return timers.getPendingCount(); }
     
     /**
-     * Data class to hold game state information
+     * Data class to hold game state information as seen from one seat.
+     * Only the viewer's own hand is included; other hands are sent as counts.
      */
     public static class GameStateData implements Serializable {
-        private static final long serialVersionUID = 1L;
+        private static final long serialVersionUID = 2L;
+        
+        public static final int PUBLIC_VIEW = -1; // No seat: every hand hidden
         
         public final Card topCard;
         public final Card.Suit forcedSuit;
         public final int currentPlayerIndex;
         public final List<Player> players;
+        public final int[] handSizes;
+        public final int viewerIndex;
         public final boolean mustDrawCards;
         public final int accumulatedDrawCards;
         public final boolean lastCardWasOne;
         
         public GameStateData(Card topCard, Card.Suit forcedSuit, int currentPlayerIndex, 
-                           List<Player> players, boolean mustDrawCards, int accumulatedDrawCards, 
+                           List<Player> players, int[] handSizes, int viewerIndex,
+                           boolean mustDrawCards, int accumulatedDrawCards, 
                            boolean lastCardWasOne) {
             this.topCard = topCard;
             this.forcedSuit = forcedSuit;
             this.currentPlayerIndex = currentPlayerIndex;
             this.players = new ArrayList<>(players);
+            this.handSizes = handSizes;
+            this.viewerIndex = viewerIndex;
             this.mustDrawCards = mustDrawCards;
             this.accumulatedDrawCards = accumulatedDrawCards;
             this.lastCardWasOne = lastCardWasOne;
         }
+        
+        /**
+         * Project the game state for one seat (or PUBLIC_VIEW)
+         */
+        public static GameStateData forViewer(Game game, int viewerIndex) {
+            List<Player> source = game.getPlayers();
+            List<Player> players = new ArrayList<>(source.size());
+            int[] handSizes = new int[source.size()];
+            
+            for (int i = 0; i < source.size(); i++) {
+                Player player = source.get(i);
+                Player copy = new Player(player.getName());
+                if (i == viewerIndex) {
+                    copy.getHand().addAll(player.getHand());
+                }
+                players.add(copy);
+                handSizes[i] = player.getHand().size();
+            }
+            
+            return new GameStateData(
+                game.getTopCard(),
+                game.getForcedSuit(),
+                game.getCurrentPlayerIndex(),
+                players,
+                handSizes,
+                viewerIndex,
+                game.mustDrawCards(),
+                game.getAccumulatedDrawCards(),
+                game.lastCardWasOne()
+            );
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,242 @@
+import java.io.*;
+import java.net.*;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Transport that connects clients and servers in the same JVM through bounded
+ * in-memory pipes. Ports are only names in this transport's own table, so any
+ * number of servers and clients can share a process without binding anything.
+ *
+ * Each direction is a fixed-size byte ring: a writer that gets ahead of its
+ * reader blocks once the ring is full, just as a socket's send buffer would,
+ * so slow client handling behaves the same as over TCP. Every connection
+ * appears to come from the loopback address.
+ */
+public class InMemoryTransport implements Transport {
+    private static final int PIPE_BYTES = 64 * 1024;
+
+    private final Map<Integer, MemoryAcceptor> acceptors = new ConcurrentHashMap<>();
+    private final AtomicLong nextConnection = new AtomicLong();
+
+    @Override
+    public Acceptor listen(String bindAddress, int port) throws IOException {
+        MemoryAcceptor acceptor = new MemoryAcceptor(port);
+        if (acceptors.putIfAbsent(port, acceptor) != null) {
+            throw new BindException("Port " + port + " is already in use");
+        }
+        return acceptor;
+    }
+
+    @Override
+    public Connection connect(String host, int port, int readTimeoutMillis) throws IOException {
+        MemoryAcceptor acceptor = acceptors.get(port);
+        if (acceptor == null) {
+            throw new ConnectException("Connection refused: nothing listening on port " + port);
+        }
+        String name = "memory:" + port + "#" + nextConnection.incrementAndGet();
+        Pipe toServer = new Pipe();
+        Pipe toClient = new Pipe();
+        MemoryConnection client = new MemoryConnection(name, toClient, toServer, readTimeoutMillis);
+        MemoryConnection server = new MemoryConnection(name, toServer, toClient, 0);
+        acceptor.pending.add(server);
+        return client;
+    }
+
+    private class MemoryAcceptor implements Acceptor {
+        private final int port;
+        private final BlockingQueue<MemoryConnection> pending = new LinkedBlockingQueue<>();
+        private final MemoryConnection closedMarker = new MemoryConnection("closed", null, null, 0);
+        private volatile boolean closed = false;
+
+        MemoryAcceptor(int port) {
+            this.port = port;
+        }
+
+        public Connection accept() throws IOException {
+            try {
+                MemoryConnection connection = closed ? closedMarker : pending.take();
+                if (connection == closedMarker) {
+                    pending.add(closedMarker); // Wake any other acceptor thread too
+                    throw new SocketException("Socket closed");
+                }
+                return connection;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while accepting");
+            }
+        }
+
+        public void close() {
+            if (!closed) {
+                closed = true;
+                acceptors.remove(port, this);
+                pending.add(closedMarker);
+            }
+        }
+    }
+
+    private static class MemoryConnection implements Connection {
+        private final String name;
+        private final Pipe in;
+        private final Pipe out;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private volatile boolean closed = false;
+
+        MemoryConnection(String name, Pipe in, Pipe out, int readTimeoutMillis) {
+            this.name = name;
+            this.in = in;
+            this.out = out;
+            this.inputStream = new InputStream() {
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    return in.read(buffer, offset, length, readTimeoutMillis);
+                }
+                public int available() {
+                    return in.available();
+                }
+                public void close() {
+                    MemoryConnection.this.close();
+                }
+            };
+            this.outputStream = new OutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    out.write(buffer, offset, length);
+                }
+                public void close() {
+                    MemoryConnection.this.close();
+                }
+            };
+        }
+
+        public InputStream getInputStream() { return inputStream; }
+        public OutputStream getOutputStream() { return outputStream; }
+        public InetAddress getRemoteAddress() { return InetAddress.getLoopbackAddress(); }
+        public void shutdownInput() { in.shutdownRead(); }
+        public boolean isClosed() { return closed; }
+
+        public void close() {
+            if (!closed) {
+                closed = true;
+                in.closeReader();
+                out.closeWriter();
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * One direction of a connection: a byte ring with one writer and one reader
+     */
+    private static class Pipe {
+        private final byte[] ring = new byte[PIPE_BYTES];
+        private int readAt = 0;
+        private int size = 0;
+        private boolean writerClosed = false; // Reader sees end of stream once drained
+        private boolean readerClosed = false; // Reader's own end is gone: reads fail, writes fail
+        private boolean readShutdown = false; // Reader sees end of stream straight away
+
+        synchronized int read(byte[] buffer, int offset, int length, int timeoutMillis) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long deadline = timeoutMillis > 0 ? System.nanoTime() + timeoutMillis * 1000000L : 0;
+            while (size == 0) {
+                if (readerClosed) {
+                    throw new SocketException("Socket closed");
+                }
+                if (writerClosed || readShutdown) {
+                    return -1;
+                }
+                awaitChange(deadline);
+            }
+            if (readerClosed) {
+                throw new SocketException("Socket closed");
+            }
+            if (readShutdown) {
+                return -1;
+            }
+
+            int count = Math.min(length, size);
+            int first = Math.min(count, ring.length - readAt);
+            System.arraycopy(ring, readAt, buffer, offset, first);
+            System.arraycopy(ring, 0, buffer, offset + first, count - first);
+            readAt = (readAt + count) % ring.length;
+            size -= count;
+            notifyAll();
+            return count;
+        }
+
+        synchronized void write(byte[] buffer, int offset, int length) throws IOException {
+            while (length > 0) {
+                while (size == ring.length && !readerClosed && !writerClosed) {
+                    awaitChange(0);
+                }
+                if (writerClosed) {
+                    throw new SocketException("Socket closed");
+                }
+                if (readerClosed) {
+                    throw new SocketException("Connection reset");
+                }
+
+                int count = Math.min(length, ring.length - size);
+                int writeAt = (readAt + size) % ring.length;
+                int first = Math.min(count, ring.length - writeAt);
+                System.arraycopy(buffer, offset, ring, writeAt, first);
+                System.arraycopy(buffer, offset + first, ring, 0, count - first);
+                size += count;
+                offset += count;
+                length -= count;
+                notifyAll();
+            }
+        }
+
+        private void awaitChange(long deadline) throws IOException {
+            try {
+                if (deadline == 0) {
+                    wait();
+                    return;
+                }
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                wait(Math.max(1, remaining / 1000000));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+        }
+
+        synchronized int available() {
+            return readShutdown ? 0 : size;
+        }
+
+        synchronized void closeWriter() {
+            writerClosed = true;
+            notifyAll();
+        }
+
+        synchronized void closeReader() {
+            readerClosed = true;
+            notifyAll();
+        }
+
+        synchronized void shutdownRead() {
+            readShutdown = true;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,419 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator that drives a GameServer over real sockets, over an
+ * InMemoryTransport when the server address is "memory", or over shared memory
+ * rings when it is "shm:port" (see SharedMemoryTransport). Prefixing the address
+ * with "mux+" puts every bot on one multiplexed connection (see MultiplexedTransport).
+ * Starts two bot players per table; one opens the table with CREATE_GAME and hands
+ * the game key to its partner, which joins it. Bots play legal moves after a random
+ * think time, sometimes drop their connection and resume their seat, and open a new
+ * table when the game ends. Reports moves per second, open connections and the
+ * latency each bot observes between sending a move and seeing its result, broken
+ * down per segment from the moves' traces.
+ *
+ * Without a server address an in-process server is started on the default port;
+ * with "memory" it is started on an in-memory transport and no port is bound.
+ *
+ * Usage: java LoadGenerator [tables] [seconds] [meanThinkMs] [dropPercent] [[mux+]host:port|shm:port|memory]
+ */
+public class LoadGenerator {
+    private static final int BOT_STACK_BYTES = 256 * 1024; // Thousands of bots, each mostly blocked in a read
+    private static final int READ_TIMEOUT_MS = 45000;
+    private static final int MAX_SAMPLES_PER_BOT = 100000;
+    private static final long WARMUP_MS = 2000;
+
+    private static final LongAdder moves = new LongAdder();
+    private static final LongAdder invalidMoves = new LongAdder();
+    private static final LongAdder gamesFinished = new LongAdder();
+    private static final LongAdder resumes = new LongAdder();
+    private static final LongAdder failedResumes = new LongAdder();
+    private static final LongAdder connectFailures = new LongAdder();
+    private static final AtomicInteger openConnections = new AtomicInteger();
+    private static final TraceCollector traces = new TraceCollector();
+    private static volatile boolean running = true;
+    private static volatile boolean measuring = false;
+    private static Transport transport = new TcpTransport();
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        long meanThinkMs = args.length > 2 ? Long.parseLong(args[2]) : 200;
+        double dropChance = (args.length > 3 ? Double.parseDouble(args[3]) : 1) / 100.0;
+
+        String host = "localhost";
+        int port = ServerConfig.DEFAULT_PORT;
+        GameServer embedded = null;
+        String address = args.length > 4 ? args[4] : null;
+        boolean multiplexed = address != null && address.startsWith("mux+");
+        if (multiplexed) {
+            address = address.substring("mux+".length());
+        }
+        if (address != null && !address.equals("memory")) {
+            host = address.substring(0, address.lastIndexOf(':'));
+            port = Integer.parseInt(address.substring(address.lastIndexOf(':') + 1));
+            if (host.equals("shm")) {
+                transport = new SharedMemoryTransport();
+            }
+        } else {
+            ServerConfig config = new ServerConfig();
+            config.setBindAddress("127.0.0.1");
+            config.setMaxConnections(Math.max(config.getMaxConnections(), tables * 2 + 100));
+            // Bots play faster than people and all connect from loopback; measure the server, not its limits
+            config.setInboundRatePerSecond(1e6);
+            config.setAddressRatePerSecond(1e9);
+            if (address != null) {
+                transport = new InMemoryTransport();
+                config.setTransport(transport);
+                host = "memory";
+            }
+            embedded = new GameServer(config);
+            embedded.start();
+        }
+        if (multiplexed) {
+            transport = new MultiplexedTransport(transport);
+        }
+
+        System.out.printf("Tables: %d (%d bots), %ds, think %dms mean, drop %.1f%% of turns, server %s:%d%s%n",
+            tables, tables * 2, seconds, meanThinkMs, dropChance * 100, host, port, multiplexed ? " (multiplexed)" : "");
+
+        List<Bot> bots = new ArrayList<>();
+        for (int i = 0; i < tables; i++) {
+            BlockingQueue<String> keys = new LinkedBlockingQueue<>();
+            bots.add(new Bot("bot" + i + "a", true, keys, host, port, meanThinkMs, dropChance));
+            bots.add(new Bot("bot" + i + "b", false, keys, host, port, meanThinkMs, dropChance));
+        }
+        for (Bot bot : bots) {
+            Thread thread = new Thread(null, bot, bot.name, BOT_STACK_BYTES);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // Warm up, then measure
+        Thread.sleep(WARMUP_MS);
+        long startMoves = moves.sum();
+        long startTime = System.nanoTime();
+        measuring = true;
+        long lastMoves = startMoves;
+        for (int second = 1; second <= seconds; second++) {
+            Thread.sleep(1000);
+            long now = moves.sum();
+            System.out.printf("t=%ds  moves/sec=%,d  connections=%d  games=%d  resumes=%d%n",
+                second, now - lastMoves, openConnections.get(), gamesFinished.sum(), resumes.sum());
+            lastMoves = now;
+        }
+        measuring = false;
+        long elapsed = System.nanoTime() - startTime;
+        long measured = moves.sum() - startMoves;
+        running = false;
+
+        System.out.printf("moves/sec=%,.0f  games=%d  invalid=%d  resumes=%d  failedResumes=%d  connectFailures=%d%n",
+            measured * 1e9 / elapsed, gamesFinished.sum(), invalidMoves.sum(), resumes.sum(),
+            failedResumes.sum(), connectFailures.sum());
+        printLatency(bots);
+        System.out.print(traces.getSummary());
+        if (embedded != null) {
+            System.out.println("Server: " + embedded.getConnectionCount() + " connections, "
+                + embedded.getRoomCount() + " rooms");
+            embedded.stop();
+        }
+        System.exit(0);
+    }
+
+    private static void printLatency(List<Bot> bots) {
+        int total = 0;
+        for (Bot bot : bots) {
+            total += bot.sampleCount;
+        }
+        long[] samples = new long[total];
+        int offset = 0;
+        for (Bot bot : bots) {
+            System.arraycopy(bot.samples, 0, samples, offset, bot.sampleCount);
+            offset += bot.sampleCount;
+        }
+        if (samples.length == 0) {
+            System.out.println("No latency samples");
+            return;
+        }
+        Arrays.sort(samples);
+        System.out.printf("latency (ms): p50=%.2f  p90=%.2f  p99=%.2f  p99.9=%.2f  max=%.2f  (%d samples)%n",
+            percentile(samples, 0.50), percentile(samples, 0.90), percentile(samples, 0.99),
+            percentile(samples, 0.999), samples[samples.length - 1] / 1e6, samples.length);
+    }
+
+    private static double percentile(long[] sorted, double fraction) {
+        int index = (int) Math.min(sorted.length - 1, Math.ceil(fraction * sorted.length) - 1);
+        return sorted[Math.max(0, index)] / 1e6;
+    }
+
+    /**
+     * One simulated player speaking the GameClient protocol on its own thread
+     */
+    private static class Bot implements Runnable {
+        private final String name;
+        private final boolean opensTable;
+        private final BlockingQueue<String> keys;
+        private final String host;
+        private final int port;
+        private final long meanThinkMs;
+        private final double dropChance;
+        private final Random random = new Random();
+
+        private Transport.Connection connection;
+        private DataInputStream input;
+        private DataOutputStream output;
+        private SessionTicket ticket;
+        private long lastSequence;
+        private GameServer.GameStateData state;
+        private long moveSentAt; // 0 when no move is awaiting its result
+        private boolean lastMoveWasDraw;
+        private boolean retryAsDraw;
+
+        // Latency samples in nanoseconds; only this bot writes them, read after the run
+        private volatile long[] samples = new long[64];
+        private volatile int sampleCount;
+
+        Bot(String name, boolean opensTable, BlockingQueue<String> keys, String host, int port,
+            long meanThinkMs, double dropChance) {
+            this.name = name;
+            this.opensTable = opensTable;
+            this.keys = keys;
+            this.host = host;
+            this.port = port;
+            this.meanThinkMs = meanThinkMs;
+            this.dropChance = dropChance;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    if (joinTable()) {
+                        playGame();
+                    }
+                } catch (IOException e) {
+                    // Lost the table; start over with a new one
+                } catch (InterruptedException e) {
+                    return;
+                } finally {
+                    closeConnection();
+                }
+            }
+        }
+
+        /**
+         * Open a table and publish its key, or take the key our partner published
+         */
+        private boolean joinTable() throws IOException, InterruptedException {
+            state = null;
+            lastSequence = 0;
+            moveSentAt = 0;
+            NetworkMessage request;
+            if (opensTable) {
+                request = new NetworkMessage(NetworkMessage.MessageType.CREATE_GAME, null, name);
+            } else {
+                String gameKey = keys.poll(1, TimeUnit.SECONDS);
+                if (gameKey == null) {
+                    return false;
+                }
+                request = new NetworkMessage(NetworkMessage.MessageType.JOIN_GAME, gameKey, name);
+            }
+
+            NetworkMessage response = handshake(request);
+            if (response == null || response.getType() != NetworkMessage.MessageType.GAME_JOINED) {
+                connectFailures.increment();
+                Thread.sleep(100);
+                return false;
+            }
+            ticket = (SessionTicket) response.getData();
+            if (opensTable) {
+                keys.offer(ticket.getGameKey());
+            }
+            return true;
+        }
+
+        /**
+         * Play until the game ends or the seat is lost
+         */
+        private void playGame() throws IOException, InterruptedException {
+            while (running) {
+                if (isMyTurn() && moveSentAt == 0) {
+                    Thread.sleep(thinkTime());
+                    if (random.nextDouble() < dropChance && !dropAndResume()) {
+                        return;
+                    }
+                    // Resuming may have replayed a state in which we no longer have the turn
+                    if (isMyTurn()) {
+                        sendMove();
+                    }
+                }
+
+                NetworkMessage message = MessageCodec.readMessage(input);
+                if (message.getTrace() != null) {
+                    message.getTrace().markDecoded();
+                }
+                if (message.getSequence() > 0) {
+                    if (message.getSequence() <= lastSequence) {
+                        continue;
+                    }
+                    lastSequence = message.getSequence();
+                }
+
+                switch (message.getType()) {
+                    case PING:
+                        write(new NetworkMessage(NetworkMessage.MessageType.PONG));
+                        break;
+                    case GAME_STATE_UPDATE:
+                        state = (GameServer.GameStateData) message.getData();
+                        moveCompleted(isOwnMove(message));
+                        // Bots have nothing to paint, so a move is rendered once it is applied
+                        if (message.getTrace() != null && measuring) {
+                            message.getTrace().markRendered();
+                            traces.record(message.getTrace(), name);
+                        }
+                        break;
+                    case INVALID_MOVE:
+                        invalidMoves.increment();
+                        moveCompleted(false);
+                        // A rejected card usually means a draw is owed; fall back to drawing once
+                        retryAsDraw = !lastMoveWasDraw;
+                        break;
+                    case GAME_OVER:
+                        // Our move was in flight, so it was the winning card
+                        moveCompleted(true);
+                        gamesFinished.increment();
+                        return;
+                    default:
+                        break;
+                }
+            }
+        }
+
+        private boolean isOwnMove(NetworkMessage message) {
+            return message.getTrace() != null && message.getTrace().getPlayerName().equals(name);
+        }
+
+        private boolean isMyTurn() {
+            return state != null && state.currentPlayerIndex == state.viewerIndex;
+        }
+
+        /**
+         * Exponentially distributed think time around the configured mean
+         */
+        private long thinkTime() {
+            if (meanThinkMs <= 0) {
+                return 0;
+            }
+            return (long) (-Math.log(1 - random.nextDouble()) * meanThinkMs);
+        }
+
+        /**
+         * First legal card in hand, or a draw
+         */
+        private void sendMove() throws IOException {
+            Card move = null;
+            if (!retryAsDraw) {
+                for (Card card : state.players.get(state.viewerIndex).getHand()) {
+                    if (card.canBePlayedOn(state.topCard, state.forcedSuit)) {
+                        move = card;
+                        break;
+                    }
+                }
+            }
+            retryAsDraw = false;
+            lastMoveWasDraw = move == null;
+            NetworkMessage message = move != null
+                ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, move)
+                : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+            message.setTrace(MoveTrace.start(name));
+            moveSentAt = System.nanoTime();
+            write(message);
+            if (move != null && move.getValue() == 7) {
+                // Nobody moves until a 7's suit is named; send it right behind the 7
+                write(new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, move.getSuit()));
+            }
+        }
+
+        /**
+         * The answer to our move arrived; only a move the table applied counts, and only its latency is sampled
+         */
+        private void moveCompleted(boolean applied) {
+            if (moveSentAt == 0) {
+                return;
+            }
+            if (!applied) {
+                moveSentAt = 0;
+                return;
+            }
+            if (measuring && sampleCount < MAX_SAMPLES_PER_BOT) {
+                if (sampleCount == samples.length) {
+                    samples = Arrays.copyOf(samples, Math.min(MAX_SAMPLES_PER_BOT, samples.length * 2));
+                }
+                samples[sampleCount] = System.nanoTime() - moveSentAt;
+                sampleCount++;
+            }
+            moveSentAt = 0;
+            moves.increment();
+        }
+
+        /**
+         * Drop the connection as a network failure would and take the seat back
+         */
+        private boolean dropAndResume() throws InterruptedException {
+            closeConnection();
+            Thread.sleep(50 + random.nextInt(450));
+            try {
+                NetworkMessage response = handshake(new NetworkMessage(NetworkMessage.MessageType.RESUME_SESSION,
+                    ticket.withLastSequence(lastSequence), name));
+                if (response != null && response.getType() == NetworkMessage.MessageType.GAME_JOINED) {
+                    resumes.increment();
+                    return true;
+                }
+            } catch (IOException e) {
+                // Counted below
+            }
+            failedResumes.increment();
+            return false;
+        }
+
+        private NetworkMessage handshake(NetworkMessage request) throws IOException {
+            connection = transport.connect(host, port, READ_TIMEOUT_MS);
+            openConnections.incrementAndGet();
+            output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            write(request);
+
+            // Heartbeats may arrive before the answer
+            while (true) {
+                NetworkMessage response = MessageCodec.readMessage(input);
+                if (response.getType() != NetworkMessage.MessageType.PING) {
+                    return response;
+                }
+            }
+        }
+
+        private void write(NetworkMessage message) throws IOException {
+            message.setPlayerName(name);
+            MessageCodec.writeFrame(output, MessageCodec.encode(message));
+            output.flush();
+        }
+
+        private void closeConnection() {
+            if (connection == null) {
+                return;
+            }
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            connection = null;
+            openConnections.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * One move at a lockstep table, as it travels in a binary frame (see MoveCodec).
+ *
+ * Clients send only the move code. The server answers every seat with the move
+ * number, the seat that moved, the code and the seat whose turn it is next; the
+ * seat that drew also gets the codes of the cards it drew. The next seat is sent
+ * explicitly because whether a 1 skips the opponent depends on a hand only the
+ * server sees.
+ */
+public class LockstepMove {
+    private final long moveNumber;
+    private final int seat;
+    private final byte code;
+    private final int nextSeat;
+    private final byte[] drawnCards; // Only in the drawing seat's copy
+
+    public LockstepMove(long moveNumber, int seat, byte code, int nextSeat, byte[] drawnCards) {
+        this.moveNumber = moveNumber;
+        this.seat = seat;
+        this.code = code;
+        this.nextSeat = nextSeat;
+        this.drawnCards = drawnCards;
+    }
+
+    /**
+     * A move as a client submits it, before the server has placed it
+     */
+    public static LockstepMove request(byte code) {
+        return new LockstepMove(0, -1, code, -1, null);
+    }
+
+    public long getMoveNumber() { return moveNumber; }
+    public int getSeat() { return seat; }
+    public byte getCode() { return code; }
+    public int getNextSeat() { return nextSeat; }
+    public byte[] getDrawnCards() { return drawnCards; }
+
+    @Override
+    public String toString() {
+        return "LockstepMove{#" + moveNumber + ", seat=" + seat + ", " + MoveCodec.describe(code) + ", next=" + nextSeat + "}";
+    }
+}
@@ -0,0 +1,251 @@
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Server side of a lockstep table.
+ *
+ * The deck is shuffled from a secret seed. At the start the server commits to the
+ * seed (SHA-256 of seed and game key) and to every seat's hand (SHA-256 of seat,
+ * a per-seat salt and the cards); each seat is shown only its own cards and salt.
+ * From then on only move codes are exchanged, and clients replay them on their
+ * own copy of the public state (LockstepState). Clients report a hash of that
+ * state every few moves; a mismatch earns the seat a fresh snapshot. When the
+ * game ends the seed and salts are revealed, so every client can check the deal
+ * was the one committed to.
+ *
+ * Owned by the table's actor thread.
+ */
+public class LockstepSession {
+    public static final int HASH_INTERVAL = 8; // Clients report their state hash every this many moves
+    private static final int HASH_HISTORY = 64;
+
+    /**
+     * Everything a seat needs to (re)build its copy of the table
+     */
+    public static class Snapshot implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final int seat;
+        public final List<String> players;
+        public final byte[] deckCommitment;
+        public final byte[][] seatCommitments;
+        public final long salt;
+        public final long moveNumber;
+        public final byte[] hand;
+        public final int[] handSizes;
+        public final int deckSize;
+        public final byte topCard;
+        public final int forcedSuit; // Suit ordinal, or -1
+        public final int currentSeat;
+        public final int accumulatedDrawCards;
+        public final boolean mustDrawCards;
+        public final boolean lastCardWasOne;
+
+        Snapshot(int seat, List<String> players, byte[] deckCommitment, byte[][] seatCommitments, long salt,
+                 long moveNumber, byte[] hand, int[] handSizes, int deckSize, byte topCard, int forcedSuit,
+                 int currentSeat, int accumulatedDrawCards, boolean mustDrawCards, boolean lastCardWasOne) {
+            this.seat = seat;
+            this.players = players;
+            this.deckCommitment = deckCommitment;
+            this.seatCommitments = seatCommitments;
+            this.salt = salt;
+            this.moveNumber = moveNumber;
+            this.hand = hand;
+            this.handSizes = handSizes;
+            this.deckSize = deckSize;
+            this.topCard = topCard;
+            this.forcedSuit = forcedSuit;
+            this.currentSeat = currentSeat;
+            this.accumulatedDrawCards = accumulatedDrawCards;
+            this.mustDrawCards = mustDrawCards;
+            this.lastCardWasOne = lastCardWasOne;
+        }
+    }
+
+    /**
+     * The secrets behind the commitments, published once the game is over
+     */
+    public static class Reveal implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        public final long seed;
+        public final long[] salts;
+
+        Reveal(long seed, long[] salts) {
+            this.seed = seed;
+            this.salts = salts;
+        }
+    }
+
+    private final long seed;
+    private final long[] salts;
+    private final byte[] deckCommitment;
+    private final byte[][] seatCommitments;
+    private final long[] hashMoves = new long[HASH_HISTORY];
+    private final long[] hashes = new long[HASH_HISTORY];
+    private long moveNumber = 0;
+
+    /**
+     * Commit to a game that was just dealt from new Game(players, seed)
+     */
+    public LockstepSession(String gameKey, long seed, Game game, SecureRandom random) {
+        this.seed = seed;
+        this.deckCommitment = deckCommitment(seed, gameKey);
+
+        int seats = game.getPlayers().size();
+        this.salts = new long[seats];
+        this.seatCommitments = new byte[seats][];
+        for (int seat = 0; seat < seats; seat++) {
+            salts[seat] = random.nextLong();
+            seatCommitments[seat] = seatCommitment(seat, salts[seat], game.getPlayers().get(seat).getHand());
+        }
+        Arrays.fill(hashMoves, -1);
+        remember(game);
+    }
+
+    /**
+     * Pick up a table restored from the move log; the seat commitments are
+     * recomputed by re-dealing from the seed
+     */
+    public LockstepSession(String gameKey, long seed, long[] salts, long moveNumber) {
+        this.seed = seed;
+        this.salts = salts.clone();
+        this.deckCommitment = deckCommitment(seed, gameKey);
+        this.seatCommitments = new byte[salts.length][];
+        Deck deck = new Deck(seed);
+        for (int seat = 0; seat < salts.length; seat++) {
+            List<Card> dealt = new ArrayList<>();
+            for (int card = 0; card < 4; card++) {
+                dealt.add(deck.draw());
+            }
+            seatCommitments[seat] = seatCommitment(seat, salts[seat], dealt);
+        }
+        this.moveNumber = moveNumber;
+        Arrays.fill(hashMoves, -1);
+    }
+
+    /**
+     * Count a move the table has applied and remember the resulting state hash
+     * @return the move's number
+     */
+    public long recordMove(Game game) {
+        moveNumber++;
+        remember(game);
+        return moveNumber;
+    }
+
+    private void remember(Game game) {
+        int slot = (int) (moveNumber % HASH_HISTORY);
+        hashMoves[slot] = moveNumber;
+        hashes[slot] = stateHash(moveNumber, game);
+    }
+
+    /**
+     * Compare a client's reported hash with ours for the same move
+     * @return false only on a definite mismatch; hashes too old to check pass
+     */
+    public boolean checkHash(long reportedMove, long reportedHash) {
+        int slot = (int) (Math.floorMod(reportedMove, (long) HASH_HISTORY));
+        if (hashMoves[slot] != reportedMove) {
+            return true;
+        }
+        return hashes[slot] == reportedHash;
+    }
+
+    public Snapshot snapshotFor(int seat, Game game, List<String> players) {
+        List<Player> seated = game.getPlayers();
+        int[] handSizes = new int[seated.size()];
+        for (int i = 0; i < handSizes.length; i++) {
+            handSizes[i] = seated.get(i).getHand().size();
+        }
+        List<Card> own = seated.get(seat).getHand();
+        byte[] hand = new byte[own.size()];
+        for (int i = 0; i < hand.length; i++) {
+            hand[i] = MoveCodec.cardCode(own.get(i));
+        }
+        Card.Suit forced = game.getForcedSuit();
+        return new Snapshot(seat, List.copyOf(players), deckCommitment, seatCommitments, salts[seat], moveNumber,
+            hand, handSizes, game.getDeck().size(), MoveCodec.cardCode(game.getTopCard()),
+            forced == null ? -1 : forced.ordinal(), game.getCurrentPlayerIndex(), game.getAccumulatedDrawCards(),
+            game.mustDrawCards(), game.lastCardWasOne());
+    }
+
+    public Reveal reveal() {
+        return new Reveal(seed, salts.clone());
+    }
+
+    public long getMoveNumber() { return moveNumber; }
+
+    /**
+     * Hash of the public state after a move, computed identically by server and clients
+     */
+    static long stateHash(long moveNumber, Game game) {
+        List<Player> players = game.getPlayers();
+        int[] handSizes = new int[players.size()];
+        for (int i = 0; i < handSizes.length; i++) {
+            handSizes[i] = players.get(i).getHand().size();
+        }
+        Card.Suit forced = game.getForcedSuit();
+        return stateHash(moveNumber, MoveCodec.cardCode(game.getTopCard()), forced == null ? -1 : forced.ordinal(),
+            game.getCurrentPlayerIndex(), handSizes, game.getDeck().size(), game.getAccumulatedDrawCards(),
+            game.mustDrawCards(), game.lastCardWasOne());
+    }
+
+    static long stateHash(long moveNumber, byte topCard, int forcedSuit, int currentSeat, int[] handSizes,
+                          int deckSize, int accumulatedDrawCards, boolean mustDrawCards, boolean lastCardWasOne) {
+        // 64-bit FNV-1a over the fields
+        long hash = 0xcbf29ce484222325L;
+        hash = mix(hash, moveNumber);
+        hash = mix(hash, topCard);
+        hash = mix(hash, forcedSuit);
+        hash = mix(hash, currentSeat);
+        for (int size : handSizes) {
+            hash = mix(hash, size);
+        }
+        hash = mix(hash, deckSize);
+        hash = mix(hash, accumulatedDrawCards);
+        hash = mix(hash, mustDrawCards ? 1 : 0);
+        hash = mix(hash, lastCardWasOne ? 1 : 0);
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        for (int i = 0; i < 8; i++) {
+            hash ^= (value >>> (i * 8)) & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    static byte[] deckCommitment(long seed, String gameKey) {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(8).putLong(seed).array());
+        digest.update(gameKey.getBytes(StandardCharsets.UTF_8));
+        return digest.digest();
+    }
+
+    static byte[] seatCommitment(int seat, long salt, List<Card> hand) {
+        MessageDigest digest = sha256();
+        digest.update(ByteBuffer.allocate(12).putInt(seat).putLong(salt).array());
+        for (Card card : hand) {
+            digest.update(MoveCodec.cardCode(card));
+        }
+        return digest.digest();
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE ships SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+}
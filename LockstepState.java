@@ -0,0 +1,155 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A client's copy of a lockstep table: the public state plus its own hand.
+ *
+ * It is built from the server's snapshot and then advanced by replaying move
+ * codes with the same rules Game applies, so the server never has to send the
+ * state itself. Only the listener thread touches it.
+ */
+public class LockstepState {
+    private final int seat;
+    private final List<String> players;
+    private final byte[] deckCommitment;
+    private final byte[][] seatCommitments;
+    private final List<Card> hand = new ArrayList<>();
+    private final int[] handSizes;
+    private long moveNumber;
+    private int deckSize;
+    private Card topCard;
+    private Card.Suit forcedSuit;
+    private int currentSeat;
+    private int accumulatedDrawCards;
+    private boolean mustDrawCards;
+    private boolean lastCardWasOne;
+
+    public LockstepState(LockstepSession.Snapshot snapshot) {
+        this.seat = snapshot.seat;
+        this.players = snapshot.players;
+        this.deckCommitment = snapshot.deckCommitment;
+        this.seatCommitments = snapshot.seatCommitments;
+        for (byte code : snapshot.hand) {
+            hand.add(MoveCodec.decodeCard(code));
+        }
+        this.handSizes = snapshot.handSizes.clone();
+        this.moveNumber = snapshot.moveNumber;
+        this.deckSize = snapshot.deckSize;
+        this.topCard = MoveCodec.decodeCard(snapshot.topCard);
+        this.forcedSuit = snapshot.forcedSuit < 0 ? null : Card.Suit.values()[snapshot.forcedSuit];
+        this.currentSeat = snapshot.currentSeat;
+        this.accumulatedDrawCards = snapshot.accumulatedDrawCards;
+        this.mustDrawCards = snapshot.mustDrawCards;
+        this.lastCardWasOne = snapshot.lastCardWasOne;
+    }
+
+    /**
+     * Apply the next move
+     * @return false if it is not the move that follows ours (we are out of step)
+     */
+    public boolean apply(LockstepMove move) {
+        if (move.getMoveNumber() != moveNumber + 1) {
+            return false;
+        }
+        byte code = move.getCode();
+        int mover = move.getSeat();
+
+        if (MoveCodec.isDraw(code)) {
+            int owed = accumulatedDrawCards > 0 ? accumulatedDrawCards : 1;
+            int drawn = Math.min(owed, deckSize);
+            deckSize -= drawn;
+            handSizes[mover] += drawn;
+            if (accumulatedDrawCards > 0) {
+                accumulatedDrawCards = 0;
+                mustDrawCards = false;
+            } else {
+                forcedSuit = null;
+            }
+            if (mover == seat && move.getDrawnCards() != null) {
+                for (byte card : move.getDrawnCards()) {
+                    hand.add(MoveCodec.decodeCard(card));
+                }
+            }
+        } else if (MoveCodec.isSuitChoice(code)) {
+            forcedSuit = MoveCodec.decodeSuit(code);
+        } else {
+            Card card = MoveCodec.decodeCard(code);
+            handSizes[mover]--;
+            if (mover == seat) {
+                hand.removeIf(held -> held.getSuit() == card.getSuit() && held.getValue() == card.getValue());
+            }
+            topCard = card;
+            // Same effects as Game.playCard; the turn itself comes from the server
+            switch (card.getValue()) {
+                case 1:
+                    lastCardWasOne = true;
+                    forcedSuit = null;
+                    break;
+                case 2:
+                    accumulatedDrawCards += 2;
+                    mustDrawCards = true;
+                    forcedSuit = null;
+                    lastCardWasOne = false;
+                    break;
+                case 7:
+                    lastCardWasOne = false;
+                    break;
+                default:
+                    forcedSuit = null;
+                    lastCardWasOne = false;
+                    break;
+            }
+        }
+
+        currentSeat = move.getNextSeat();
+        moveNumber = move.getMoveNumber();
+        return true;
+    }
+
+    public long stateHash() {
+        return LockstepSession.stateHash(moveNumber, MoveCodec.cardCode(topCard),
+            forcedSuit == null ? -1 : forcedSuit.ordinal(), currentSeat, handSizes, deckSize,
+            accumulatedDrawCards, mustDrawCards, lastCardWasOne);
+    }
+
+    /**
+     * The state in the shape the UI consumes for server-driven tables
+     */
+    public GameServer.GameStateData toGameState() {
+        List<Player> seated = new ArrayList<>(players.size());
+        for (int i = 0; i < players.size(); i++) {
+            Player player = new Player(players.get(i));
+            if (i == seat) {
+                player.getHand().addAll(hand);
+            }
+            seated.add(player);
+        }
+        return new GameServer.GameStateData(topCard, forcedSuit, currentSeat, seated, handSizes.clone(), seat,
+            mustDrawCards, accumulatedDrawCards, lastCardWasOne);
+    }
+
+    /**
+     * Check the revealed seed and salts against the commitments made at the deal
+     */
+    public boolean verify(LockstepSession.Reveal reveal, String gameKey) {
+        if (!Arrays.equals(deckCommitment, LockstepSession.deckCommitment(reveal.seed, gameKey))) {
+            return false;
+        }
+        // Re-deal exactly as Game does: four cards to each seat in order
+        Deck deck = new Deck(reveal.seed);
+        for (int i = 0; i < seatCommitments.length; i++) {
+            List<Card> dealt = new ArrayList<>();
+            for (int card = 0; card < 4; card++) {
+                dealt.add(deck.draw());
+            }
+            if (!Arrays.equals(seatCommitments[i], LockstepSession.seatCommitment(i, reveal.salts[i], dealt))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public int getSeat() { return seat; }
+    public long getMoveNumber() { return moveNumber; }
+}
@@ -27,10 +27,14 @@ public class Main {
     private static GameClient gameClient;
     private static boolean isMultiplayer = false;
     private static boolean isHost = false;
+    private static int[] networkHandSizes; // Card counts from the last server update (other hands are hidden)
+    private static GameServer.GameStateData lastServerState; // Last authoritative state, the base predictions replay on
+    private static final List<NetworkMessage> pendingMoves = new ArrayList<>(); // Predicted moves the server has not confirmed yet
     
     // Constants for card dimensions and positions
     private static final int CARD_WIDTH = 100;
     private static final int CARD_HEIGHT = 150;
+    private static final int COMPACT_OPPONENT_BACKS = 3; // Card backs shown per opponent at tables of three or more
     private static final int CENTER_X = 450;
     private static final int CENTER_Y = 300;
     private static final Color TABLE_COLOR = new Color(0, 100, 0); // Dark green
@@ -174,12 +178,18 @@ public class Main {
         joinButton.setForeground(Color.WHITE);
         joinButton.setOpaque(false);
         
+        JRadioButton matchButton = new JRadioButton("Quick Match");
+        matchButton.setForeground(Color.WHITE);
+        matchButton.setOpaque(false);
+
         modeGroup.add(aiButton);
         modeGroup.add(hostButton);
         modeGroup.add(joinButton);
+        modeGroup.add(matchButton);
         gameModePanel.add(aiButton);
         gameModePanel.add(hostButton);
         gameModePanel.add(joinButton);
+        gameModePanel.add(matchButton);
         
         mainPanel.add(gameModePanel);
         
@@ -216,10 +226,42 @@ public class Main {
         
         mainPanel.add(gameKeyPanel);
         
+        // Table size panel (for AI games and hosted tables; joiners take the host's size)
+        JPanel seatsPanel = new JPanel();
+        seatsPanel.setOpaque(false);
+        seatsPanel.setAlignmentX(Component.CENTER_ALIGNMENT);
+
+        JLabel seatsLabel = new JLabel("Players: ");
+        seatsLabel.setForeground(Color.WHITE);
+        seatsPanel.add(seatsLabel);
+
+        Integer[] seatChoices = new Integer[TableOptions.MAX_SEATS - TableOptions.MIN_SEATS + 1];
+        for (int i = 0; i < seatChoices.length; i++) {
+            seatChoices[i] = TableOptions.MIN_SEATS + i;
+        }
+        JComboBox<Integer> seatsBox = new JComboBox<>(seatChoices);
+        seatsPanel.add(seatsBox);
+
+        mainPanel.add(seatsPanel);
+
         // Add listeners to enable/disable game key field
-        joinButton.addActionListener(e -> gameKeyField.setEnabled(joinButton.isSelected()));
-        aiButton.addActionListener(e -> gameKeyField.setEnabled(false));
-        hostButton.addActionListener(e -> gameKeyField.setEnabled(false));
+        joinButton.addActionListener(e -> {
+            gameKeyField.setEnabled(joinButton.isSelected());
+            seatsBox.setEnabled(false);
+        });
+        aiButton.addActionListener(e -> {
+            gameKeyField.setEnabled(false);
+            seatsBox.setEnabled(true);
+        });
+        hostButton.addActionListener(e -> {
+            gameKeyField.setEnabled(false);
+            seatsBox.setEnabled(true);
+        });
+        matchButton.addActionListener(e -> {
+            // Matched tables are always two seats
+            gameKeyField.setEnabled(false);
+            seatsBox.setEnabled(false);
+        });
         
         mainPanel.add(Box.createRigidArea(new Dimension(0, 30)));
         
@@ -238,10 +280,14 @@ public class Main {
                 playerName = "Player 1";
             }
             
+            int seats = (Integer) seatsBox.getSelectedItem();
+
             if (aiButton.isSelected()) {
-                // AI game mode
+                // AI game mode: every other seat is an AI
                 playerNames.add(playerName);
-                playerNames.add("AI");
+                for (int i = 1; i < seats; i++) {
+                    playerNames.add("AI");
+                }
                 isMultiplayer = false;
                 isHost = false;
                 
@@ -254,7 +300,7 @@ public class Main {
                 isHost = true;
                 
                 menuFrame.dispose();
-                startHostGame(playerName);
+                startHostGame(playerName, seats);
                 
             } else if (joinButton.isSelected()) {
                 // Join multiplayer game
@@ -272,6 +318,14 @@ public class Main {
                 
                 menuFrame.dispose();
                 joinMultiplayerGame(playerName, gameKey);
+
+            } else if (matchButton.isSelected()) {
+                // Let the server find an opponent
+                isMultiplayer = true;
+                isHost = false;
+
+                menuFrame.dispose();
+                joinMultiplayerGame(playerName, null);
             }
         });
         
@@ -426,12 +480,12 @@ public class Main {
                         gamePane.remove(tempCard);
                         gamePane.repaint();
                         
-                        if (isMultiplayer && !isHost) {
-                            // In multiplayer as client, send draw action to server
+                        if (isMultiplayer) {
+                            // In multiplayer, send draw action to server
                             drawCardMultiplayer();
                             isAnimating = false;
                         } else {
-                            // Single player or host - handle locally
+                            // Single player - handle locally
                             
                             // Store current player index before drawing cards
                             int previousPlayerIndex = game.getCurrentPlayerIndex();
@@ -439,7 +493,7 @@ public class Main {
                             // If there are accumulated cards to draw, use drawCardFromDeck method
                             if (game.mustDrawCards() && game.getAccumulatedDrawCards() > 0) {
                                 game.drawCardFromDeck();
-                                // Note: drawCardFromDeck will now return turn to the previous player
+                                // Note: drawCardFromDeck also passes the turn to the next player
                             } else {
                                 // Regular draw - just one card
                                 current.drawCard(game.getDeck());
@@ -631,7 +685,6 @@ public class Main {
 
     private static void updateUI() {
         playerPanel.removeAll();
-        opponentPanel.removeAll();
         
         Player currentPlayer = game.getCurrentPlayer();
 
@@ -641,11 +694,11 @@ public class Main {
             statusText += " (Must draw " + game.getAccumulatedDrawCards() + " cards or play a 2)";
         }
         
-        // Show who played the last card 2 and keeps the turn
-        if (game.getForcedSuit() == null && game.getTopCard().getValue() == 2) {
+        // Show who played the card 2 the current player must answer
+        if (game.mustDrawCards() && game.getTopCard().getValue() == 2) {
             int previousPlayerIndex = (game.getCurrentPlayerIndex() - 1 + game.getPlayers().size()) % game.getPlayers().size();
             String previousPlayerName = game.getPlayers().get(previousPlayerIndex).getName();
-            statusText += " - " + previousPlayerName + " played a card 2 and keeps turn after drawing";
+            statusText += " - " + previousPlayerName + " played a card 2";
         }
         
         // Show info when a card 1 has been played
@@ -685,7 +738,7 @@ public class Main {
         for (int i = 0; i < game.getPlayers().size(); i++) {
             Player player = game.getPlayers().get(i);
             boolean isCurrentPlayer = (i == game.getCurrentPlayerIndex());
-            boolean isHumanPlayer = !(player instanceof AIPlayer);
+            boolean isHumanPlayer = isLocalPlayer(player);
             
             if (isHumanPlayer) {
                 // Human player's cards at the bottom
@@ -742,12 +795,47 @@ public class Main {
                                         int startX = cardLocation.x - panelLocation.x;
                                         int startY = cardLocation.y - panelLocation.y;
                                         
-                                        if (isMultiplayer && !isHost) {
-                                            // In multiplayer as client, send move to server
+                                        if (isMultiplayer) {
+                                            // A 7 needs a suit: ask now so both moves go out back to back,
+                                            // the suit based on the state the 7 will produce
+                                            Card.Suit chosenSuit = null;
+                                            if (card.getValue() == 7 && game.getCurrentPlayer().getHand().size() > 1) {
+                                                chosenSuit = promptSuitChoice();
+                                            }
+                                            
+                                            // In multiplayer, send the move and show it right away;
+                                            // the server's update confirms or corrects it
                                             playCardMultiplayer(card);
-                                            isAnimating = false;
+                                            if (chosenSuit != null) {
+                                                soundManager.playSound(SoundManager.SOUND_TYPE_CHANGE);
+                                                chooseSuitMultiplayer(chosenSuit);
+                                                game.setForcedSuit(chosenSuit);
+                                            }
+
+                                            playerPanel.remove(cardLabel);
+                                            playerPanel.revalidate();
+                                            playerPanel.repaint();
+
+                                            JLabel tempCard = new JLabel(loadImage(card.getImagePath(), CARD_WIDTH, CARD_HEIGHT));
+                                            tempCard.setSize(CARD_WIDTH, CARD_HEIGHT);
+
+                                            Point targetPosition = getTopCardPosition();
+                                            CardAnimation.animateCard(
+                                                tempCard,
+                                                startX, startY,
+                                                targetPosition.x, targetPosition.y,
+                                                300, // Duration in milliseconds
+                                                gamePane,
+                                                () -> {
+                                                    // The game already holds the predicted (or confirmed) state
+                                                    topCardLabel.setIcon(loadImage(game.getTopCard().getImagePath(), CARD_WIDTH, CARD_HEIGHT));
+                                                    soundManager.playSound(SoundManager.SOUND_PLAY_CARD);
+                                                    updateUI();
+                                                    isAnimating = false;
+                                                }
+                                            );
                                         } else {
-                                            // Single player or host - handle locally
+                                            // Single player - handle locally
                                             
                                             // Remove the card from player's hand immediately
                                             player.playCard(card);
@@ -790,11 +878,6 @@ public class Main {
                                                             String newSuitPath = "Hez/type/" + selectedSuit.name().toLowerCase() + ".png";
                                                             ImageIcon newSuitIcon = loadImage(newSuitPath, 60, 60);
                                                             suitTypeLabel.setIcon(newSuitIcon);
-                                                            
-                                                            // Send suit choice to clients if hosting
-                                                            if (isMultiplayer && isHost) {
-                                                                chooseSuitMultiplayer(selectedSuit);
-                                                            }
                                                         }
                                                     }
                                                     
@@ -825,22 +908,12 @@ public class Main {
                     }
                     playerPanel.add(cardLabel);
                 }
-            } else {
-                // AI player's cards at the top (face down)
-                for (int j = 0; j < player.getHand().size(); j++) {
-                    JLabel cardBackLabel = new JLabel(loadImage("Hez/empty.png", CARD_WIDTH, CARD_HEIGHT));
-                    cardBackLabel.setPreferredSize(new Dimension(CARD_WIDTH, CARD_HEIGHT));
-                    opponentPanel.add(cardBackLabel);
-                }
-                
-                // Add card count label
-                JLabel countLabel = new JLabel(player.getName() + ": " + player.getHand().size() + " cards");
-                countLabel.setForeground(Color.WHITE);
-                countLabel.setFont(new Font("Arial", Font.BOLD, 14));
-                opponentPanel.add(countLabel);
             }
         }
 
+        // AI or remote players' cards at the top (face down)
+        renderOpponents();
+
         // Check if current player must draw cards and has no card 2 to play
         if (!isAnimating && !game.isCurrentPlayerAI() && game.mustDrawCards() && !game.hasCardTwo()) {
             // Show dialog and force drawing cards
@@ -881,14 +954,14 @@ public class Main {
                         
                         // Draw all accumulated cards
                         game.drawCardFromDeck();
-                        // Note: drawCardFromDeck will now return turn to the previous player (AI)
+                        // Note: drawCardFromDeck also passes the turn to the next player
 
                         // Show message to explain the rule if it's the first time
                         if (!hasShownCard2Rule) {
                             hasShownCard2Rule = true;
                             JOptionPane.showMessageDialog(frame, 
                                 "After drawing cards from a card 2, you lose your turn and " +
-                                "the player who played the card 2 gets to play again.",
+                                "play passes to the next player.",
                                 "Card 2 Rule", 
                                 JOptionPane.INFORMATION_MESSAGE);
                         }
@@ -897,7 +970,7 @@ public class Main {
                         checkGameOver();
                         isAnimating = false;
                         
-                        // Since turn returned to previous player (AI), perform its turn
+                        // If the turn passed to an AI, perform its turn
                         if (!game.isGameOver() && game.isCurrentPlayerAI()) {
                             performAITurn();
                         }
@@ -908,6 +981,49 @@ public class Main {
 
         playerPanel.revalidate();
         playerPanel.repaint();
+    }
+
+    /**
+     * Show every other player's hand face down. One opponent gets a full row of
+     * card backs; with several, each gets a short stack of small backs and a label,
+     * so up to five opponents fit in the row at the top.
+     */
+    private static void renderOpponents() {
+        opponentPanel.removeAll();
+        boolean compact = game.getPlayers().size() > 2;
+        int backWidth = compact ? CARD_WIDTH / 2 : CARD_WIDTH;
+        int backHeight = compact ? CARD_HEIGHT / 2 : CARD_HEIGHT;
+
+        for (int i = 0; i < game.getPlayers().size(); i++) {
+            Player player = game.getPlayers().get(i);
+            if (isLocalPlayer(player)) {
+                continue;
+            }
+            int handSize = getHandSize(i, player);
+            int shownBacks = compact ? Math.min(handSize, COMPACT_OPPONENT_BACKS) : handSize;
+
+            JPanel seatPanel = opponentPanel;
+            if (compact) {
+                seatPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 2, 2));
+                seatPanel.setOpaque(false);
+                if (i == game.getCurrentPlayerIndex()) {
+                    seatPanel.setBorder(BorderFactory.createLineBorder(Color.YELLOW, 2));
+                }
+                opponentPanel.add(seatPanel);
+            }
+            for (int j = 0; j < shownBacks; j++) {
+                JLabel cardBackLabel = new JLabel(loadImage("Hez/empty.png", backWidth, backHeight));
+                cardBackLabel.setPreferredSize(new Dimension(backWidth, backHeight));
+                seatPanel.add(cardBackLabel);
+            }
+
+            // Add card count label
+            JLabel countLabel = new JLabel(player.getName() + ": " + handSize + " cards");
+            countLabel.setForeground(Color.WHITE);
+            countLabel.setFont(new Font("Arial", Font.BOLD, 14));
+            seatPanel.add(countLabel);
+        }
+
         opponentPanel.revalidate();
         opponentPanel.repaint();
     }
@@ -973,20 +1089,7 @@ public class Main {
                     ai.playCard(cardToPlay);
                     
                     // Immediately refresh the opponent panel to update card count
-                    opponentPanel.removeAll();
-                    // Re-add the face down cards
-                    for (int j = 0; j < ai.getHand().size(); j++) {
-                        JLabel cardBackLabel = new JLabel(loadImage("Hez/empty.png", CARD_WIDTH, CARD_HEIGHT));
-                        cardBackLabel.setPreferredSize(new Dimension(CARD_WIDTH, CARD_HEIGHT));
-                        opponentPanel.add(cardBackLabel);
-                    }
-                    // Re-add the card count label
-                    JLabel countLabel = new JLabel(ai.getName() + ": " + ai.getHand().size() + " cards");
-                    countLabel.setForeground(Color.WHITE);
-                    countLabel.setFont(new Font("Arial", Font.BOLD, 14));
-                    opponentPanel.add(countLabel);
-                    opponentPanel.revalidate();
-                    opponentPanel.repaint();
+                    renderOpponents();
                     
                     // Create a temporary card for animation
                     JLabel tempCard = new JLabel(loadImage(cardToPlay.getImagePath(), CARD_WIDTH, CARD_HEIGHT));
@@ -1099,12 +1202,6 @@ public class Main {
             
             if (isMultiplayer) {
                 // In multiplayer, the server will handle game over notifications
-                if (isHost) {
-                    // Host broadcasts game over to all clients
-                    if (gameServer != null) {
-                        gameServer.broadcastMessage(new NetworkMessage(NetworkMessage.MessageType.GAME_OVER, winner.getName()));
-                    }
-                }
                 // The game over dialog will be shown when we receive the network message
             } else {
                 // Single player game
@@ -1238,9 +1335,11 @@ public class Main {
     /**
      * Start hosting a multiplayer game
      */
-    private static void startHostGame(String hostPlayerName) {
+    private static void startHostGame(String hostPlayerName, int seats) {
         try {
+            // The host plays through the server like everyone else; the server only hosts tables
             gameServer = new GameServer();
+            gameClient = new GameClient();
             
             // Show waiting dialog with game key
             JDialog waitingDialog = new JDialog();
@@ -1253,17 +1352,21 @@ public class Main {
             JPanel panel = new JPanel(new BorderLayout());
             panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
             
-            JLabel titleLabel = new JLabel("Waiting for player to join...", JLabel.CENTER);
+            JLabel titleLabel = new JLabel(seats > 2 ? "Waiting for " + (seats - 1) + " players to join..."
+                : "Waiting for player to join...", JLabel.CENTER);
             titleLabel.setFont(new Font("Arial", Font.BOLD, 16));
             panel.add(titleLabel, BorderLayout.NORTH);
             
-            JLabel keyLabel = new JLabel("Game Key: " + gameServer.getGameKey(), JLabel.CENTER);
+            JLabel keyLabel = new JLabel("Starting server...", JLabel.CENTER);
             keyLabel.setFont(new Font("Arial", Font.BOLD, 24));
             keyLabel.setForeground(new Color(0, 100, 0));
             panel.add(keyLabel, BorderLayout.CENTER);
             
             JButton cancelButton = new JButton("Cancel");
             cancelButton.addActionListener(e -> {
+                if (gameClient != null) {
+                    gameClient.disconnect();
+                }
                 if (gameServer != null) {
                     gameServer.stop();
                 }
@@ -1275,26 +1378,20 @@ public class Main {
             waitingDialog.add(panel);
             waitingDialog.setVisible(true);
             
-            // Start server in background thread
+            // Start server and open our table in background thread
             new Thread(() -> {
                 try {
-                    gameServer.start(hostPlayerName);
+                    gameServer.start();
                     
-                    // Wait for game to start
-                    while (!gameServer.isGameStarted()) {
-                        Thread.sleep(100);
+                    if (!gameClient.createGame(hostPlayerName, Main::handleNetworkMessage, new TableOptions(seats, false))) {
+                        throw new IllegalStateException("Could not open a table on the server");
                     }
                     
-                    // Game started, close waiting dialog and start game
-                    SwingUtilities.invokeLater(() -> {
-                        waitingDialog.dispose();
-                        playerNames.clear();
-                        playerNames.addAll(gameServer.getPlayerNames());
-                        game = gameServer.getGame();
-                        createAndShowGUI();
-                    });
+                    // GAME_START closes this dialog once the table is full
+                    SwingUtilities.invokeLater(() -> keyLabel.setText("Game Key: " + gameClient.getGameKey()));
                     
                 } catch (Exception e) {
+                    gameServer.stop();
                     SwingUtilities.invokeLater(() -> {
                         waitingDialog.dispose();
                         JOptionPane.showMessageDialog(null, 
@@ -1316,9 +1413,10 @@ public class Main {
     }
     
     /**
-     * Join a multiplayer game
+     * Join a multiplayer game, or queue for a quick match when there is no game key
      */
     private static void joinMultiplayerGame(String playerName, String gameKey) {
+        boolean quickMatch = gameKey == null;
         gameClient = new GameClient();
         
         // Show connecting dialog
@@ -1332,7 +1430,7 @@ public class Main {
         JPanel panel = new JPanel(new BorderLayout());
         panel.setBorder(BorderFactory.createEmptyBorder(20, 20, 20, 20));
         
-        JLabel label = new JLabel("Connecting to game...", JLabel.CENTER);
+        JLabel label = new JLabel(quickMatch ? "Looking for an opponent..." : "Connecting to game...", JLabel.CENTER);
         panel.add(label, BorderLayout.CENTER);
         
         JButton cancelButton = new JButton("Cancel");
@@ -1349,9 +1447,15 @@ public class Main {
         
         // Connect in background thread
         new Thread(() -> {
-            boolean connected = gameClient.connect(gameKey, playerName, Main::handleNetworkMessage);
+            boolean connected = quickMatch
+                ? gameClient.findMatch(playerName, Matchmaker.DEFAULT_RATING, Main::handleNetworkMessage)
+                : gameClient.connect(gameKey, playerName, Main::handleNetworkMessage);
             
             SwingUtilities.invokeLater(() -> {
+                if (!connectingDialog.isDisplayable()) {
+                    // Cancelled; the start menu is already back
+                    return;
+                }
                 connectingDialog.dispose();
                 
                 if (connected) {
@@ -1420,21 +1524,27 @@ public class Main {
                 for (Window window : windows) {
                     if (window instanceof JDialog) {
                         JDialog dialog = (JDialog) window;
-                        if ("Waiting for Game".equals(dialog.getTitle())) {
+                        if ("Waiting for Game".equals(dialog.getTitle()) || "Hosting Game".equals(dialog.getTitle())) {
                             dialog.dispose();
                         }
                     }
                 }
                 
+                lastServerState = null;
+                pendingMoves.clear();
+
                 // Create game and UI
                 game = new Game(playerNames, false); // No AI for multiplayer
                 createAndShowGUI();
                 break;
                 
             case GAME_STATE_UPDATE:
-                // Update game state
+                // Update game state, keeping any of our moves still in flight on top of it
                 GameServer.GameStateData gameState = (GameServer.GameStateData) message.getData();
+                confirmPrediction(message.getTrace());
+                lastServerState = gameState;
                 updateGameFromNetworkState(gameState);
+                replayPendingMoves();
                 updateUI();
                 break;
                 
@@ -1443,6 +1553,21 @@ public class Main {
                 showGameOverDialog(winner);
                 break;
                 
+            case PLAYER_RECONNECTING:
+                // Their seat is held while they reconnect; the game carries on afterwards
+                String awayPlayer = (String) message.getData();
+                if (statusLabel != null) {
+                    statusLabel.setText(awayPlayer + " lost connection, waiting for them to reconnect...");
+                }
+                break;
+                
+            case BOT_TOOK_SEAT:
+                String replacedPlayer = (String) message.getData();
+                if (statusLabel != null) {
+                    statusLabel.setText(replacedPlayer + " left; a bot is playing their seat");
+                }
+                break;
+            
             case PLAYER_DISCONNECTED:
                 String disconnectedPlayer = (String) message.getData();
                 JOptionPane.showMessageDialog(frame, 
@@ -1458,6 +1583,10 @@ public class Main {
                 break;
                 
             case INVALID_MOVE:
+                // Undo what we predicted for the rejected move and anything built on it
+                if (rejectPrediction(message.getTrace())) {
+                    updateUI();
+                }
                 String error = (String) message.getData();
                 soundManager.playSound(SoundManager.SOUND_ERROR);
                 JOptionPane.showMessageDialog(frame, 
@@ -1486,7 +1615,7 @@ public class Main {
         game.setTopCard(gameState.topCard);
         game.setForcedSuit(gameState.forcedSuit);
         
-        // Update players' hands
+        // Update players' hands; the server only sends our own, the rest are counts
         for (int i = 0; i < gameState.players.size() && i < game.getPlayers().size(); i++) {
             Player networkPlayer = gameState.players.get(i);
             Player localPlayer = game.getPlayers().get(i);
@@ -1495,6 +1624,7 @@ public class Main {
             localPlayer.getHand().clear();
             localPlayer.getHand().addAll(networkPlayer.getHand());
         }
+        networkHandSizes = gameState.handSizes;
         
         // Set current player
         game.setCurrentPlayerIndex(gameState.currentPlayerIndex);
@@ -1506,11 +1636,115 @@ public class Main {
     }
     
     /**
-     * Handle multiplayer card play
+     * Whether a player's hand is shown face up on this screen
+     */
+    private static boolean isLocalPlayer(Player player) {
+        if (!isMultiplayer) {
+            return !(player instanceof AIPlayer);
+        }
+        return gameClient != null && player.getName().equals(gameClient.getPlayerName());
+    }
+    
+    /**
+     * Number of cards a player holds, using server counts for hidden hands
+     */
+    private static int getHandSize(int playerIndex, Player player) {
+        if (isMultiplayer && networkHandSizes != null && playerIndex < networkHandSizes.length) {
+            return networkHandSizes[playerIndex];
+        }
+        return player.getHand().size();
+    }
+    
+    /**
+     * Handle multiplayer card play: send it and predict its effect on the local game
      */
     private static void playCardMultiplayer(Card card) {
-        if (gameClient != null && gameClient.isConnected()) {
-            gameClient.playCard(card);
+        if (gameClient == null || !gameClient.isConnected()) {
+            return;
+        }
+        NetworkMessage move = gameClient.playCard(card);
+        if (move != null && isPredictable(move)) {
+            pendingMoves.add(move);
+            predictPlayCard(card);
+        }
+    }
+
+    /**
+     * Only traced card plays are predicted. A lockstep table applies moves itself, and
+     * whether a 1 skips depends on the next player's hand, which only the server sees.
+     */
+    private static boolean isPredictable(NetworkMessage move) {
+        return move.getType() == NetworkMessage.MessageType.PLAY_CARD && move.getTrace() != null
+            && ((Card) move.getData()).getValue() != 1;
+    }
+
+    /**
+     * Apply a card play to the local game with the shared rules, as the server will
+     */
+    private static void predictPlayCard(Card card) {
+        int playerIndex = game.getCurrentPlayerIndex();
+        game.getCurrentPlayer().playCard(card);
+        game.setTopCard(card);
+        game.handleSpecialCardEffects(card);
+        if (networkHandSizes != null && playerIndex < networkHandSizes.length) {
+            networkHandSizes[playerIndex]--;
+        }
+    }
+
+    /**
+     * The server applied our oldest pending move; it no longer needs replaying
+     */
+    private static void confirmPrediction(MoveTrace trace) {
+        if (trace != null && !pendingMoves.isEmpty()
+                && pendingMoves.get(0).getTrace().getTraceId() == trace.getTraceId()) {
+            pendingMoves.remove(0);
+        }
+    }
+
+    /**
+     * Drop a rejected move and every move predicted after it, and go back to the server's state
+     * @return true if the rejected move was one we had predicted
+     */
+    private static boolean rejectPrediction(MoveTrace trace) {
+        if (trace == null) {
+            return false;
+        }
+        for (int i = 0; i < pendingMoves.size(); i++) {
+            if (pendingMoves.get(i).getTrace().getTraceId() == trace.getTraceId()) {
+                pendingMoves.subList(i, pendingMoves.size()).clear();
+                if (lastServerState != null) {
+                    updateGameFromNetworkState(lastServerState);
+                    replayPendingMoves();
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Re-apply moves still in flight on top of the state the server last sent.
+     * A move that no longer fits (card gone, not our turn, not legal) was overtaken
+     * by the server; it and everything after it are dropped.
+     */
+    private static void replayPendingMoves() {
+        for (int i = 0; i < pendingMoves.size(); i++) {
+            Card card = (Card) pendingMoves.get(i).getData();
+            Player player = game.getCurrentPlayer();
+            Card held = null;
+            if (isLocalPlayer(player)) {
+                for (Card candidate : player.getHand()) {
+                    if (candidate.getSuit() == card.getSuit() && candidate.getValue() == card.getValue()) {
+                        held = candidate;
+                        break;
+                    }
+                }
+            }
+            if (held == null || !held.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+                pendingMoves.subList(i, pendingMoves.size()).clear();
+                return;
+            }
+            predictPlayCard(held);
         }
     }
     
@@ -1539,15 +1773,15 @@ public class Main {
         String message = winner + " wins the game!";
         
         // Play appropriate sound
-        if (isMultiplayer && !isHost) {
-            // For clients, check if they won
+        if (isMultiplayer) {
+            // Check if they won
             if (winner.equals(gameClient.getPlayerName())) {
                 soundManager.playSound(SoundManager.SOUND_WIN);
             } else {
                 soundManager.playSound(SoundManager.SOUND_LOSE);
             }
         } else {
-            // For host or single player
+            // For single player
             soundManager.playSound(SoundManager.SOUND_WIN);
         }
         
@@ -0,0 +1,286 @@
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+/**
+ * Pairs players who asked for a game (FIND_MATCH) with an opponent of similar
+ * rating, so nobody has to pass a game key around.
+ *
+ * Waiting players sit in rating buckets one base gap wide, oldest first. A
+ * matching pass walks the buckets in rating order: players sharing a bucket are
+ * always close enough to pair, and after that each bucket has at most one player
+ * left, who may pair with the leftover of a lower bucket once both have waited
+ * long enough for their allowed gaps to cover the difference. The allowed gap
+ * starts at the base gap and widens with waiting time up to a maximum.
+ *
+ * A pass touches each bucket once and stops after a fixed number of matches, so
+ * its cost depends on the rating range and the matches made, not on how many
+ * players are waiting. Arrivals are queued lock-free and moved into the buckets
+ * by the pass; only the matcher thread touches the buckets. Everything runs
+ * without a server: give it a clock and call runPass().
+ */
+public class Matchmaker {
+    public static final int MIN_RATING = 0;
+    public static final int MAX_RATING = 4000;
+    public static final int DEFAULT_RATING = 1500;
+
+    private static final int MAX_ARRIVALS_PER_PASS = 8192; // Caps the work per pass when a crowd arrives at once
+    private static final int MAX_MATCHES_PER_PASS = 4096; // The rest wait for the next pass, which starts where this one stopped
+
+    /**
+     * Told about each pair on the matcher thread, after the pass has released its lock
+     */
+    public interface Listener {
+        void matched(Ticket first, Ticket second);
+    }
+
+    /**
+     * One player's place in the queue
+     */
+    public static class Ticket {
+        private static final int WAITING = 0;
+        private static final int MATCHED = 1;
+        private static final int CANCELLED = 2;
+
+        private final String playerName;
+        private final int rating;
+        private final long enqueuedAt;
+        private final Object owner;
+        private int state = WAITING; // Guarded by the matchmaker
+
+        Ticket(String playerName, int rating, long enqueuedAt, Object owner) {
+            this.playerName = playerName;
+            this.rating = rating;
+            this.enqueuedAt = enqueuedAt;
+            this.owner = owner;
+        }
+
+        public String getPlayerName() { return playerName; }
+        public int getRating() { return rating; }
+        public long getEnqueuedAt() { return enqueuedAt; }
+        public Object getOwner() { return owner; }
+    }
+
+    private final int baseGap;
+    private final double gapWidenPerNano;
+    private final int maxGap;
+    private final LongSupplier clock;
+    private final Listener listener;
+
+    private final List<ArrayDeque<Ticket>> buckets;
+    private final ConcurrentLinkedQueue<Ticket> arrivals = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger waiting = new AtomicInteger();
+    private final List<Ticket> matches = new ArrayList<>(); // Pairs found by the current pass, flattened
+    private int nextBucket = 0; // Where the next pass starts
+
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final LatencyHistogram passTime = new LatencyHistogram();
+
+    private Thread thread;
+    private volatile boolean running = false;
+
+    public Matchmaker(int baseGap, double gapWidenPerSecond, int maxGap, Listener listener) {
+        this(baseGap, gapWidenPerSecond, maxGap, System::nanoTime, listener);
+    }
+
+    /**
+     * @param clock nanosecond clock; tests pass their own to age tickets without waiting
+     */
+    public Matchmaker(int baseGap, double gapWidenPerSecond, int maxGap, LongSupplier clock, Listener listener) {
+        this.baseGap = Math.max(1, baseGap);
+        this.gapWidenPerNano = gapWidenPerSecond / 1e9;
+        this.maxGap = Math.max(this.baseGap, maxGap);
+        this.clock = clock;
+        this.listener = listener;
+        int bucketCount = (MAX_RATING - MIN_RATING) / this.baseGap + 1;
+        this.buckets = new ArrayList<>(bucketCount);
+        for (int i = 0; i < bucketCount; i++) {
+            buckets.add(new ArrayDeque<>());
+        }
+    }
+
+    /**
+     * Queue a player; safe from any thread
+     * @param owner whatever the listener needs to seat the player, e.g. its connection
+     */
+    public Ticket enqueue(String playerName, int rating, Object owner) {
+        int clamped = Math.max(MIN_RATING, Math.min(MAX_RATING, rating));
+        Ticket ticket = new Ticket(playerName, clamped, clock.getAsLong(), owner);
+        waiting.incrementAndGet();
+        arrivals.add(ticket);
+        return ticket;
+    }
+
+    /**
+     * Take a player out of the queue
+     * @return false if the ticket was already matched (or cancelled)
+     */
+    public synchronized boolean cancel(Ticket ticket) {
+        if (ticket.state != Ticket.WAITING) {
+            return false;
+        }
+        ticket.state = Ticket.CANCELLED;
+        waiting.decrementAndGet();
+        return true;
+    }
+
+    /**
+     * Run passes every intervalMillis on a thread of its own
+     */
+    public void start(long intervalMillis) {
+        running = true;
+        thread = new Thread(() -> {
+            while (running) {
+                try {
+                    Thread.sleep(intervalMillis);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    runPass();
+                } catch (Exception e) {
+                    System.err.println("Matchmaking pass failed: " + e.getMessage());
+                }
+            }
+        }, "matchmaker");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public void stop() {
+        running = false;
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Pair whoever can be paired now, then tell the listener
+     * @return the number of pairs made
+     */
+    public int runPass() {
+        int pairs;
+        synchronized (this) {
+            long start = System.nanoTime();
+            long now = clock.getAsLong();
+            admitArrivals();
+            pairs = matchBuckets(now);
+            passTime.record(System.nanoTime() - start);
+        }
+
+        for (int i = 0; i < matches.size(); i += 2) {
+            listener.matched(matches.get(i), matches.get(i + 1));
+        }
+        matches.clear();
+        return pairs;
+    }
+
+    private void admitArrivals() {
+        for (int i = 0; i < MAX_ARRIVALS_PER_PASS; i++) {
+            Ticket ticket = arrivals.poll();
+            if (ticket == null) {
+                return;
+            }
+            if (ticket.state == Ticket.WAITING) {
+                buckets.get((ticket.rating - MIN_RATING) / baseGap).addLast(ticket);
+            }
+        }
+    }
+
+    private int matchBuckets(long now) {
+        int pairs = 0;
+        Ticket carry = null; // The unpaired leftover of a lower bucket, still at the head of its deque
+        ArrayDeque<Ticket> carryBucket = null;
+
+        for (int step = 0; step < buckets.size(); step++) {
+            int index = (nextBucket + step) % buckets.size();
+            if (index == 0) {
+                // Wrapped around to the bottom: the carry is no longer below us
+                carry = null;
+            }
+            if (pairs >= MAX_MATCHES_PER_PASS) {
+                nextBucket = index;
+                return pairs;
+            }
+            ArrayDeque<Ticket> bucket = buckets.get(index);
+            Ticket head = firstWaiting(bucket);
+            if (head == null) {
+                continue;
+            }
+
+            if (carry != null && fits(carry, head, now)) {
+                carryBucket.pollFirst();
+                bucket.pollFirst();
+                pair(carry, head, now);
+                pairs++;
+                carry = null;
+            }
+
+            // Everyone in one bucket is within the base gap of each other
+            while (pairs < MAX_MATCHES_PER_PASS) {
+                Ticket first = firstWaiting(bucket);
+                if (first == null) {
+                    break;
+                }
+                bucket.pollFirst();
+                Ticket second = firstWaiting(bucket);
+                if (second == null) {
+                    bucket.addFirst(first);
+                    break;
+                }
+                bucket.pollFirst();
+                pair(first, second, now);
+                pairs++;
+            }
+
+            Ticket leftover = firstWaiting(bucket);
+            if (leftover != null) {
+                carry = leftover;
+                carryBucket = bucket;
+            }
+        }
+        nextBucket = 0;
+        return pairs;
+    }
+
+    /**
+     * The oldest live ticket in a bucket, dropping cancelled ones in front of it
+     */
+    private static Ticket firstWaiting(ArrayDeque<Ticket> bucket) {
+        Ticket ticket;
+        while ((ticket = bucket.peekFirst()) != null && ticket.state != Ticket.WAITING) {
+            bucket.pollFirst();
+        }
+        return ticket;
+    }
+
+    /**
+     * Both players must have waited long enough to accept the rating difference
+     */
+    private boolean fits(Ticket a, Ticket b, long now) {
+        int gap = Math.abs(a.rating - b.rating);
+        return gap <= allowedGap(a, now) && gap <= allowedGap(b, now);
+    }
+
+    private int allowedGap(Ticket ticket, long now) {
+        return (int) Math.min(maxGap, baseGap + (now - ticket.enqueuedAt) * gapWidenPerNano);
+    }
+
+    private void pair(Ticket first, Ticket second, long now) {
+        first.state = Ticket.MATCHED;
+        second.state = Ticket.MATCHED;
+        waiting.addAndGet(-2);
+        waitTime.record(now - first.enqueuedAt);
+        waitTime.record(now - second.enqueuedAt);
+        matches.add(first);
+        matches.add(second);
+    }
+
+    /**
+     * Players queued and not yet matched or cancelled
+     */
+    public int getWaitingCount() { return waiting.get(); }
+    public LatencyHistogram getWaitTime() { return waitTime; }
+    public LatencyHistogram getPassTime() { return passTime; }
+}
@@ -0,0 +1,90 @@
+import java.util.*;
+
+/**
+ * Drives a Matchmaker in-process on a simulated clock, so waits of minutes take
+ * no time to run. Ratings are normally distributed around 1500.
+ *
+ * First a burst: the queue is filled at once and passes run every interval
+ * until it drains. Then a steady stream arrives at the given rate for a
+ * simulated minute. Pass times are real; queue times are simulated.
+ *
+ * Usage: java MatchmakerBenchmark [burstPlayers] [arrivalsPerSecond] [intervalMillis]
+ */
+public class MatchmakerBenchmark {
+    private static long now = 0; // Simulated nanoseconds
+    private static long widest = 0;
+    private static long matched = 0;
+
+    public static void main(String[] args) {
+        int burst = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int arrivalsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+        long interval = (args.length > 2 ? Long.parseLong(args[2]) : 100) * 1000000L;
+
+        ServerConfig config = new ServerConfig();
+        Random random = new Random(42);
+
+        // Warm up the pass on a throwaway queue
+        Matchmaker warmup = newMatchmaker(config);
+        for (int i = 0; i < 2000000; i++) {
+            warmup.enqueue("W", rating(random), null);
+            if (i % 2000 == 0) {
+                now += interval;
+                warmup.runPass();
+            }
+        }
+        matched = 0;
+        widest = 0;
+
+        Matchmaker matchmaker = newMatchmaker(config);
+        for (int i = 0; i < burst; i++) {
+            matchmaker.enqueue("B" + i, rating(random), null);
+        }
+        int passes = 0;
+        while (matchmaker.getWaitingCount() > 1 && passes < 600) {
+            now += interval;
+            matchmaker.runPass();
+            passes++;
+        }
+        report("Burst of " + burst + ", " + passes + " passes", matchmaker);
+
+        matchmaker = newMatchmaker(config);
+        widest = 0;
+        matched = 0;
+        long perPass = arrivalsPerSecond * interval / 1000000000L;
+        int queuedPeak = 0;
+        for (long elapsed = 0; elapsed < 60000000000L; elapsed += interval) {
+            for (int i = 0; i < perPass; i++) {
+                matchmaker.enqueue("S" + i, rating(random), null);
+            }
+            now += interval;
+            matchmaker.runPass();
+            queuedPeak = Math.max(queuedPeak, matchmaker.getWaitingCount());
+        }
+        report("Steady " + arrivalsPerSecond + "/s for 60s, peak queue " + queuedPeak, matchmaker);
+    }
+
+    private static Matchmaker newMatchmaker(ServerConfig config) {
+        return new Matchmaker(config.getMatchGap(), config.getMatchGapWidenPerSecond(), config.getMatchMaxGap(),
+            () -> now, (first, second) -> {
+                widest = Math.max(widest, Math.abs(first.getRating() - second.getRating()));
+                matched += 2;
+            });
+    }
+
+    private static int rating(Random random) {
+        return (int) (Matchmaker.DEFAULT_RATING + random.nextGaussian() * 300);
+    }
+
+    private static void report(String label, Matchmaker matchmaker) {
+        LatencyHistogram pass = matchmaker.getPassTime();
+        LatencyHistogram wait = matchmaker.getWaitTime();
+        System.out.println(label + ": matched " + matched + ", widest gap " + widest
+            + ", still waiting " + matchmaker.getWaitingCount());
+        System.out.printf("  pass    p50=%.1fus p99=%.1fus p99.9=%.1fus%n",
+            pass.getValueAtPercentile(0.5) / 1e3, pass.getValueAtPercentile(0.99) / 1e3,
+            pass.getValueAtPercentile(0.999) / 1e3);
+        System.out.printf("  waited  p50=%.2fs p90=%.2fs p99=%.2fs%n",
+            wait.getValueAtPercentile(0.5) / 1e9, wait.getValueAtPercentile(0.9) / 1e9,
+            wait.getValueAtPercentile(0.99) / 1e9);
+    }
+}
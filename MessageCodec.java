@@ -0,0 +1,85 @@
+import java.io.*;
+
+/**
+ * Wire format shared by the server and GameClient.
+ *
+ * Every message travels as one frame: a 4-byte length followed by a standalone
+ * Java serialization of the NetworkMessage, or for lockstep moves a few bytes
+ * packed by MoveCodec. Because each frame is self-contained, a broadcast can be
+ * serialized once and the same bytes written to every recipient.
+ *
+ * Self-contained frames are also the connection's reset policy: no object stream
+ * outlives one message, so there is no handle table to grow for the life of a
+ * connection, and an object sent again after it changed always arrives as its
+ * new state rather than a back-reference to the old one. Keep it that way when
+ * touching the codec; SoakBenchmark catches memory that grows with a
+ * connection's age.
+ */
+public class MessageCodec {
+    public static final int MAX_FRAME_BYTES = 1024 * 1024;
+
+    private MessageCodec() {
+    }
+
+    /**
+     * Serialize a message into a shareable buffer
+     */
+    public static EncodedMessage encode(NetworkMessage message) {
+        if (MoveCodec.isBinary(message.getType())) {
+            return new EncodedMessage(message.getType(), MoveCodec.encode(message));
+        }
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(256);
+            try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+                out.writeObject(message);
+            }
+            return new EncodedMessage(message.getType(), buffer.toByteArray());
+        } catch (IOException e) {
+            // Only reachable if something in the message is not serializable
+            throw new IllegalArgumentException("Cannot encode " + message.getType() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Deserialize one frame payload
+     */
+    public static NetworkMessage decode(byte[] frame) throws IOException {
+        if (frame.length > 0 && frame[0] == MoveCodec.MAGIC) {
+            return MoveCodec.decode(frame);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(frame))) {
+            return (NetworkMessage) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new IOException("Malformed frame: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Write an encoded message as one frame (the caller flushes)
+     */
+    public static void writeFrame(DataOutputStream out, EncodedMessage message) throws IOException {
+        byte[] bytes = message.bytes();
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read the next frame payload, blocking until it has fully arrived
+     */
+    public static byte[] readFrame(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_FRAME_BYTES) {
+            throw new IOException("Invalid frame length: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+
+    /**
+     * Read and decode the next message
+     */
+    public static NetworkMessage readMessage(DataInputStream in) throws IOException {
+        return decode(readFrame(in));
+    }
+}
@@ -0,0 +1,43 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Serves a GameServer's metrics at http://127.0.0.1:port/metrics in the
+ * Prometheus text format. Listens on loopback only; put a scraper or proxy
+ * on the same host to reach it.
+ */
+public class MetricsEndpoint {
+    private final GameServer gameServer;
+    private final HttpServer httpServer;
+
+    public MetricsEndpoint(GameServer gameServer, int port) throws IOException {
+        this.gameServer = gameServer;
+        this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        httpServer.createContext("/metrics", this::handle);
+    }
+
+    /**
+     * Start answering scrapes on the HTTP server's own dispatcher thread
+     */
+    public void start() {
+        httpServer.start();
+        System.out.println("Metrics available at http://127.0.0.1:" + httpServer.getAddress().getPort() + "/metrics");
+    }
+
+    public void stop() {
+        httpServer.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body = gameServer.getMetrics().toPrometheus(gameServer).getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(200, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+}
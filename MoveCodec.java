@@ -0,0 +1,183 @@
+import java.io.*;
+
+/**
+ * Compact binary encoding for lockstep tables.
+ *
+ * A card is one byte (suit in the high nibble, value in the low one), a draw and a
+ * suit choice are one byte each, and the lockstep messages are hand-packed frames
+ * of a few bytes instead of Java serialization. MessageCodec tells the two
+ * formats apart by the first byte: a serialization stream always starts with
+ * 0xAC, a binary frame with MAGIC.
+ */
+public class MoveCodec {
+    public static final byte MAGIC = 0x4C;
+
+    public static final byte DRAW = 0x40;
+    private static final int CHOOSE_SUIT = 0x80;
+
+    private static final byte KIND_REQUEST = 1;
+    private static final byte KIND_MOVE = 2;
+    private static final byte KIND_HASH = 3;
+
+    private MoveCodec() {
+    }
+
+    public static byte cardCode(Card card) {
+        return (byte) ((card.getSuit().ordinal() << 4) | card.getValue());
+    }
+
+    public static Card decodeCard(byte code) {
+        return new Card(Card.Suit.values()[(code >> 4) & 0x3], code & 0xF);
+    }
+
+    public static byte suitCode(Card.Suit suit) {
+        return (byte) (CHOOSE_SUIT | suit.ordinal());
+    }
+
+    public static boolean isDraw(byte code) {
+        return code == DRAW;
+    }
+
+    public static boolean isSuitChoice(byte code) {
+        return (code & CHOOSE_SUIT) != 0;
+    }
+
+    public static Card.Suit decodeSuit(byte code) {
+        return Card.Suit.values()[code & 0x3];
+    }
+
+    /**
+     * The ordinary action message a move code stands for
+     */
+    public static NetworkMessage toAction(byte code) {
+        if (isDraw(code)) {
+            return new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+        }
+        if (isSuitChoice(code)) {
+            return new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, decodeSuit(code));
+        }
+        return new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, decodeCard(code));
+    }
+
+    public static String describe(byte code) {
+        if (isDraw(code)) {
+            return "draw";
+        }
+        if (isSuitChoice(code)) {
+            return "suit " + decodeSuit(code);
+        }
+        return "play " + decodeCard(code);
+    }
+
+    /**
+     * Whether messages of this type travel as binary frames
+     */
+    public static boolean isBinary(NetworkMessage.MessageType type) {
+        return type == NetworkMessage.MessageType.LOCKSTEP_MOVE || type == NetworkMessage.MessageType.LOCKSTEP_HASH;
+    }
+
+    /**
+     * Pack a LOCKSTEP_MOVE (data: LockstepMove) or LOCKSTEP_HASH (data: long[] {moveNumber, hash})
+     */
+    public static byte[] encode(NetworkMessage message) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(16);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(MAGIC);
+
+            if (message.getType() == NetworkMessage.MessageType.LOCKSTEP_HASH) {
+                long[] hash = (long[]) message.getData();
+                out.writeByte(KIND_HASH);
+                writeVarLong(out, hash[0]);
+                out.writeLong(hash[1]);
+            } else {
+                LockstepMove move = (LockstepMove) message.getData();
+                if (move.getSeat() < 0) {
+                    out.writeByte(KIND_REQUEST);
+                    out.writeByte(move.getCode());
+                    writeVarLong(out, message.getActionSequence());
+                    writeVarLong(out, message.getStateVersion() + 1); // Unset (-1) packs as 0
+                } else {
+                    out.writeByte(KIND_MOVE);
+                    writeVarLong(out, message.getSequence());
+                    writeVarLong(out, move.getMoveNumber());
+                    out.writeByte(move.getSeat());
+                    out.writeByte(move.getCode());
+                    out.writeByte(move.getNextSeat());
+                    byte[] drawn = move.getDrawnCards();
+                    out.writeByte(drawn == null ? 0 : drawn.length);
+                    if (drawn != null) {
+                        out.write(drawn);
+                    }
+                }
+            }
+            return buffer.toByteArray();
+        } catch (IOException | ClassCastException e) {
+            throw new IllegalArgumentException("Cannot encode " + message.getType() + ": " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Unpack a binary frame into the message it stands for
+     */
+    public static NetworkMessage decode(byte[] frame) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(frame));
+        if (in.readByte() != MAGIC) {
+            throw new IOException("Not a binary frame");
+        }
+        byte kind = in.readByte();
+        switch (kind) {
+            case KIND_REQUEST: {
+                NetworkMessage request = new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE,
+                    LockstepMove.request(in.readByte()));
+                request.setActionSequence(readVarLong(in));
+                request.setStateVersion(readVarLong(in) - 1);
+                return request;
+            }
+            case KIND_MOVE: {
+                long sequence = readVarLong(in);
+                long moveNumber = readVarLong(in);
+                int seat = in.readUnsignedByte();
+                byte code = in.readByte();
+                int nextSeat = in.readUnsignedByte();
+                int drawnCount = in.readUnsignedByte();
+                byte[] drawn = null;
+                if (drawnCount > 0) {
+                    drawn = new byte[drawnCount];
+                    in.readFully(drawn);
+                }
+                NetworkMessage message = new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE,
+                    new LockstepMove(moveNumber, seat, code, nextSeat, drawn));
+                message.setSequence(sequence);
+                return message;
+            }
+            case KIND_HASH: {
+                long moveNumber = readVarLong(in);
+                long hash = in.readLong();
+                return new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_HASH, new long[] {moveNumber, hash});
+            }
+            default:
+                throw new IOException("Unknown binary frame kind: " + kind);
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
@@ -0,0 +1,316 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.function.IntConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Write-ahead log of table moves, shared by every table on a GameServer.
+ *
+ * Tables append records from their own threads; the records only land in a
+ * memory buffer. One sync thread writes whatever has gathered to the current
+ * segment and forces it to disk in a single call, then tells each record's
+ * table that it is durable. While one force is in progress the next batch
+ * gathers, so under load a single fsync covers the moves of many tables.
+ *
+ * The log is a series of segment files (wal-00000001.log, ...). When a segment
+ * grows past its size limit the log moves on to a new one and asks the server
+ * for a checkpoint: every live table writes a fresh snapshot, and once those are
+ * durable the older segments are deleted.
+ *
+ * Record layout: [int bodyLength][int crc32 of body][body], where the body is
+ * [byte type][byte keyLength][key][payload]. A torn or corrupt record ends the
+ * segment it is in; nothing after it was acknowledged.
+ */
+public class MoveLog {
+    public static final byte SNAPSHOT = 1; // Payload: TableSnapshot
+    public static final byte MOVE = 2; // Payload: [move code][long sequence of the event it published][long action number]
+    public static final byte END = 3; // The table finished; nothing to recover
+
+    private static final String SEGMENT_PREFIX = "wal-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_BYTES = 1 << 20;
+
+    /**
+     * What recovery found for one table: its newest snapshot and the moves after it
+     */
+    public static class TableHistory {
+        private byte[] snapshot;
+        private final List<byte[]> moves = new ArrayList<>();
+
+        public byte[] getSnapshot() { return snapshot; }
+        public List<byte[]> getMoves() { return moves; }
+    }
+
+    private final Path directory;
+    private final long segmentBytes;
+    private final LatencyHistogram syncTime;
+    private final IntConsumer rotationListener;
+    private final Thread syncThread;
+
+    // Guarded by lock
+    private final Object lock = new Object();
+    private ByteArrayOutputStream pending = new ByteArrayOutputStream(64 * 1024);
+    private List<Runnable> pendingCallbacks = new ArrayList<>();
+    private int pendingRecords = 0;
+    private boolean running = true;
+
+    // Owned by the sync thread
+    private FileChannel channel;
+    private long segmentSize;
+
+    private volatile int segment;
+    private volatile boolean failed = false;
+    private volatile long recordCount = 0;
+    private volatile long syncCount = 0;
+    private volatile long bytesWritten = 0;
+
+    /**
+     * Open a new segment after any existing ones and start the sync thread
+     * @param rotationListener told the number of each new segment, on the sync thread
+     */
+    public MoveLog(Path directory, long segmentBytes, LatencyHistogram syncTime, IntConsumer rotationListener)
+            throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        this.syncTime = syncTime;
+        this.rotationListener = rotationListener;
+        Files.createDirectories(directory);
+
+        List<Integer> existing = listSegments(directory);
+        segment = existing.isEmpty() ? 1 : existing.get(existing.size() - 1) + 1;
+        channel = openSegment(segment);
+
+        syncThread = new Thread(this::syncLoop, "move-log-sync");
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Queue a record for the next group commit
+     * @param onDurable run on the sync thread once the record is on disk; must only hand work off
+     */
+    public void append(byte type, String gameKey, byte[] payload, Runnable onDurable) {
+        byte[] key = gameKey.getBytes(StandardCharsets.UTF_8);
+        CRC32 crc = new CRC32();
+        crc.update(type);
+        crc.update(key.length);
+        crc.update(key);
+        crc.update(payload);
+        int bodyLength = 2 + key.length + payload.length;
+
+        synchronized (lock) {
+            if (!running) {
+                // Shutting down: the record is lost, and saying otherwise could let a checkpoint delete segments
+                return;
+            }
+            if (!failed) {
+                writeInt(pending, bodyLength);
+                writeInt(pending, (int) crc.getValue());
+                pending.write(type);
+                pending.write(key.length);
+                pending.write(key, 0, key.length);
+                pending.write(payload, 0, payload.length);
+                if (onDurable != null) {
+                    pendingCallbacks.add(onDurable);
+                }
+                pendingRecords++;
+                lock.notify();
+                return;
+            }
+        }
+        // The log failed earlier; don't hold the table up
+        if (onDurable != null) {
+            onDurable.run();
+        }
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    private void syncLoop() {
+        while (true) {
+            byte[] batch;
+            List<Runnable> callbacks;
+            int records;
+            synchronized (lock) {
+                while (running && pending.size() == 0) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        running = false;
+                    }
+                }
+                if (pending.size() == 0) {
+                    return;
+                }
+                batch = pending.toByteArray();
+                pending.reset();
+                callbacks = pendingCallbacks;
+                pendingCallbacks = new ArrayList<>();
+                records = pendingRecords;
+                pendingRecords = 0;
+            }
+
+            if (!failed) {
+                long start = System.nanoTime();
+                try {
+                    ByteBuffer buffer = ByteBuffer.wrap(batch);
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(false);
+                    syncTime.record(System.nanoTime() - start);
+                    syncCount++;
+                    recordCount += records;
+                    bytesWritten += batch.length;
+                    segmentSize += batch.length;
+                    if (segmentSize >= segmentBytes) {
+                        rotate();
+                    }
+                } catch (IOException e) {
+                    // Keep the tables playing; they are simply no longer crash-safe
+                    System.err.println("Move log write failed, continuing without it: " + e.getMessage());
+                    failed = true;
+                }
+            }
+            for (Runnable callback : callbacks) {
+                callback.run();
+            }
+        }
+    }
+
+    private void rotate() throws IOException {
+        channel.close();
+        channel = openSegment(segment + 1);
+        segment++;
+        segmentSize = 0;
+        rotationListener.accept(segment);
+    }
+
+    private FileChannel openSegment(int number) throws IOException {
+        return FileChannel.open(segmentPath(directory, number), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Delete the segments a checkpoint has made redundant
+     */
+    public void deleteSegmentsBefore(int firstKept) {
+        try {
+            for (int number : listSegments(directory)) {
+                if (number < firstKept) {
+                    Files.deleteIfExists(segmentPath(directory, number));
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not delete old move log segments: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Write out what is queued, then stop the sync thread and close the segment
+     */
+    public void close() {
+        synchronized (lock) {
+            running = false;
+            lock.notify();
+        }
+        try {
+            syncThread.join();
+            channel.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error closing move log: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Read every segment in order and collect, for each table that has not ended,
+     * its newest snapshot and the moves logged after it
+     */
+    public static Map<String, TableHistory> recover(Path directory) throws IOException {
+        Map<String, TableHistory> tables = new HashMap<>();
+        if (!Files.isDirectory(directory)) {
+            return tables;
+        }
+        for (int number : listSegments(directory)) {
+            ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(segmentPath(directory, number)));
+            while (buffer.remaining() >= 8) {
+                int bodyLength = buffer.getInt();
+                int checksum = buffer.getInt();
+                if (bodyLength < 2 || bodyLength > MAX_RECORD_BYTES || bodyLength > buffer.remaining()) {
+                    System.err.println("Move log segment " + number + " ends in a torn record");
+                    break;
+                }
+                byte[] body = new byte[bodyLength];
+                buffer.get(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    System.err.println("Move log segment " + number + " has a corrupt record; skipping the rest");
+                    break;
+                }
+
+                byte type = body[0];
+                int keyLength = body[1] & 0xFF;
+                String key = new String(body, 2, keyLength, StandardCharsets.UTF_8);
+                byte[] payload = Arrays.copyOfRange(body, 2 + keyLength, bodyLength);
+                switch (type) {
+                    case SNAPSHOT: {
+                        TableHistory history = new TableHistory();
+                        history.snapshot = payload;
+                        tables.put(key, history);
+                        break;
+                    }
+                    case MOVE: {
+                        TableHistory history = tables.get(key);
+                        if (history != null) {
+                            history.moves.add(payload);
+                        }
+                        break;
+                    }
+                    case END:
+                        tables.remove(key);
+                        break;
+                    default:
+                        System.err.println("Unknown move log record type " + type + " in segment " + number);
+                        break;
+                }
+            }
+        }
+        return tables;
+    }
+
+    private static List<Integer> listSegments(Path directory) throws IOException {
+        List<Integer> numbers = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    // Not one of ours
+                }
+            }
+        }
+        Collections.sort(numbers);
+        return numbers;
+    }
+
+    private static Path segmentPath(Path directory, int number) {
+        return directory.resolve(String.format("%s%08d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+    }
+
+    public int getSegment() { return segment; }
+    public long getRecordCount() { return recordCount; }
+    public long getSyncCount() { return syncCount; }
+    public long getBytesWritten() { return bytesWritten; }
+}
@@ -0,0 +1,72 @@
+import java.io.Serializable;
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Timestamps for one player action as it travels from the acting client, through
+ * the server, to every client that renders the result.
+ *
+ * The acting client creates the trace and sends it with its action. The server
+ * stamps when it received, validated and broadcast the move, and attaches the
+ * trace to the state update that results. Each receiving client stamps decode
+ * and render locally; those two stamps never go back on the wire.
+ *
+ * All stamps are wall-clock microseconds, so spans that cross machines include
+ * their clock offset. Over loopback, or on hosts synced by NTP to well under a
+ * turn's latency, the breakdown is meaningful as-is.
+ */
+public class MoveTrace implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final long traceId;
+    private final String playerName;
+    private final long sentAt;
+    private long receivedAt;
+    private long validatedAt;
+    private long broadcastAt;
+    private transient long decodedAt;
+    private transient long renderedAt;
+
+    private MoveTrace(long traceId, String playerName, long sentAt) {
+        this.traceId = traceId;
+        this.playerName = playerName;
+        this.sentAt = sentAt;
+    }
+
+    /**
+     * Start a trace for an action the given player is sending now
+     */
+    public static MoveTrace start(String playerName) {
+        return new MoveTrace(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, playerName, now());
+    }
+
+    /**
+     * Current wall-clock time in microseconds
+     */
+    public static long now() {
+        Instant instant = Instant.now();
+        return instant.getEpochSecond() * 1000000L + instant.getNano() / 1000;
+    }
+
+    public void markReceived() { receivedAt = now(); }
+    public void markValidated() { validatedAt = now(); }
+    public void markBroadcast() { broadcastAt = now(); }
+    public void markDecoded() { decodedAt = now(); }
+    public void markRendered() { renderedAt = now(); }
+
+    public long getTraceId() { return traceId; }
+    public String getPlayerName() { return playerName; }
+    public long getSentAt() { return sentAt; }
+    public long getReceivedAt() { return receivedAt; }
+    public long getValidatedAt() { return validatedAt; }
+    public long getBroadcastAt() { return broadcastAt; }
+    public long getDecodedAt() { return decodedAt; }
+    public long getRenderedAt() { return renderedAt; }
+
+    @Override
+    public String toString() {
+        return String.format("trace %016x by %s: uplink=%dus server=%dus fanout=%dus downlink=%dus render=%dus total=%dus",
+            traceId, playerName, receivedAt - sentAt, validatedAt - receivedAt, broadcastAt - validatedAt,
+            decodedAt - broadcastAt, renderedAt - decodedAt, renderedAt - sentAt);
+    }
+}
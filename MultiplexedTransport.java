@@ -0,0 +1,410 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Transport that carries many sessions over one connection of another transport,
+ * so a process running thousands of clients (bots, dashboards, LoadGenerator)
+ * holds one socket per server instead of one per table.
+ *
+ * Each session looks like an ordinary connection to its user, who reads and
+ * writes the usual length-prefixed frames. On the wire the link starts with
+ * MAGIC, which the server tells apart from a frame length, followed by frames
+ * of a 9-byte header (session id, kind, value) and, for DATA, one message:
+ *
+ *   OPEN    client opens a session id
+ *   DATA    one message on a session; value is its length
+ *   CREDIT  the sender may send value more DATA frames on the session
+ *   CLOSE   the session has ended
+ *
+ * Flow control is per session and in both directions: either side may have at
+ * most WINDOW unconsumed DATA frames outstanding on a session and hands credit
+ * back as its reader consumes them. A session whose reader falls behind only
+ * stops itself, never the link. Client sessions take turns on the link through
+ * a fair lock; the server's MuxConnection schedules its side round-robin.
+ */
+public class MultiplexedTransport implements Transport {
+    public static final int MAGIC = 0x4D555831; // "MUX1", far above MessageCodec.MAX_FRAME_BYTES
+    public static final int WINDOW = 32;
+    public static final int CREDIT_BATCH = WINDOW / 4; // Credit is handed back in batches this size
+    private static final int UNSENT_BYTES = 256; // Typical message size; a session's write buffer shrinks back to this
+
+    public static final byte OPEN = 1;
+    public static final byte DATA = 2;
+    public static final byte CREDIT = 3;
+    public static final byte CLOSE = 4;
+
+    private final Transport base;
+    private final Map<String, Link> links = new ConcurrentHashMap<>();
+
+    public MultiplexedTransport(Transport base) {
+        this.base = base;
+    }
+
+    /**
+     * Servers listen on the underlying transport; GameServer recognises multiplexed links by their first bytes
+     */
+    @Override
+    public Acceptor listen(String bindAddress, int port) throws IOException {
+        return base.listen(bindAddress, port);
+    }
+
+    /**
+     * Open a session on the link to host:port, connecting the link first if there is none
+     */
+    @Override
+    public Connection connect(String host, int port, int readTimeoutMillis) throws IOException {
+        return connect(host, port, 0, readTimeoutMillis);
+    }
+
+    /**
+     * The connect timeout only applies when a new link has to be connected
+     */
+    @Override
+    public Connection connect(String host, int port, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        String key = host + ":" + port;
+        synchronized (links) {
+            Link link = links.get(key);
+            if (link == null || link.closed) {
+                link = new Link(key, base.connect(host, port, connectTimeoutMillis, 0));
+                links.put(key, link);
+            }
+            return link.open(readTimeoutMillis);
+        }
+    }
+
+    /**
+     * Physical connections currently open
+     */
+    public int getLinkCount() {
+        return links.size();
+    }
+
+    /**
+     * One physical connection and the sessions it carries
+     */
+    private class Link implements Runnable {
+        private final String key;
+        private final Connection connection;
+        private final DataInputStream input;
+        private final DataOutputStream output;
+        private final ReentrantLock writeLock = new ReentrantLock(true); // Fair: waiting sessions take turns
+        private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+        private int nextSession = 1; // Guarded by links
+        private volatile boolean closed = false;
+
+        Link(String key, Connection connection) throws IOException {
+            this.key = key;
+            this.connection = connection;
+            this.input = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            this.output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+            output.writeInt(MAGIC);
+            output.flush();
+
+            Thread reader = new Thread(this, "mux-" + key);
+            reader.setDaemon(true);
+            reader.start();
+        }
+
+        Session open(int readTimeoutMillis) throws IOException {
+            Session session = new Session(this, nextSession++, readTimeoutMillis);
+            sessions.put(session.id, session);
+            send(session.id, OPEN, 0, null);
+            return session;
+        }
+
+        void send(int session, byte kind, int value, byte[] payload) throws IOException {
+            writeLock.lock();
+            try {
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                output.writeInt(session);
+                output.writeByte(kind);
+                output.writeInt(value);
+                if (payload != null) {
+                    output.write(payload);
+                }
+                output.flush();
+            } catch (IOException e) {
+                fail();
+                throw e;
+            } finally {
+                writeLock.unlock();
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    int id = input.readInt();
+                    byte kind = input.readByte();
+                    int value = input.readInt();
+                    Session session = sessions.get(id);
+
+                    if (kind == DATA) {
+                        if (value < 0 || value > MessageCodec.MAX_FRAME_BYTES) {
+                            throw new IOException("Invalid frame length: " + value);
+                        }
+                        byte[] frame = new byte[value];
+                        input.readFully(frame);
+                        if (session != null) {
+                            session.deliver(frame);
+                        }
+                    } else if (kind == CREDIT && session != null) {
+                        session.addCredit(value);
+                    } else if (kind == CLOSE && session != null) {
+                        sessions.remove(id);
+                        session.remoteClosed();
+                    }
+                }
+            } catch (EOFException e) {
+                // Server closed the link
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("Multiplexed link to " + key + " lost: " + e.getMessage());
+                }
+            } finally {
+                fail();
+            }
+        }
+
+        /**
+         * The link is gone: every session on it sees its peer hang up
+         */
+        void fail() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            links.remove(key, this);
+            try {
+                connection.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            for (Session session : sessions.values()) {
+                session.remoteClosed();
+            }
+            sessions.clear();
+        }
+    }
+
+    /**
+     * A client's view of one session: a connection carrying ordinary frames
+     */
+    private static class Session implements Connection {
+        private final Link link;
+        private final int id;
+        private final int readTimeoutMillis;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+
+        // Guarded by this
+        private final ArrayDeque<byte[]> received = new ArrayDeque<>(); // Frames with their length prefix restored
+        private byte[] current;
+        private int currentAt;
+        private int sendCredit = WINDOW;
+        private int consumed = 0; // Frames read since we last handed credit back
+        private boolean remoteClosed = false;
+        private boolean inputShutdown = false;
+        private volatile boolean closed = false;
+
+        // Only the writing thread touches this
+        private ByteArrayOutputStream unsent = new ByteArrayOutputStream(UNSENT_BYTES);
+
+        Session(Link link, int id, int readTimeoutMillis) {
+            this.link = link;
+            this.id = id;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.inputStream = new InputStream() {
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+                public int read(byte[] buffer, int offset, int length) throws IOException {
+                    return Session.this.read(buffer, offset, length);
+                }
+                public int available() {
+                    return Session.this.available();
+                }
+                public void close() {
+                    Session.this.close();
+                }
+            };
+            this.outputStream = new OutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+                public void write(byte[] buffer, int offset, int length) throws IOException {
+                    Session.this.write(buffer, offset, length);
+                }
+                public void close() {
+                    Session.this.close();
+                }
+            };
+        }
+
+        synchronized void deliver(byte[] frame) {
+            byte[] chunk = new byte[frame.length + 4];
+            chunk[0] = (byte) (frame.length >>> 24);
+            chunk[1] = (byte) (frame.length >>> 16);
+            chunk[2] = (byte) (frame.length >>> 8);
+            chunk[3] = (byte) frame.length;
+            System.arraycopy(frame, 0, chunk, 4, frame.length);
+            received.addLast(chunk);
+            notifyAll();
+        }
+
+        synchronized void addCredit(int credit) {
+            sendCredit += credit;
+            notifyAll();
+        }
+
+        synchronized void remoteClosed() {
+            remoteClosed = true;
+            notifyAll();
+        }
+
+        private int read(byte[] buffer, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            int count;
+            int credit = 0;
+            synchronized (this) {
+                long deadline = readTimeoutMillis > 0 ? System.currentTimeMillis() + readTimeoutMillis : 0;
+                while (current == null) {
+                    if (closed) {
+                        throw new SocketException("Socket closed");
+                    }
+                    if (inputShutdown) {
+                        return -1;
+                    }
+                    current = received.pollFirst();
+                    currentAt = 0;
+                    if (current != null) {
+                        break;
+                    }
+                    if (remoteClosed) {
+                        return -1;
+                    }
+                    awaitChange(deadline);
+                }
+
+                count = Math.min(length, current.length - currentAt);
+                System.arraycopy(current, currentAt, buffer, offset, count);
+                currentAt += count;
+                if (currentAt == current.length) {
+                    current = null;
+                    if (++consumed >= CREDIT_BATCH) {
+                        credit = consumed;
+                        consumed = 0;
+                    }
+                }
+            }
+            if (credit > 0 && !remoteClosed) {
+                link.send(id, CREDIT, credit, null);
+            }
+            return count;
+        }
+
+        private synchronized int available() {
+            int count = current == null ? 0 : current.length - currentAt;
+            for (byte[] chunk : received) {
+                count += chunk.length;
+            }
+            return inputShutdown ? 0 : count;
+        }
+
+        private void awaitChange(long deadline) throws IOException {
+            try {
+                if (deadline == 0) {
+                    wait();
+                    return;
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                wait(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted");
+            }
+        }
+
+        /**
+         * Collect bytes until a whole frame is here, then send it as one DATA frame
+         */
+        private void write(byte[] buffer, int offset, int length) throws IOException {
+            unsent.write(buffer, offset, length);
+            while (unsent.size() >= 4) {
+                byte[] bytes = unsent.toByteArray();
+                int frameLength = ((bytes[0] & 0xFF) << 24) | ((bytes[1] & 0xFF) << 16)
+                    | ((bytes[2] & 0xFF) << 8) | (bytes[3] & 0xFF);
+                if (bytes.length < 4 + frameLength) {
+                    return;
+                }
+                sendData(Arrays.copyOfRange(bytes, 4, 4 + frameLength));
+                // A reset keeps the buffer's capacity; do not hold on to one grown by a rare large frame
+                unsent = bytes.length > UNSENT_BYTES * 16 ? new ByteArrayOutputStream(UNSENT_BYTES) : unsent;
+                unsent.reset();
+                unsent.write(bytes, 4 + frameLength, bytes.length - 4 - frameLength);
+            }
+        }
+
+        private void sendData(byte[] frame) throws IOException {
+            synchronized (this) {
+                // Out of credit: the server has not caught up with this session yet
+                while (sendCredit == 0 && !closed && !remoteClosed) {
+                    awaitChange(0);
+                }
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                if (remoteClosed) {
+                    throw new SocketException("Connection reset");
+                }
+                sendCredit--;
+            }
+            link.send(id, DATA, frame.length, frame);
+        }
+
+        public InputStream getInputStream() { return inputStream; }
+        public OutputStream getOutputStream() { return outputStream; }
+        public InetAddress getRemoteAddress() { return link.connection.getRemoteAddress(); }
+        public boolean isClosed() { return closed; }
+
+        public synchronized void shutdownInput() {
+            inputShutdown = true;
+            notifyAll();
+        }
+
+        public void close() {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                notifyAll();
+            }
+            link.sessions.remove(id);
+            if (!remoteClosed && !link.closed) {
+                try {
+                    link.send(id, CLOSE, 0, null);
+                } catch (IOException e) {
+                    // The link is gone, which ends the session anyway
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "mux:" + link.key + "/" + id;
+        }
+    }
+}
@@ -0,0 +1,353 @@
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The server's end of a multiplexed link (see MultiplexedTransport): one
+ * connection carrying many client sessions, each served by its own
+ * ClientHandler. The link costs two threads however many tables its sessions
+ * sit at: the reader, which hands each frame to its session's handler without
+ * blocking, and the writer, which drains the sessions' outbound queues.
+ *
+ * The writer serves sessions round-robin, at most QUANTUM messages per turn
+ * and never more than the session's credit, so one busy table cannot starve
+ * the rest of the link and a session whose client stops reading only fills its
+ * own queue, where the SlowClientPolicy deals with it as usual. Credit and
+ * close frames jump the queue. The link is flushed whenever the writer runs
+ * out of work, so a burst from many tables goes out in few writes.
+ *
+ * Inbound, a session that sends more DATA frames than its credit allows, or
+ * whose handler fails on a frame, is closed on its own without the link.
+ */
+public class MuxConnection implements Runnable {
+    private static final int QUANTUM = 16;
+
+    private final Transport.Connection connection;
+    private final DataInputStream input;
+    private final DataOutputStream output;
+    private final GameServer gameServer;
+    private final Map<Integer, Session> sessions = new ConcurrentHashMap<>();
+
+    // Writer state, guarded by this
+    private final ArrayDeque<Session> ready = new ArrayDeque<>();
+    private final ArrayDeque<int[]> control = new ArrayDeque<>(); // {session, kind, value}
+    private boolean closed = false;
+
+    /**
+     * @param input The connection's input, already past MultiplexedTransport.MAGIC
+     */
+    public MuxConnection(Transport.Connection connection, DataInputStream input, GameServer gameServer) throws IOException {
+        this.connection = connection;
+        this.input = input;
+        this.output = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        this.gameServer = gameServer;
+    }
+
+    /**
+     * One client session on this link, as its ClientHandler sees it
+     */
+    public class Session {
+        private final int id;
+        private ClientHandler handler;
+        private OutboundQueue outbound;
+
+        // Guarded by the MuxConnection
+        private int credit = MultiplexedTransport.WINDOW; // DATA frames the client will still take
+        private int owed = 0; // Frames handled but not yet credited back to the client
+        private int unconsumed = 0; // Frames received and not yet credited back; never more than WINDOW
+        private boolean queued = false; // In the ready queue
+        private boolean closing = false;
+        private boolean finished = false;
+
+        Session(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Called by the handler's constructor before the session receives anything
+         */
+        void attach(ClientHandler handler, OutboundQueue outbound) {
+            this.handler = handler;
+            this.outbound = outbound;
+        }
+
+        /**
+         * The outbound queue has just gone from empty to non-empty
+         */
+        public void outboundReady() {
+            synchronized (MuxConnection.this) {
+                schedule(this);
+            }
+        }
+
+        /**
+         * The handler is done with one frame; the client may send another
+         */
+        public void credit() {
+            synchronized (MuxConnection.this) {
+                if (!finished && ++owed >= MultiplexedTransport.CREDIT_BATCH) {
+                    enqueueControl(id, MultiplexedTransport.CREDIT, owed);
+                    unconsumed -= owed;
+                    owed = 0;
+                }
+            }
+        }
+
+        /**
+         * Send whatever is still queued, then end the session
+         */
+        public void closeWhenDrained() {
+            synchronized (MuxConnection.this) {
+                closing = true;
+                if (!queued && !outbound.hasPending()) {
+                    finish(this);
+                }
+            }
+        }
+
+        /**
+         * End the session now, dropping anything still queued
+         */
+        public void close() {
+            synchronized (MuxConnection.this) {
+                closing = true;
+                if (queued) {
+                    ready.remove(this);
+                    queued = false;
+                }
+                finish(this);
+            }
+        }
+
+        public InetAddress getRemoteAddress() {
+            return connection.getRemoteAddress();
+        }
+
+        @Override
+        public String toString() {
+            return connection + "/" + id;
+        }
+    }
+
+    /**
+     * Read frames until the link ends, then end every session still on it
+     */
+    @Override
+    public void run() {
+        Thread writer = new Thread(this::writeLoop, "mux-writer-" + connection);
+        writer.setDaemon(true);
+        writer.start();
+
+        try {
+            while (true) {
+                int id = input.readInt();
+                byte kind = input.readByte();
+                int value = input.readInt();
+                Session session = sessions.get(id);
+
+                if (kind == MultiplexedTransport.OPEN) {
+                    open(id);
+                } else if (kind == MultiplexedTransport.DATA) {
+                    if (value < 0 || value > MessageCodec.MAX_FRAME_BYTES) {
+                        throw new IOException("Invalid frame length: " + value);
+                    }
+                    byte[] frame = new byte[value];
+                    input.readFully(frame);
+                    if (session != null) {
+                        receive(session, frame);
+                    }
+                } else if (kind == MultiplexedTransport.CREDIT && session != null) {
+                    synchronized (this) {
+                        session.credit += value;
+                        if (session.outbound.hasPending()) {
+                            schedule(session);
+                        }
+                    }
+                } else if (kind == MultiplexedTransport.CLOSE && session != null) {
+                    // The client hung up this session
+                    session.handler.close();
+                }
+            }
+        } catch (EOFException | SocketException e) {
+            // Client closed the link
+        } catch (IOException e) {
+            System.err.println("Error on multiplexed connection " + connection + ": " + e.getMessage());
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Hand a frame to its session. A session that sends past its credit, or whose
+     * frame its handler fails on, is ended alone; the rest of the link carries on.
+     */
+    private void receive(Session session, byte[] frame) {
+        boolean overrun;
+        synchronized (this) {
+            overrun = ++session.unconsumed > MultiplexedTransport.WINDOW;
+        }
+        if (overrun) {
+            System.err.println("Session " + session + " sent past its credit window; closing it");
+            session.handler.close();
+            return;
+        }
+        try {
+            session.handler.receive(frame);
+        } catch (RuntimeException e) {
+            System.err.println("Error in session " + session + ": " + e);
+            session.handler.close();
+        }
+    }
+
+    /**
+     * Start serving a session the client opened, unless the server is full
+     */
+    private void open(int id) {
+        if (sessions.containsKey(id) || gameServer.getConnectionCount() >= gameServer.getConfig().getMaxConnections()) {
+            gameServer.getMetrics().connectionRefused();
+            synchronized (this) {
+                enqueueControl(id, MultiplexedTransport.CLOSE, 0);
+            }
+            return;
+        }
+        gameServer.getMetrics().connectionAccepted();
+        Session session = new Session(id);
+        sessions.put(id, session);
+        ClientHandler handler = new ClientHandler(session, gameServer);
+        gameServer.sessionOpened(handler);
+        handler.start();
+    }
+
+    /**
+     * Put a session in line for the writer if it has something to send and credit to send it with.
+     * Caller holds this.
+     */
+    private void schedule(Session session) {
+        if (!session.queued && !session.finished && session.credit > 0) {
+            session.queued = true;
+            ready.addLast(session);
+            notifyAll();
+        }
+    }
+
+    /**
+     * Tell the client the session is over. Caller holds this.
+     */
+    private void finish(Session session) {
+        if (!session.finished) {
+            session.finished = true;
+            sessions.remove(session.id, session);
+            enqueueControl(session.id, MultiplexedTransport.CLOSE, 0);
+        }
+    }
+
+    /**
+     * Caller holds this
+     */
+    private void enqueueControl(int session, byte kind, int value) {
+        control.addLast(new int[] {session, kind, value});
+        notifyAll();
+    }
+
+    private void writeLoop() {
+        List<EncodedMessage> batch = new ArrayList<>();
+        boolean unflushed = false;
+        try {
+            while (true) {
+                int[] frame;
+                Session turn = null;
+                int allowance = 0;
+                synchronized (this) {
+                    while (!closed && control.isEmpty() && ready.isEmpty() && !unflushed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    frame = control.pollFirst();
+                    if (frame == null && (turn = ready.pollFirst()) != null) {
+                        turn.queued = false;
+                        allowance = Math.min(QUANTUM, turn.credit);
+                    }
+                }
+
+                if (frame != null) {
+                    writeHeader(frame[0], (byte) frame[1], frame[2]);
+                    unflushed = true;
+                } else if (turn != null) {
+                    int count = turn.outbound.poll(batch, allowance);
+                    try {
+                        for (EncodedMessage message : batch) {
+                            byte[] bytes = message.bytes();
+                            writeHeader(turn.id, MultiplexedTransport.DATA, bytes.length);
+                            output.write(bytes);
+                            gameServer.getMetrics().messageOut(bytes.length);
+                        }
+                    } finally {
+                        for (EncodedMessage message : batch) {
+                            message.release();
+                        }
+                        batch.clear();
+                        turn.outbound.batchWritten();
+                    }
+                    unflushed |= count > 0;
+
+                    synchronized (this) {
+                        turn.credit -= count;
+                        if (turn.outbound.hasPending()) {
+                            // Back of the line; out of credit it waits for the client's next grant
+                            schedule(turn);
+                        } else if (turn.closing) {
+                            finish(turn);
+                        }
+                    }
+                } else {
+                    // Nothing else to send right now
+                    output.flush();
+                    unflushed = false;
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing to multiplexed connection " + connection + ": " + e.getMessage());
+            close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void writeHeader(int session, byte kind, int value) throws IOException {
+        output.writeInt(session);
+        output.writeByte(kind);
+        output.writeInt(value);
+    }
+
+    /**
+     * Drop the link and every session on it
+     */
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            ready.clear();
+            control.clear();
+            notifyAll();
+        }
+        try {
+            connection.close();
+        } catch (IOException e) {
+            // Already gone
+        }
+        for (Session session : sessions.values()) {
+            session.handler.close();
+        }
+        sessions.clear();
+        gameServer.linkClosed(this);
+    }
+
+    public int getSessionCount() {
+        return sessions.size();
+    }
+}
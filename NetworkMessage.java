@@ -8,10 +8,21 @@ public class NetworkMessage implements Serializable {
     
     public enum MessageType {
         // Connection messages
+        CREATE_GAME,
         JOIN_GAME,
+        RESUME_SESSION,
         GAME_JOINED,
         PLAYER_CONNECTED,
+        PLAYER_RECONNECTING,
         PLAYER_DISCONNECTED,
+        BOT_TOOK_SEAT,
+        FIND_MATCH,
+        WATCH_GAME,
+        SPECTATING,
+        
+        // Liveness
+        PING,
+        PONG,
         
         // Game state messages
         GAME_START,
@@ -26,6 +37,12 @@ public class NetworkMessage implements Serializable {
         TURN_CHANGE,
         GAME_OVER,
         
+        // Lockstep tables (see LockstepSession)
+        LOCKSTEP_SNAPSHOT,
+        LOCKSTEP_MOVE,
+        LOCKSTEP_HASH,
+        LOCKSTEP_REVEAL,
+        
         // Error messages
         ERROR,
         INVALID_MOVE
@@ -35,6 +52,10 @@ public class NetworkMessage implements Serializable {
     private Object data;
     private String playerName;
     private long timestamp;
+    private long sequence; // Per-table event number, 0 for messages that are not replayed on resume
+    private MoveTrace trace; // Set on player actions and on the state update they cause
+    private long actionSequence; // On actions, the client's number for it (0 if unnumbered); on state updates, the viewer's last applied action
+    private long stateVersion = -1; // On actions, the table state they were based on; on state updates, the state they carry
     
     public NetworkMessage(MessageType type) {
         this.type = type;
@@ -66,6 +87,18 @@ public class NetworkMessage implements Serializable {
     
     public long getTimestamp() { return timestamp; }
     
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+    
+    public MoveTrace getTrace() { return trace; }
+    public void setTrace(MoveTrace trace) { this.trace = trace; }
+    
+    public long getActionSequence() { return actionSequence; }
+    public void setActionSequence(long actionSequence) { this.actionSequence = actionSequence; }
+    
+    public long getStateVersion() { return stateVersion; }
+    public void setStateVersion(long stateVersion) { this.stateVersion = stateVersion; }
+    
     @Override
     public String toString() {
         return "NetworkMessage{type=" + type + ", data=" + data + ", player=" + playerName + "}";
@@ -0,0 +1,252 @@
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Bounded queue of messages waiting to be written to one connection.
+ *
+ * Producers (table actors) only enqueue and never touch the socket, so a client
+ * with a full TCP window cannot stall the table. A dedicated writer thread drains
+ * the queue and flushes once per batch. A state update queued directly behind
+ * another unsent state update replaces it, so a lagging client only receives
+ * the latest state. A client that exceeds its SlowClientPolicy is rejected.
+ *
+ * A queue built without a Sink has no writer thread: its owner (a MuxConnection
+ * sharing one connection among many queues) is told when it has something to
+ * send and takes messages with poll.
+ */
+public class OutboundQueue implements Runnable {
+    /**
+     * Destination the writer thread drains into
+     */
+    public interface Sink {
+        void write(EncodedMessage message) throws IOException;
+        void flush() throws IOException;
+    }
+
+    private static class Entry {
+        EncodedMessage message;
+        final long enqueuedAt;
+        final long enqueuedNanos;
+
+        Entry(EncodedMessage message, long enqueuedAt) {
+            this.message = message;
+            this.enqueuedAt = enqueuedAt;
+            this.enqueuedNanos = System.nanoTime();
+        }
+    }
+
+    private final String name;
+    private final Sink sink;
+    private final SlowClientPolicy policy;
+    private final LatencyHistogram queueWait;
+    private final Runnable onWriteFailure;
+    private final Runnable onReady;
+    private final ArrayDeque<Entry> queue = new ArrayDeque<>();
+    private Entry coalescibleTail; // Last queued entry, if it is an unsent state update
+    private boolean closed = false;
+    private boolean accepting = true;
+    private boolean writing = false;
+    private long coalescedCount = 0;
+
+    /**
+     * @param queueWait Receives how long each message waited before the writer took it
+     */
+    public OutboundQueue(String name, Sink sink, SlowClientPolicy policy, LatencyHistogram queueWait,
+                         Runnable onWriteFailure) {
+        this.name = name;
+        this.sink = sink;
+        this.policy = policy;
+        this.queueWait = queueWait;
+        this.onWriteFailure = onWriteFailure;
+        this.onReady = null;
+    }
+
+    /**
+     * A queue its owner drains with poll; onReady runs, outside the queue's lock,
+     * whenever a message arrives in an empty queue
+     */
+    public OutboundQueue(String name, SlowClientPolicy policy, LatencyHistogram queueWait, Runnable onReady) {
+        this.name = name;
+        this.sink = null;
+        this.policy = policy;
+        this.queueWait = queueWait;
+        this.onWriteFailure = null;
+        this.onReady = onReady;
+    }
+
+    /**
+     * Start the writer thread for this queue
+     */
+    public void start() {
+        Thread writer = new Thread(this, "writer-" + name);
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Queue a message without blocking; the queue takes its own reference to it.
+     * @return false if the queue is closed or the client has fallen too far behind
+     */
+    public boolean offer(EncodedMessage message) {
+        boolean wasEmpty;
+        synchronized (this) {
+            if (closed || !accepting) {
+                return false;
+            }
+
+            boolean isStateUpdate = message.getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE;
+            if (isStateUpdate && coalescibleTail != null) {
+                // Latest state wins; nothing else was queued after the stale one
+                coalescibleTail.message.release();
+                coalescibleTail.message = message.retain();
+                coalescedCount++;
+                return true;
+            }
+
+            long now = System.currentTimeMillis();
+            Entry oldest = queue.peekFirst();
+            if (queue.size() >= policy.getMaxQueuedMessages()
+                    || (oldest != null && now - oldest.enqueuedAt > policy.getMaxLagMillis())) {
+                return false;
+            }
+
+            wasEmpty = queue.isEmpty();
+            Entry entry = new Entry(message.retain(), now);
+            queue.addLast(entry);
+            coalescibleTail = isStateUpdate ? entry : null;
+            notifyAll();
+        }
+        if (wasEmpty && onReady != null) {
+            onReady.run();
+        }
+        return true;
+    }
+
+    /**
+     * Move up to max queued messages into the given list for the owner to write,
+     * who must release them and then call batchWritten
+     * @return how many were taken
+     */
+    public synchronized int poll(List<EncodedMessage> into, int max) {
+        if (closed) {
+            return 0;
+        }
+        long now = System.nanoTime();
+        int count = 0;
+        while (count < max && !queue.isEmpty()) {
+            Entry entry = queue.pollFirst();
+            into.add(entry.message);
+            queueWait.record(now - entry.enqueuedNanos);
+            count++;
+        }
+        if (queue.isEmpty()) {
+            coalescibleTail = null;
+        }
+        writing = count > 0;
+        return count;
+    }
+
+    /**
+     * The batch taken by the last poll has been written
+     */
+    public synchronized void batchWritten() {
+        writing = false;
+        notifyAll();
+    }
+
+    /**
+     * Refuse further messages but keep what is queued for the owner to send
+     */
+    public synchronized void stopAccepting() {
+        accepting = false;
+    }
+
+    /**
+     * Stop accepting messages, give the writer up to the given time to send what
+     * is already queued, then close
+     */
+    public synchronized void drainAndClose(long timeoutMillis) {
+        accepting = false;
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        try {
+            while ((!queue.isEmpty() || writing) && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        close();
+    }
+
+    /**
+     * Stop the writer; anything still queued is discarded
+     */
+    public synchronized void close() {
+        closed = true;
+        for (Entry entry : queue) {
+            entry.message.release();
+        }
+        queue.clear();
+        coalescibleTail = null;
+        notifyAll();
+    }
+
+    @Override
+    public void run() {
+        List<EncodedMessage> batch = new ArrayList<>();
+        try {
+            while (true) {
+                synchronized (this) {
+                    while (queue.isEmpty() && !closed) {
+                        wait();
+                    }
+                    if (closed) {
+                        return;
+                    }
+                    long now = System.nanoTime();
+                    for (Entry entry : queue) {
+                        batch.add(entry.message);
+                        queueWait.record(now - entry.enqueuedNanos);
+                    }
+                    queue.clear();
+                    coalescibleTail = null;
+                    writing = true;
+                }
+
+                // Socket I/O happens outside the lock so producers never wait on it
+                try {
+                    for (EncodedMessage message : batch) {
+                        sink.write(message);
+                    }
+                    sink.flush();
+                } finally {
+                    for (EncodedMessage message : batch) {
+                        message.release();
+                    }
+                    batch.clear();
+                }
+
+                synchronized (this) {
+                    writing = false;
+                    notifyAll();
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error sending message to " + name + ": " + e.getMessage());
+            close();
+            onWriteFailure.run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public synchronized int size() { return queue.size(); }
+    public synchronized boolean hasPending() { return !closed && !queue.isEmpty(); }
+    public synchronized long getCoalescedCount() { return coalescedCount; }
+}
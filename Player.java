@@ -1,6 +1,9 @@
+import java.io.Serializable;
 import java.util.*;
 
-public class Player {
+public class Player implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     private String name;
     private List<Card> hand = new ArrayList<>();
 
@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Comparator;
+import java.util.concurrent.CountDownLatch;
+import java.util.stream.Stream;
+
+/**
+ * Crash-recovery benchmark for the move log.
+ * Plays a number of moves at many tables on a server that logs them, stops it,
+ * then times how long a fresh server takes to restore every running table from
+ * the log.
+ *
+ * Usage: java RecoveryBenchmark [tables] [movesPerTable] [logDirectory]
+ */
+public class RecoveryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int movesPerTable = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+        Path directory = args.length > 2 ? Paths.get(args[2]) : Files.createTempDirectory("hez-move-log");
+
+        ServerConfig config = new ServerConfig();
+        config.setMoveLogDirectory(directory.toString());
+        System.out.println("Tables: " + tables + ", moves per table: " + movesPerTable + ", log: " + directory);
+
+        // Play, logging every move
+        GameServer server = new GameServer(config);
+        server.recoverTables();
+        CountDownLatch done = new CountDownLatch(tables);
+        long start = System.nanoTime();
+        for (int i = 0; i < tables; i++) {
+            new TableDriver(server.createRoom(), movesPerTable, done).start();
+        }
+        done.await();
+        MoveLog log = server.getMoveLog();
+        server.stop(); // Flushes the log
+        double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("Logged %,d records in %,d group commits (%.1f per commit), %.1f MiB in %.2f s%n",
+            log.getRecordCount(), log.getSyncCount(), (double) log.getRecordCount() / Math.max(1, log.getSyncCount()),
+            log.getBytesWritten() / (1024.0 * 1024.0), seconds);
+
+        // Recover as a restarted server would
+        GameServer restarted = new GameServer(config);
+        long recoveryStart = System.nanoTime();
+        int restored = restarted.recoverTables();
+        long recoveryMillis = (System.nanoTime() - recoveryStart) / 1000000;
+        System.out.printf("Restored %,d running tables in %,d ms%n", restored, recoveryMillis);
+        restarted.stop();
+
+        if (args.length <= 2) {
+            try (Stream<Path> files = Files.walk(directory)) {
+                files.sorted(Comparator.reverseOrder()).forEach(RecoveryBenchmark::delete);
+            }
+        }
+        System.exit(0);
+    }
+
+    private static void delete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            System.err.println("Could not delete " + path + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Plays one table until it has applied a fixed number of moves, one move per turn of its actor
+     */
+    private static class TableDriver implements Runnable {
+        private final GameRoom room;
+        private final int moves;
+        private final CountDownLatch done;
+
+        TableDriver(GameRoom room, int moves, CountDownLatch done) {
+            this.room = room;
+            this.moves = moves;
+            this.done = done;
+        }
+
+        void start() {
+            room.addLocalPlayer("P0");
+            room.addLocalPlayer("P1");
+            room.execute(this);
+        }
+
+        @Override
+        public void run() {
+            Game game = room.getGame();
+            if (game == null || room.isFinished() || room.getStateVersion() >= moves) {
+                done.countDown();
+                return;
+            }
+
+            Player current = game.getCurrentPlayer();
+            Card move = null;
+            for (Card card : current.getHand()) {
+                if (card.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+                    move = card;
+                    break;
+                }
+            }
+            NetworkMessage message = move != null
+                ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, move)
+                : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+            room.handlePlayerMove(current.getName(), message);
+            if (move != null && move.getValue() == 7) {
+                // Nobody moves until a 7's suit is named; it goes right behind the 7, as a bot's does
+                room.handlePlayerMove(current.getName(),
+                    new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, move.getSuit()));
+            }
+            room.execute(this);
+        }
+    }
+}
@@ -0,0 +1,118 @@
+import java.util.*;
+
+/**
+ * Turn rotation at every table size.
+ * For two to six seats this sets up small positions and checks whose turn it is
+ * after a 2 and the penalty draw, after stacked 2s, and after a 1 that skips the
+ * next seat or is countered by it. Drawing what a 2 owes uses up the penalized
+ * player's turn, so play moves on to the seat after them.
+ *
+ * Usage: java RotationCheck
+ */
+public class RotationCheck {
+    private static final Card TOP = new Card(Card.Suit.GOLD, 3);
+
+    private static int failures = 0;
+
+    public static void main(String[] args) {
+        for (int seats = TableOptions.MIN_SEATS; seats <= TableOptions.MAX_SEATS; seats++) {
+            drawTwo(seats);
+            stackedTwos(seats);
+            skipOne(seats);
+            counteredOne(seats);
+        }
+        if (failures > 0) {
+            System.out.println("FAIL: " + failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("OK: rotation holds from " + TableOptions.MIN_SEATS + " to " + TableOptions.MAX_SEATS + " seats");
+        System.exit(0);
+    }
+
+    /**
+     * Seat 0 plays a 2; seat 1 draws two and the turn goes to seat 2
+     */
+    private static void drawTwo(int seats) {
+        Game game = table(seats);
+        play(game, new Card(Card.Suit.GOLD, 2));
+        expect(seats, "2 is answered by the next seat", game.getCurrentPlayerIndex(), 1);
+        expect(seats, "2 owes two cards", game.getAccumulatedDrawCards(), 2);
+        int held = game.getPlayers().get(1).getHand().size();
+        game.drawCardFromDeck();
+        expect(seats, "penalty lands on the answering seat", game.getPlayers().get(1).getHand().size(), held + 2);
+        expect(seats, "turn passes the penalized seat", game.getCurrentPlayerIndex(), 2 % seats);
+        expect(seats, "penalty is cleared", game.mustDrawCards() ? 1 : 0, 0);
+    }
+
+    /**
+     * Seats 0 and 1 play 2s; seat 2 draws four and the turn goes to seat 3
+     */
+    private static void stackedTwos(int seats) {
+        Game game = table(seats);
+        play(game, new Card(Card.Suit.GOLD, 2));
+        play(game, new Card(Card.Suit.CUPS, 2));
+        int penalized = 2 % seats;
+        expect(seats, "stacked 2 is answered by the next seat", game.getCurrentPlayerIndex(), penalized);
+        expect(seats, "stacked 2s owe four cards", game.getAccumulatedDrawCards(), 4);
+        int held = game.getPlayers().get(penalized).getHand().size();
+        game.drawCardFromDeck();
+        expect(seats, "stacked penalty lands on the answering seat",
+            game.getPlayers().get(penalized).getHand().size(), held + 4);
+        expect(seats, "turn passes the seat that drew the stack", game.getCurrentPlayerIndex(), 3 % seats);
+    }
+
+    /**
+     * Seat 0 plays a 1 and seat 1 has none to answer with, so seat 2 plays next
+     */
+    private static void skipOne(int seats) {
+        Game game = table(seats);
+        play(game, new Card(Card.Suit.GOLD, 1));
+        expect(seats, "1 skips the next seat", game.getCurrentPlayerIndex(), 2 % seats);
+        expect(seats, "skip is used up", game.isSkipNext() ? 1 : 0, 0);
+    }
+
+    /**
+     * Seat 1 holds a 1, so it keeps its turn and answers; its 1 then skips seat 2
+     */
+    private static void counteredOne(int seats) {
+        Game game = table(seats);
+        Card counter = new Card(Card.Suit.SWORDS, 1);
+        game.getPlayers().get(1).getHand().add(counter);
+        play(game, new Card(Card.Suit.GOLD, 1));
+        expect(seats, "a seat holding a 1 is not skipped", game.getCurrentPlayerIndex(), 1);
+        if (seats > 2) {
+            game.playCard(counter);
+            expect(seats, "the answering 1 skips the seat after it", game.getCurrentPlayerIndex(), 3 % seats);
+        }
+    }
+
+    /**
+     * Seat 0 to play on a gold 3, every seat holding cards that answer neither a 1 nor a 2
+     */
+    private static Game table(int seats) {
+        List<Player> players = new ArrayList<>();
+        for (int i = 0; i < seats; i++) {
+            Player player = new Player("seat" + i);
+            for (int value = 4; value <= 6; value++) {
+                player.getHand().add(new Card(Card.Suit.STICKS, value));
+            }
+            players.add(player);
+        }
+        return new Game(players, new Deck(seats), TOP, null, 0, false, 0, false, false);
+    }
+
+    /**
+     * The current seat picks up the card and plays it, as the table would
+     */
+    private static void play(Game game, Card card) {
+        game.getCurrentPlayer().getHand().add(card);
+        game.playCard(card);
+    }
+
+    private static void expect(int seats, String what, int actual, int expected) {
+        if (actual != expected) {
+            failures++;
+            System.out.println(seats + " seats: " + what + ": expected " + expected + ", got " + actual);
+        }
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Settings for a GameServer. Defaults suit a server hosted from the game menu;
+ * the dedicated server overrides them from the command line.
+ */
+public class ServerConfig {
+    public static final int DEFAULT_PORT = 12345;
+
+    private Transport transport = new TcpTransport(); // InMemoryTransport runs clients and server in one JVM
+    private String bindAddress = "0.0.0.0";
+    private int port = DEFAULT_PORT;
+    private int maxRooms = 500000; // Half of the 6-digit key space keeps key allocation cheap
+    private int maxConnections = 20000;
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private SlowClientPolicy slowClientPolicy = SlowClientPolicy.defaults();
+    private long resumeGraceMillis = 60000; // How long a dropped player's seat is held
+    private long heartbeatIntervalMillis = 15000;
+    private long idleTimeoutMillis = 45000; // Connections silent this long are dropped
+    private long turnTimeLimitMillis = 30000; // After this the server draws for the player
+    private double inboundRatePerSecond = 20; // Messages a connection may send per second, sustained
+    private int inboundBurst = 40;
+    private double addressRatePerSecond = 200; // The same for all connections from one IP address together
+    private int addressBurst = 400;
+    private int metricsPort = 0; // Loopback HTTP port for /metrics; 0 leaves it off
+    private String moveLogDirectory = null; // Where tables log their moves for crash recovery; null turns it off
+    private long moveLogSegmentBytes = 64L * 1024 * 1024;
+    private long botFillMillis = 0; // How long a table waits for humans before bots take the empty seats; 0 leaves it off
+    private long botThinkMillis = 1000; // Pause before a bot moves, so humans can follow the game
+    private int botThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 4); // Cores all bots may use together
+    private int matchGap = 100; // Rating difference matchmaking accepts straight away
+    private double matchGapWidenPerSecond = 20; // How fast that gap grows while a player waits
+    private int matchMaxGap = 800;
+    private long matchIntervalMillis = 100; // Time between matching passes
+    private long spectatorDelayMillis = 0; // How far behind the players spectators see the game; the public view hides every hand
+    private int maxSpectators = 10000; // Per table
+    private int spectatorThreads = 1; // Threads writing every table's public view to its spectators
+
+    /**
+     * Parse --name=value options, e.g. --port=12345 --bind=127.0.0.1 --max-rooms=10000
+     */
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        int maxQueued = config.slowClientPolicy.getMaxQueuedMessages();
+        long maxLag = config.slowClientPolicy.getMaxLagMillis();
+
+        for (String arg : args) {
+            if (!arg.startsWith("--") || !arg.contains("=")) {
+                throw new IllegalArgumentException("Expected --name=value but got: " + arg);
+            }
+            String name = arg.substring(2, arg.indexOf('='));
+            String value = arg.substring(arg.indexOf('=') + 1);
+
+            switch (name) {
+                case "transport":
+                    // shm serves bot processes on this host through SharedMemoryTransport
+                    if (value.equals("shm")) {
+                        config.transport = new SharedMemoryTransport();
+                    } else if (!value.equals("tcp")) {
+                        throw new IllegalArgumentException("Unknown transport: " + value);
+                    }
+                    break;
+                case "bind":
+                    config.bindAddress = value;
+                    break;
+                case "port":
+                    config.port = Integer.parseInt(value);
+                    break;
+                case "max-rooms":
+                    config.maxRooms = Integer.parseInt(value);
+                    break;
+                case "max-connections":
+                    config.maxConnections = Integer.parseInt(value);
+                    break;
+                case "workers":
+                    config.workerThreads = Integer.parseInt(value);
+                    break;
+                case "max-queued":
+                    maxQueued = Integer.parseInt(value);
+                    break;
+                case "max-lag-ms":
+                    maxLag = Long.parseLong(value);
+                    break;
+                case "resume-grace-ms":
+                    config.resumeGraceMillis = Long.parseLong(value);
+                    break;
+                case "heartbeat-ms":
+                    config.heartbeatIntervalMillis = Long.parseLong(value);
+                    break;
+                case "idle-timeout-ms":
+                    config.idleTimeoutMillis = Long.parseLong(value);
+                    break;
+                case "turn-time-ms":
+                    config.turnTimeLimitMillis = Long.parseLong(value);
+                    break;
+                case "rate":
+                    config.inboundRatePerSecond = Double.parseDouble(value);
+                    break;
+                case "burst":
+                    config.inboundBurst = Integer.parseInt(value);
+                    break;
+                case "ip-rate":
+                    config.addressRatePerSecond = Double.parseDouble(value);
+                    break;
+                case "ip-burst":
+                    config.addressBurst = Integer.parseInt(value);
+                    break;
+                case "metrics-port":
+                    config.metricsPort = Integer.parseInt(value);
+                    break;
+                case "move-log":
+                    config.moveLogDirectory = value;
+                    break;
+                case "move-log-segment-mb":
+                    config.moveLogSegmentBytes = Long.parseLong(value) * 1024 * 1024;
+                    break;
+                case "bot-fill-ms":
+                    config.botFillMillis = Long.parseLong(value);
+                    break;
+                case "bot-think-ms":
+                    config.botThinkMillis = Long.parseLong(value);
+                    break;
+                case "bot-threads":
+                    config.botThreads = Integer.parseInt(value);
+                    break;
+                case "match-gap":
+                    config.matchGap = Integer.parseInt(value);
+                    break;
+                case "match-widen-per-sec":
+                    config.matchGapWidenPerSecond = Double.parseDouble(value);
+                    break;
+                case "match-max-gap":
+                    config.matchMaxGap = Integer.parseInt(value);
+                    break;
+                case "match-interval-ms":
+                    config.matchIntervalMillis = Long.parseLong(value);
+                    break;
+                case "spectator-delay-ms":
+                    config.spectatorDelayMillis = Long.parseLong(value);
+                    break;
+                case "max-spectators":
+                    config.maxSpectators = Integer.parseInt(value);
+                    break;
+                case "spectator-threads":
+                    config.spectatorThreads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: --" + name);
+            }
+        }
+
+        config.slowClientPolicy = new SlowClientPolicy(maxQueued, maxLag);
+        return config;
+    }
+
+    // Getters and setters
+    public Transport getTransport() { return transport; }
+    public void setTransport(Transport transport) { this.transport = transport; }
+
+    public String getBindAddress() { return bindAddress; }
+    public void setBindAddress(String bindAddress) { this.bindAddress = bindAddress; }
+
+    public int getPort() { return port; }
+    public void setPort(int port) { this.port = port; }
+
+    public int getMaxRooms() { return maxRooms; }
+    public void setMaxRooms(int maxRooms) { this.maxRooms = maxRooms; }
+
+    public int getMaxConnections() { return maxConnections; }
+    public void setMaxConnections(int maxConnections) { this.maxConnections = maxConnections; }
+
+    public int getWorkerThreads() { return workerThreads; }
+    public void setWorkerThreads(int workerThreads) { this.workerThreads = workerThreads; }
+
+    public SlowClientPolicy getSlowClientPolicy() { return slowClientPolicy; }
+    public void setSlowClientPolicy(SlowClientPolicy slowClientPolicy) { this.slowClientPolicy = slowClientPolicy; }
+
+    public long getResumeGraceMillis() { return resumeGraceMillis; }
+    public void setResumeGraceMillis(long resumeGraceMillis) { this.resumeGraceMillis = resumeGraceMillis; }
+
+    public long getHeartbeatIntervalMillis() { return heartbeatIntervalMillis; }
+    public void setHeartbeatIntervalMillis(long heartbeatIntervalMillis) { this.heartbeatIntervalMillis = heartbeatIntervalMillis; }
+
+    public long getIdleTimeoutMillis() { return idleTimeoutMillis; }
+    public void setIdleTimeoutMillis(long idleTimeoutMillis) { this.idleTimeoutMillis = idleTimeoutMillis; }
+
+    public long getTurnTimeLimitMillis() { return turnTimeLimitMillis; }
+    public void setTurnTimeLimitMillis(long turnTimeLimitMillis) { this.turnTimeLimitMillis = turnTimeLimitMillis; }
+
+    public double getInboundRatePerSecond() { return inboundRatePerSecond; }
+    public void setInboundRatePerSecond(double inboundRatePerSecond) { this.inboundRatePerSecond = inboundRatePerSecond; }
+
+    public int getInboundBurst() { return inboundBurst; }
+    public void setInboundBurst(int inboundBurst) { this.inboundBurst = inboundBurst; }
+
+    public double getAddressRatePerSecond() { return addressRatePerSecond; }
+    public void setAddressRatePerSecond(double addressRatePerSecond) { this.addressRatePerSecond = addressRatePerSecond; }
+
+    public int getAddressBurst() { return addressBurst; }
+    public void setAddressBurst(int addressBurst) { this.addressBurst = addressBurst; }
+
+    public int getMetricsPort() { return metricsPort; }
+    public void setMetricsPort(int metricsPort) { this.metricsPort = metricsPort; }
+
+    public String getMoveLogDirectory() { return moveLogDirectory; }
+    public void setMoveLogDirectory(String moveLogDirectory) { this.moveLogDirectory = moveLogDirectory; }
+
+    public long getMoveLogSegmentBytes() { return moveLogSegmentBytes; }
+    public void setMoveLogSegmentBytes(long moveLogSegmentBytes) { this.moveLogSegmentBytes = moveLogSegmentBytes; }
+
+    public long getBotFillMillis() { return botFillMillis; }
+    public void setBotFillMillis(long botFillMillis) { this.botFillMillis = botFillMillis; }
+
+    public long getBotThinkMillis() { return botThinkMillis; }
+    public void setBotThinkMillis(long botThinkMillis) { this.botThinkMillis = botThinkMillis; }
+
+    public int getBotThreads() { return botThreads; }
+    public void setBotThreads(int botThreads) { this.botThreads = botThreads; }
+
+    public int getMatchGap() { return matchGap; }
+    public void setMatchGap(int matchGap) { this.matchGap = matchGap; }
+
+    public double getMatchGapWidenPerSecond() { return matchGapWidenPerSecond; }
+    public void setMatchGapWidenPerSecond(double matchGapWidenPerSecond) { this.matchGapWidenPerSecond = matchGapWidenPerSecond; }
+
+    public int getMatchMaxGap() { return matchMaxGap; }
+    public void setMatchMaxGap(int matchMaxGap) { this.matchMaxGap = matchMaxGap; }
+
+    public long getMatchIntervalMillis() { return matchIntervalMillis; }
+    public void setMatchIntervalMillis(long matchIntervalMillis) { this.matchIntervalMillis = matchIntervalMillis; }
+
+    public long getSpectatorDelayMillis() { return spectatorDelayMillis; }
+    public void setSpectatorDelayMillis(long spectatorDelayMillis) { this.spectatorDelayMillis = spectatorDelayMillis; }
+
+    public int getMaxSpectators() { return maxSpectators; }
+    public void setMaxSpectators(int maxSpectators) { this.maxSpectators = maxSpectators; }
+
+    public int getSpectatorThreads() { return spectatorThreads; }
+    public void setSpectatorThreads(int spectatorThreads) { this.spectatorThreads = spectatorThreads; }
+
+    @Override
+    public String toString() {
+        return "ServerConfig{bind=" + bindAddress + ":" + port + ", maxRooms=" + maxRooms
+            + ", maxConnections=" + maxConnections + ", workers=" + workerThreads + ", " + slowClientPolicy + "}";
+    }
+}
@@ -0,0 +1,148 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for one GameServer.
+ *
+ * The hot paths (frame decode, table moves, fan-out, outbound writes) record here
+ * without locking or allocating; MetricsEndpoint renders a snapshot on request.
+ */
+public class ServerMetrics {
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram tableQueueWait = new LatencyHistogram();
+    private final LatencyHistogram moveProcessingTime = new LatencyHistogram();
+    private final LatencyHistogram fanOutTime = new LatencyHistogram();
+    private final LatencyHistogram outboundQueueWait = new LatencyHistogram();
+    private final LatencyHistogram moveLogSyncTime = new LatencyHistogram();
+    private final LatencyHistogram botDecisionTime = new LatencyHistogram();
+    private final LatencyHistogram spectatorFanOutTime = new LatencyHistogram();
+
+    private final LongAdder messagesIn = new LongAdder();
+    private final LongAdder bytesIn = new LongAdder();
+    private final LongAdder messagesOut = new LongAdder();
+    private final LongAdder bytesOut = new LongAdder();
+    private final LongAdder connectionsAccepted = new LongAdder();
+    private final LongAdder connectionsRefused = new LongAdder();
+    private final LongAdder slowClientsDropped = new LongAdder();
+    private final LongAdder lockstepDesyncs = new LongAdder();
+    private final LongAdder inboundThrottled = new LongAdder();
+    private final LongAdder outOfTurnRejected = new LongAdder();
+    private final LongAdder mailboxBackpressure = new LongAdder();
+    private final LongAdder duplicateActionsDropped = new LongAdder();
+    private final LongAdder staleActionsRejected = new LongAdder();
+    private final LongAdder botsSeated = new LongAdder();
+    private final LongAdder botDecisionsDropped = new LongAdder();
+
+    /**
+     * Count one frame read from a client, including its length prefix
+     */
+    public void messageIn(int frameBytes) {
+        messagesIn.increment();
+        bytesIn.add(frameBytes + 4);
+    }
+
+    /**
+     * Count one frame written to a client, including its length prefix
+     */
+    public void messageOut(int frameBytes) {
+        messagesOut.increment();
+        bytesOut.add(frameBytes + 4);
+    }
+
+    public void connectionAccepted() { connectionsAccepted.increment(); }
+    public void connectionRefused() { connectionsRefused.increment(); }
+    public void slowClientDropped() { slowClientsDropped.increment(); }
+    public void lockstepDesync() { lockstepDesyncs.increment(); }
+    public void inboundThrottled() { inboundThrottled.increment(); }
+    public void outOfTurnRejected() { outOfTurnRejected.increment(); }
+    public void mailboxBackpressure() { mailboxBackpressure.increment(); }
+    public void duplicateActionDropped() { duplicateActionsDropped.increment(); }
+    public void staleActionRejected() { staleActionsRejected.increment(); }
+    public void botSeated() { botsSeated.increment(); }
+    public void botDecisionDropped() { botDecisionsDropped.increment(); }
+
+    /**
+     * Render every metric in the Prometheus text exposition format
+     */
+    public String toPrometheus(GameServer server) {
+        StringBuilder out = new StringBuilder(4096);
+        gauge(out, "hez_rooms_active", "Rooms currently open", server.getRoomCount());
+        gauge(out, "hez_connections_active", "Client connections currently open", server.getConnectionCount());
+        gauge(out, "hez_mux_links_active", "Multiplexed connections currently open", server.getLinkCount());
+        gauge(out, "hez_spectators_active", "Connections watching a table", server.getSpectatorCount());
+        gauge(out, "hez_timers_pending", "Timers waiting on the timing wheel", server.getPendingTimerCount());
+
+        counter(out, "hez_messages_in_total", "Frames received from clients", messagesIn.sum());
+        counter(out, "hez_bytes_in_total", "Bytes received from clients", bytesIn.sum());
+        counter(out, "hez_messages_out_total", "Frames written to clients", messagesOut.sum());
+        counter(out, "hez_bytes_out_total", "Bytes written to clients", bytesOut.sum());
+        counter(out, "hez_connections_accepted_total", "Connections accepted", connectionsAccepted.sum());
+        counter(out, "hez_connections_refused_total", "Connections refused at the connection limit", connectionsRefused.sum());
+        counter(out, "hez_slow_clients_dropped_total", "Connections dropped by the slow client policy", slowClientsDropped.sum());
+        counter(out, "hez_inbound_throttled_total", "Reads delayed because a connection or address exceeded its rate", inboundThrottled.sum());
+        counter(out, "hez_out_of_turn_rejected_total", "Moves rejected by the connection before reaching the table", outOfTurnRejected.sum());
+        counter(out, "hez_mailbox_backpressure_total", "Times a connection stopped reading because its table was backlogged", mailboxBackpressure.sum());
+        counter(out, "hez_duplicate_actions_dropped_total", "Actions dropped because the table had already seen their number", duplicateActionsDropped.sum());
+        counter(out, "hez_stale_actions_rejected_total", "Actions rejected because they were based on an older table state", staleActionsRejected.sum());
+        counter(out, "hez_bots_seated_total", "Empty or abandoned seats taken by a server-hosted bot", botsSeated.sum());
+        counter(out, "hez_bot_decisions_dropped_total", "Bot moves dropped because the bot pool was over its budget", botDecisionsDropped.sum());
+        counter(out, "hez_lockstep_desyncs_total", "Lockstep clients whose state hash disagreed with the table", lockstepDesyncs.sum());
+
+        summary(out, "hez_decode_seconds", "Time to deserialize one inbound frame", decodeTime);
+        summary(out, "hez_table_queue_wait_seconds", "Time a move waits in its table's mailbox", tableQueueWait);
+        summary(out, "hez_move_processing_seconds", "Time a table spends applying one move, fan-out included", moveProcessingTime);
+        summary(out, "hez_fanout_seconds", "Time to encode an event and queue it for every seat", fanOutTime);
+        summary(out, "hez_outbound_queue_wait_seconds", "Time a message waits before its writer sends it", outboundQueueWait);
+        summary(out, "hez_bot_decision_seconds", "CPU time a bot spends choosing one move", botDecisionTime);
+        summary(out, "hez_spectator_fanout_seconds", "Time to queue one message for every spectator of a table", spectatorFanOutTime);
+
+        Matchmaker matchmaker = server.getMatchmaker();
+        gauge(out, "hez_matchmaking_waiting", "Players queued for a match", matchmaker.getWaitingCount());
+        summary(out, "hez_matchmaking_wait_seconds", "Time a matched player spent in the queue", matchmaker.getWaitTime());
+        summary(out, "hez_matchmaking_pass_seconds", "Time one matching pass holds the queue", matchmaker.getPassTime());
+
+        MoveLog moveLog = server.getMoveLog();
+        if (moveLog != null) {
+            counter(out, "hez_move_log_records_total", "Records appended to the move log", moveLog.getRecordCount());
+            counter(out, "hez_move_log_syncs_total", "Group commits (one write and force each)", moveLog.getSyncCount());
+            counter(out, "hez_move_log_bytes_total", "Bytes written to the move log", moveLog.getBytesWritten());
+            summary(out, "hez_move_log_sync_seconds", "Time to write and force one group commit", moveLogSyncTime);
+        }
+        return out.toString();
+    }
+
+    private static void gauge(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "gauge");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void counter(StringBuilder out, String name, String help, long value) {
+        header(out, name, help, "counter");
+        out.append(name).append(' ').append(value).append('\n');
+    }
+
+    private static void summary(StringBuilder out, String name, String help, LatencyHistogram histogram) {
+        header(out, name, help, "summary");
+        for (double quantile : QUANTILES) {
+            out.append(name).append("{quantile=\"").append(quantile).append("\"} ")
+                .append(histogram.getValueAtPercentile(quantile) / 1e9).append('\n');
+        }
+        out.append(name).append("_sum ").append(histogram.getTotalNanos() / 1e9).append('\n');
+        out.append(name).append("_count ").append(histogram.getCount()).append('\n');
+    }
+
+    private static void header(StringBuilder out, String name, String help, String type) {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    public LatencyHistogram getDecodeTime() { return decodeTime; }
+    public LatencyHistogram getTableQueueWait() { return tableQueueWait; }
+    public LatencyHistogram getMoveProcessingTime() { return moveProcessingTime; }
+    public LatencyHistogram getFanOutTime() { return fanOutTime; }
+    public LatencyHistogram getOutboundQueueWait() { return outboundQueueWait; }
+    public LatencyHistogram getMoveLogSyncTime() { return moveLogSyncTime; }
+    public LatencyHistogram getBotDecisionTime() { return botDecisionTime; }
+    public LatencyHistogram getSpectatorFanOutTime() { return spectatorFanOutTime; }
+}
@@ -0,0 +1,42 @@
+import java.io.Serializable;
+
+/**
+ * Identifies a seat independently of the TCP connection that holds it.
+ *
+ * The server hands one out in GAME_JOINED; after a dropped connection the client
+ * sends it back in RESUME_SESSION together with the last event sequence it applied,
+ * so the server can put it back in its seat and replay only what it missed.
+ */
+public class SessionTicket implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final String gameKey;
+    private final String playerName;
+    private final String resumeToken;
+    private final long lastSequence;
+
+    public SessionTicket(String gameKey, String playerName, String resumeToken, long lastSequence) {
+        this.gameKey = gameKey;
+        this.playerName = playerName;
+        this.resumeToken = resumeToken;
+        this.lastSequence = lastSequence;
+    }
+
+    /**
+     * Copy of this ticket reporting a different last applied sequence
+     */
+    public SessionTicket withLastSequence(long sequence) {
+        return new SessionTicket(gameKey, playerName, resumeToken, sequence);
+    }
+
+    public String getGameKey() { return gameKey; }
+    public String getPlayerName() { return playerName; }
+    public String getResumeToken() { return resumeToken; }
+    public long getLastSequence() { return lastSequence; }
+
+    @Override
+    public String toString() {
+        // The token is a credential; keep it out of logs
+        return "SessionTicket{game=" + gameKey + ", player=" + playerName + ", lastSeq=" + lastSequence + "}";
+    }
+}
@@ -0,0 +1,337 @@
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.net.*;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.util.UUID;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Transport for processes on the same host, e.g. a bot farm next to its game
+ * server: every connection is a memory-mapped file holding two single-producer,
+ * single-consumer byte rings, one per direction, so a message costs two memory
+ * copies instead of a trip through the loopback TCP stack.
+ *
+ * A server listening on port P owns the directory root/P and holds a lock on
+ * its listener file. A client connects by creating a fully initialised ring
+ * file there under a temporary name and renaming it to *.ring; accept() picks
+ * such files up, maps them and unlinks them, so nothing is left behind once
+ * both ends are gone. The rings carry the same frames as TCP; bots that play
+ * lockstep tables therefore send MoveCodec's few-byte frames.
+ *
+ * There is no way to wake a thread in another process, so a blocked reader or
+ * writer polls: it spins briefly, then yields, then parks for short intervals.
+ * With busySpin it never parks, which gives the lowest latency but costs a
+ * core per waiting thread. A peer that dies without closing looks like a silent
+ * connection, which the server's idle timeout already deals with.
+ */
+public class SharedMemoryTransport implements Transport {
+    private static final int MAGIC = 0x485A5348; // "HZSH"
+    private static final int RING_BYTES = 256 * 1024; // Power of two
+    private static final long ACCEPT_POLL_NANOS = 1000000;
+    private static final int SPINS = 200;
+    private static final int YIELDS = 50;
+    private static final long PARK_NANOS = 20000;
+
+    // Each ring's control block: indices and flags on cache lines of their own
+    private static final int TAIL = 0; // Bytes written so far, advanced by the writer
+    private static final int HEAD = 64; // Bytes read so far, advanced by the reader
+    private static final int WRITER_CLOSED = 128;
+    private static final int READER_CLOSED = 192;
+    private static final int CONTROL_BYTES = 256;
+    private static final int HEADER_BYTES = 64; // Magic and ring size
+    private static final int TO_SERVER = HEADER_BYTES;
+    private static final int TO_CLIENT = HEADER_BYTES + CONTROL_BYTES + RING_BYTES;
+    private static final int FILE_BYTES = HEADER_BYTES + 2 * (CONTROL_BYTES + RING_BYTES);
+
+    private static final VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+    private static final VarHandle INTS = MethodHandles.byteBufferViewVarHandle(int[].class, ByteOrder.nativeOrder());
+
+    private final Path root;
+    private final boolean busySpin;
+
+    /**
+     * Rings under /dev/shm/hez (or the temp directory where there is no /dev/shm), waiting politely
+     */
+    public SharedMemoryTransport() {
+        this(defaultRoot(), false);
+    }
+
+    public SharedMemoryTransport(Path root, boolean busySpin) {
+        this.root = root;
+        this.busySpin = busySpin;
+    }
+
+    private static Path defaultRoot() {
+        Path shm = Paths.get("/dev/shm");
+        return (Files.isDirectory(shm) ? shm : Paths.get(System.getProperty("java.io.tmpdir"))).resolve("hez");
+    }
+
+    @Override
+    public Acceptor listen(String bindAddress, int port) throws IOException {
+        Path directory = root.resolve(String.valueOf(port));
+        Files.createDirectories(directory);
+        FileChannel lockChannel = FileChannel.open(directory.resolve("listener.lock"),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        FileLock lock;
+        try {
+            lock = lockChannel.tryLock();
+        } catch (OverlappingFileLockException e) {
+            lock = null;
+        }
+        if (lock == null) {
+            lockChannel.close();
+            throw new BindException("Shared memory port " + port + " is already in use");
+        }
+        // Rings from clients of an earlier server on this port will never be answered
+        try (DirectoryStream<Path> stale = Files.newDirectoryStream(directory, "*.{ring,tmp}")) {
+            for (Path file : stale) {
+                Files.deleteIfExists(file);
+            }
+        }
+        return new RingAcceptor(directory, lockChannel);
+    }
+
+    @Override
+    public Connection connect(String host, int port, int readTimeoutMillis) throws IOException {
+        Path directory = root.resolve(String.valueOf(port));
+        if (!isListening(directory)) {
+            throw new ConnectException("Connection refused: nothing listening on shared memory port " + port);
+        }
+
+        String name = UUID.randomUUID().toString();
+        Path temporary = directory.resolve(name + ".tmp");
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+        }
+        buffer.order(ByteOrder.nativeOrder()); // Plain reads must agree with the VarHandles
+        buffer.putInt(4, RING_BYTES);
+        INTS.setRelease(buffer, 0, MAGIC);
+        // Only a complete file may become visible to the acceptor
+        Files.move(temporary, directory.resolve(name + ".ring"), StandardCopyOption.ATOMIC_MOVE);
+        return new RingConnection("shm:" + port + "/" + name, buffer, TO_CLIENT, TO_SERVER, readTimeoutMillis);
+    }
+
+    private static boolean isListening(Path directory) throws IOException {
+        Path lockFile = directory.resolve("listener.lock");
+        if (!Files.exists(lockFile)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(lockFile, StandardOpenOption.WRITE)) {
+            FileLock lock = channel.tryLock();
+            if (lock == null) {
+                return true; // Held by a server in another process
+            }
+            lock.release();
+            return false;
+        } catch (OverlappingFileLockException e) {
+            return true; // Held by a server in this process
+        }
+    }
+
+    private class RingAcceptor implements Acceptor {
+        private final Path directory;
+        private final FileChannel lockChannel;
+        private volatile boolean closed = false;
+
+        RingAcceptor(Path directory, FileChannel lockChannel) {
+            this.directory = directory;
+            this.lockChannel = lockChannel;
+        }
+
+        public Connection accept() throws IOException {
+            while (!closed) {
+                try (DirectoryStream<Path> rings = Files.newDirectoryStream(directory, "*.ring")) {
+                    for (Path file : rings) {
+                        MappedByteBuffer buffer;
+                        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, FILE_BYTES);
+                        } catch (NoSuchFileException e) {
+                            continue;
+                        }
+                        buffer.order(ByteOrder.nativeOrder());
+                        // The mapping outlives the name
+                        Files.deleteIfExists(file);
+                        if ((int) INTS.getAcquire(buffer, 0) != MAGIC || buffer.getInt(4) != RING_BYTES) {
+                            continue;
+                        }
+                        String name = file.getFileName().toString();
+                        return new RingConnection("shm:" + directory.getFileName() + "/"
+                            + name.substring(0, name.length() - 5), buffer, TO_SERVER, TO_CLIENT, 0);
+                    }
+                }
+                LockSupport.parkNanos(ACCEPT_POLL_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted while accepting");
+                }
+            }
+            throw new SocketException("Socket closed");
+        }
+
+        public void close() throws IOException {
+            closed = true;
+            lockChannel.close();
+        }
+    }
+
+    private class RingConnection implements Connection {
+        private final String name;
+        private final MappedByteBuffer buffer;
+        private final int in; // Control block of the ring we read
+        private final int out; // Control block of the ring we write
+        private final int readTimeoutMillis;
+        private final InputStream inputStream;
+        private final OutputStream outputStream;
+        private volatile boolean closed = false;
+        private volatile boolean inputShutdown = false;
+
+        RingConnection(String name, MappedByteBuffer buffer, int in, int out, int readTimeoutMillis) {
+            this.name = name;
+            this.buffer = buffer;
+            this.in = in;
+            this.out = out;
+            this.readTimeoutMillis = readTimeoutMillis;
+            this.inputStream = new InputStream() {
+                public int read() throws IOException {
+                    byte[] one = new byte[1];
+                    return read(one, 0, 1) < 0 ? -1 : one[0] & 0xFF;
+                }
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    return RingConnection.this.read(bytes, offset, length);
+                }
+                public int available() {
+                    return inputShutdown ? 0 : (int) ((long) LONGS.getAcquire(buffer, in + TAIL) - head());
+                }
+                public void close() {
+                    RingConnection.this.close();
+                }
+            };
+            this.outputStream = new OutputStream() {
+                public void write(int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    RingConnection.this.write(bytes, offset, length);
+                }
+                public void close() {
+                    RingConnection.this.close();
+                }
+            };
+        }
+
+        private long head() {
+            return buffer.getLong(in + HEAD); // Only this end moves it
+        }
+
+        private int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) {
+                return 0;
+            }
+            long head = head();
+            long deadline = readTimeoutMillis > 0 ? System.nanoTime() + readTimeoutMillis * 1000000L : 0;
+            int attempt = 0;
+            long tail;
+            while ((tail = (long) LONGS.getAcquire(buffer, in + TAIL)) == head) {
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                if (inputShutdown || (int) INTS.getAcquire(buffer, in + WRITER_CLOSED) != 0) {
+                    // Check once more: the writer may have written just before closing
+                    if ((long) LONGS.getAcquire(buffer, in + TAIL) == head) {
+                        return -1;
+                    }
+                    continue;
+                }
+                if (deadline != 0 && System.nanoTime() > deadline) {
+                    throw new SocketTimeoutException("Read timed out");
+                }
+                pause(attempt++);
+            }
+            if (closed) {
+                throw new SocketException("Socket closed");
+            }
+            if (inputShutdown) {
+                return -1;
+            }
+
+            int count = (int) Math.min(length, tail - head);
+            int at = (int) (head & (RING_BYTES - 1));
+            int first = Math.min(count, RING_BYTES - at);
+            int data = in + CONTROL_BYTES;
+            buffer.get(data + at, bytes, offset, first);
+            buffer.get(data, bytes, offset + first, count - first);
+            LONGS.setRelease(buffer, in + HEAD, head + count);
+            return count;
+        }
+
+        private void write(byte[] bytes, int offset, int length) throws IOException {
+            long tail = buffer.getLong(out + TAIL); // Only this end moves it
+            int data = out + CONTROL_BYTES;
+            int attempt = 0;
+            while (length > 0) {
+                if (closed) {
+                    throw new SocketException("Socket closed");
+                }
+                if ((int) INTS.getAcquire(buffer, out + READER_CLOSED) != 0) {
+                    throw new SocketException("Connection reset");
+                }
+                long free = RING_BYTES - (tail - (long) LONGS.getAcquire(buffer, out + HEAD));
+                if (free == 0) {
+                    // Full: the reader is behind, as with a full socket buffer
+                    pause(attempt++);
+                    continue;
+                }
+                attempt = 0;
+
+                int count = (int) Math.min(length, free);
+                int at = (int) (tail & (RING_BYTES - 1));
+                int first = Math.min(count, RING_BYTES - at);
+                buffer.put(data + at, bytes, offset, first);
+                buffer.put(data, bytes, offset + first, count - first);
+                tail += count;
+                LONGS.setRelease(buffer, out + TAIL, tail);
+                offset += count;
+                length -= count;
+            }
+        }
+
+        private void pause(int attempt) throws InterruptedIOException {
+            if (busySpin || attempt < SPINS) {
+                Thread.onSpinWait();
+            } else if (attempt < SPINS + YIELDS) {
+                Thread.yield();
+            } else {
+                LockSupport.parkNanos(PARK_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Interrupted");
+                }
+            }
+        }
+
+        public InputStream getInputStream() { return inputStream; }
+        public OutputStream getOutputStream() { return outputStream; }
+        public InetAddress getRemoteAddress() { return InetAddress.getLoopbackAddress(); }
+        public void shutdownInput() { inputShutdown = true; }
+        public boolean isClosed() { return closed; }
+
+        public void close() {
+            if (!closed) {
+                closed = true;
+                INTS.setRelease(buffer, out + WRITER_CLOSED, 1);
+                INTS.setRelease(buffer, in + READER_CLOSED, 1);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,35 @@
+/**
+ * Limits on how far a connection's outbound queue may fall behind before the
+ * server gives up on that client and disconnects it
+ */
+public class SlowClientPolicy {
+    private final int maxQueuedMessages;
+    private final long maxLagMillis;
+
+    /**
+     * @param maxQueuedMessages Messages that may wait for the socket before the client is dropped
+     * @param maxLagMillis How long the oldest queued message may wait before the client is dropped
+     */
+    public SlowClientPolicy(int maxQueuedMessages, long maxLagMillis) {
+        if (maxQueuedMessages < 1 || maxLagMillis < 1) {
+            throw new IllegalArgumentException("Slow client limits must be positive");
+        }
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.maxLagMillis = maxLagMillis;
+    }
+
+    /**
+     * Default limits: 256 queued messages or 10 seconds behind
+     */
+    public static SlowClientPolicy defaults() {
+        return new SlowClientPolicy(256, 10000);
+    }
+
+    public int getMaxQueuedMessages() { return maxQueuedMessages; }
+    public long getMaxLagMillis() { return maxLagMillis; }
+
+    @Override
+    public String toString() {
+        return "SlowClientPolicy{maxQueued=" + maxQueuedMessages + ", maxLagMs=" + maxLagMillis + "}";
+    }
+}
@@ -0,0 +1,230 @@
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Accelerated soak test: many long game sessions over loopback, watched for
+ * memory that grows with a connection's age.
+ *
+ * Pairs of GameClients sit at tables on an in-process server and play with
+ * think times cut by the speedup factor, so a run covers the given number of
+ * simulated hours in a fraction of the wall time. Nobody goes out, so every
+ * session lasts the whole run, which is what exposes state
+ * kept per message (a serialization handle table, an unbounded log) rather than
+ * per connection. At every sample the harness forces a collection and reports
+ * live heap, heap retained per open connection and the time the JVM spent in
+ * its own collections since the last sample. The first half of the run fills
+ * every bounded buffer (each table's resume ring holds its last 128 events), so
+ * the harness fails if the retained size per connection grows by more than
+ * GROWTH_LIMIT over the second half.
+ *
+ * Usage: java SoakBenchmark [simulatedHours] [tables] [speedup] [samples] [memory]
+ */
+public class SoakBenchmark {
+    private static final int PORT = 24690;
+    private static final long HUMAN_THINK_MS = 3000; // Mean think time of a person, before the speedup
+    private static final double GROWTH_LIMIT = 1.25;
+    private static final int DRIVER_THREADS = 2;
+
+    private static final LongAdder moves = new LongAdder();
+    private static final LongAdder rejected = new LongAdder();
+
+    public static void main(String[] args) throws Exception {
+        double hours = args.length > 0 ? Double.parseDouble(args[0]) : 24;
+        int tables = args.length > 1 ? Integer.parseInt(args[1]) : 200;
+        double speedup = args.length > 2 ? Double.parseDouble(args[2]) : 96;
+        int samples = args.length > 3 ? Integer.parseInt(args[3]) : 24;
+        boolean inMemory = args.length > 4 && args[4].equals("memory");
+
+        long wallMillis = (long) (hours * 3600000 / speedup);
+        long meanThinkMs = Math.max(1, (long) (HUMAN_THINK_MS / speedup));
+        System.out.printf("%.1f simulated hours in %ds, %d tables (%d sessions), think %dms mean, %s%n",
+            hours, wallMillis / 1000, tables, tables * 2, meanThinkMs, inMemory ? "in memory" : "loopback TCP");
+
+        Transport transport = inMemory ? new InMemoryTransport() : new TcpTransport();
+        String host = inMemory ? "memory" : "127.0.0.1";
+        ServerConfig config = new ServerConfig();
+        config.setTransport(transport);
+        config.setBindAddress("127.0.0.1");
+        config.setPort(PORT);
+        config.setMaxConnections(tables * 2 + 100);
+        // Bots play faster than people and all connect from loopback; soak the server, not its limits
+        config.setInboundRatePerSecond(1e6);
+        config.setAddressRatePerSecond(1e9);
+        GameServer server = new GameServer(config);
+        server.start();
+        long baseline = liveHeap();
+
+        ScheduledExecutorService driver = Executors.newScheduledThreadPool(DRIVER_THREADS, task -> {
+            Thread thread = new Thread(task, "soak-driver");
+            thread.setDaemon(true);
+            return thread;
+        });
+        List<Seat> seats = new ArrayList<>();
+        List<CompletableFuture<String>> joins = new ArrayList<>();
+        for (int i = 0; i < tables; i++) {
+            String name = "soak" + i;
+            // Bots have no UI: handle messages on each client's listener thread, not the EDT
+            Seat host0 = new Seat(new GameClient(transport, host, PORT, Runnable::run), driver, meanThinkMs);
+            Seat guest = new Seat(new GameClient(transport, host, PORT, Runnable::run), driver, meanThinkMs);
+            CompletableFuture<String> opened = host0.client.createGameAsync(name + "a", host0::receive,
+                new TableOptions(2, false));
+            joins.add(opened.thenCompose(key -> guest.client.connectAsync(key, name + "b", guest::receive)));
+            seats.add(host0);
+            seats.add(guest);
+        }
+        CompletableFuture.allOf(joins.toArray(new CompletableFuture<?>[0])).get(5, TimeUnit.MINUTES);
+        for (Seat seat : seats) {
+            seat.scheduleTurn();
+        }
+
+        GcTotals gc = new GcTotals();
+        double midway = 0;
+        double last = 0;
+        long start = System.nanoTime();
+        for (int sample = 1; sample <= samples; sample++) {
+            Thread.sleep(wallMillis / samples);
+            GcTotals now = new GcTotals();
+            long heap = liveHeap();
+            GcTotals afterForced = new GcTotals(); // Leave our own collection out of the next interval
+            int connections = server.getConnectionCount();
+            double retained = (heap - baseline) / 1024.0 / Math.max(1, connections);
+            double elapsed = (System.nanoTime() - start) / 1e9;
+            System.out.printf("t=%5.1fh  moves=%,d  rejected=%,d  connections=%d  heap=%.1fMiB  retained/conn=%.1fKiB"
+                    + "  gc=%d in %,dms%n",
+                elapsed * speedup / 3600, moves.sum(), rejected.sum(), connections, heap / 1048576.0, retained,
+                now.count - gc.count, now.millis - gc.millis);
+            gc = afterForced;
+            if (sample == (samples + 1) / 2) {
+                midway = retained;
+            }
+            last = retained;
+        }
+
+        driver.shutdownNow();
+        for (Seat seat : seats) {
+            seat.client.disconnect();
+        }
+        server.stop();
+
+        double growth = midway > 0 ? last / midway : 1;
+        System.out.printf("Retained per connection went from %.1fKiB midway to %.1fKiB (x%.2f)%n", midway, last, growth);
+        if (growth > GROWTH_LIMIT) {
+            System.out.println("FAIL: memory per connection keeps growing with the sessions' age");
+            System.exit(1);
+        }
+        System.out.println("OK: memory per connection stayed flat");
+        System.exit(0);
+    }
+
+    /**
+     * Heap in use after a full collection
+     */
+    private static long liveHeap() {
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        System.gc();
+        System.gc();
+        return memory.getHeapMemoryUsage().getUsed();
+    }
+
+    /**
+     * Collections and time spent in them across every collector so far
+     */
+    private static class GcTotals {
+        long count;
+        long millis;
+
+        GcTotals() {
+            for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, collector.getCollectionCount());
+                millis += Math.max(0, collector.getCollectionTime());
+            }
+        }
+    }
+
+    /**
+     * One session: a client that moves on its turn after a think time, one action at a time
+     */
+    private static class Seat {
+        private static final int MIN_HAND = 4;
+
+        final GameClient client;
+        private final ScheduledExecutorService driver;
+        private final long meanThinkMs;
+        private volatile GameServer.GameStateData state;
+        private volatile boolean waiting = false; // An action is awaiting its answer
+        private volatile boolean over = false;
+
+        Seat(GameClient client, ScheduledExecutorService driver, long meanThinkMs) {
+            this.client = client;
+            this.driver = driver;
+            this.meanThinkMs = meanThinkMs;
+        }
+
+        void receive(NetworkMessage message) {
+            if (message.getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE) {
+                state = (GameServer.GameStateData) message.getData();
+            } else if (message.getType() == NetworkMessage.MessageType.GAME_OVER) {
+                over = true;
+            }
+        }
+
+        void scheduleTurn() {
+            if (over) {
+                return;
+            }
+            long think = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * meanThinkMs);
+            try {
+                driver.schedule(this::turn, think, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Run over
+            }
+        }
+
+        private void turn() {
+            GameServer.GameStateData current = state;
+            if (!waiting && current != null && current.currentPlayerIndex == current.viewerIndex) {
+                waiting = true;
+                Card card = choose(current);
+                CompletableFuture<NetworkMessage> answer = counted(card != null ? client.playCardAsync(card)
+                    : client.drawCardAsync());
+                if (card != null && card.getValue() == 7) {
+                    // Nobody moves until a 7's suit is named; it goes out right behind the 7
+                    answer = answer.thenCombine(counted(client.chooseSuitAsync(card.getSuit())), (played, suit) -> suit);
+                }
+                answer.whenComplete((last, e) -> waiting = false);
+            }
+            scheduleTurn();
+        }
+
+        /**
+         * Count an action once the table has answered it
+         */
+        private static CompletableFuture<NetworkMessage> counted(CompletableFuture<NetworkMessage> action) {
+            return action.whenComplete((answer, e) -> {
+                if (answer != null && answer.getType() == NetworkMessage.MessageType.INVALID_MOVE) {
+                    rejected.increment();
+                } else if (answer != null) {
+                    moves.increment();
+                }
+            });
+        }
+
+        /**
+         * A legal card that keeps the game going, or null to draw
+         */
+        private static Card choose(GameServer.GameStateData state) {
+            List<Card> hand = state.players.get(state.viewerIndex).getHand();
+            if (state.mustDrawCards || hand.size() <= MIN_HAND) {
+                return null;
+            }
+            for (Card card : hand) {
+                if (card.canBePlayedOn(state.topCard, state.forcedSuit)) {
+                    return card;
+                }
+            }
+            return null;
+        }
+    }
+}
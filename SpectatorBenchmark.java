@@ -0,0 +1,217 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * What a large audience costs the players of the table it watches.
+ *
+ * One table of local players moves at a steady pace while a growing number of
+ * spectators watch it over a single multiplexed in-memory link. For each
+ * audience size this reports the table's own timings (how long moves wait in
+ * its mailbox and how long it spends on each), which spectators should leave
+ * alone, next to the spectator side: time to queue one message for the whole
+ * audience, frames delivered, and slow spectators dropped. A share of the
+ * spectators never read at all, so their queues only ever hold the latest state.
+ *
+ * Usage: java SpectatorBenchmark [maxSpectators] [secondsPerRun] [movesPerSecond] [slowPercent]
+ */
+public class SpectatorBenchmark {
+    private static final int PORT = 24680;
+    private static final int READER_THREADS = 2;
+
+    public static void main(String[] args) throws Exception {
+        int maxSpectators = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        int movesPerSecond = args.length > 2 ? Integer.parseInt(args[2]) : 200;
+        double slowShare = (args.length > 3 ? Double.parseDouble(args[3]) : 10) / 100.0;
+
+        System.out.printf("%d moves/s, %ds per run, %.0f%% of spectators never read%n",
+            movesPerSecond, seconds, slowShare * 100);
+        run(0, seconds, movesPerSecond, slowShare);
+        for (int spectators = 100; spectators < maxSpectators; spectators *= 10) {
+            run(spectators, seconds, movesPerSecond, slowShare);
+        }
+        run(maxSpectators, seconds, movesPerSecond, slowShare);
+        System.exit(0);
+    }
+
+    private static void run(int spectators, int seconds, int movesPerSecond, double slowShare) throws Exception {
+        InMemoryTransport memory = new InMemoryTransport();
+        ServerConfig config = new ServerConfig();
+        config.setTransport(memory);
+        config.setPort(PORT);
+        config.setMaxConnections(spectators + 100);
+        config.setInboundRatePerSecond(1e6);
+        config.setAddressRatePerSecond(1e9);
+        GameServer server = new GameServer(config);
+        server.start();
+
+        GameRoom room = server.createRoom();
+        room.addLocalPlayer("P0");
+        room.addLocalPlayer("P1").join();
+
+        // Every spectator shares one link; a few threads read for all the ones that keep up
+        MultiplexedTransport mux = new MultiplexedTransport(memory);
+        List<Watcher> readers = new ArrayList<>();
+        int slow = (int) (spectators * slowShare);
+        for (int i = 0; i < spectators; i++) {
+            Watcher watcher = new Watcher(mux.connect("memory", PORT, 0));
+            watcher.send(new NetworkMessage(NetworkMessage.MessageType.WATCH_GAME, room.getGameKey(), "watcher" + i));
+            if (i >= slow) {
+                readers.add(watcher);
+            }
+        }
+        LongAdder frames = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < READER_THREADS; t++) {
+            List<Watcher> share = new ArrayList<>();
+            for (int i = t; i < readers.size(); i += READER_THREADS) {
+                share.add(readers.get(i));
+            }
+            Thread thread = new Thread(() -> readAll(share, frames), "watchers-" + t);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+        while (server.getSpectatorCount() < spectators) {
+            Thread.sleep(10);
+        }
+
+        // Warm up, then measure; the histograms cover both, which the warm-up barely moves
+        Pacer pacer = new Pacer(room, movesPerSecond);
+        Thread pacing = new Thread(pacer, "pacer");
+        pacing.start();
+        Thread.sleep(1000);
+        ServerMetrics metrics = server.getMetrics();
+        long startMoves = pacer.moves;
+        long startFrames = frames.sum();
+        long start = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        double elapsed = (System.nanoTime() - start) / 1e9;
+        pacer.running = false;
+        pacing.join();
+
+        LatencyHistogram wait = metrics.getTableQueueWait();
+        LatencyHistogram processing = metrics.getMoveProcessingTime();
+        LatencyHistogram fanOut = metrics.getSpectatorFanOutTime();
+        System.out.printf("spectators=%-6d moves/s=%,.0f  table wait p99=%.0fus  move p50=%.0fus p99=%.0fus"
+                + "  | audience fan-out p50=%.0fus p99=%.0fus  frames/s=%,.0f  still watching=%d%n",
+            spectators, (pacer.moves - startMoves) / elapsed,
+            wait.getValueAtPercentile(0.99) / 1e3,
+            processing.getValueAtPercentile(0.5) / 1e3, processing.getValueAtPercentile(0.99) / 1e3,
+            fanOut.getValueAtPercentile(0.5) / 1e3, fanOut.getValueAtPercentile(0.99) / 1e3,
+            (frames.sum() - startFrames) / elapsed, server.getSpectatorCount());
+
+        server.stop();
+        for (Thread thread : threads) {
+            thread.interrupt();
+        }
+    }
+
+    /**
+     * Read whatever has arrived for any of the given spectators, answering pings
+     */
+    private static void readAll(List<Watcher> watchers, LongAdder frames) {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                boolean idle = true;
+                for (Watcher watcher : watchers) {
+                    while (watcher.in.available() > 0) {
+                        byte[] frame = MessageCodec.readFrame(watcher.in);
+                        frames.increment();
+                        idle = false;
+                        if (frame.length < 256
+                                && MessageCodec.decode(frame).getType() == NetworkMessage.MessageType.PING) {
+                            watcher.send(new NetworkMessage(NetworkMessage.MessageType.PONG));
+                        }
+                    }
+                }
+                if (idle) {
+                    Thread.sleep(1);
+                }
+            }
+        } catch (IOException | InterruptedException e) {
+            // Run over
+        }
+    }
+
+    private static class Watcher {
+        final DataInputStream in;
+        final DataOutputStream out;
+
+        Watcher(Transport.Connection connection) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+            out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+        }
+
+        void send(NetworkMessage message) throws IOException {
+            EncodedMessage encoded = MessageCodec.encode(message);
+            MessageCodec.writeFrame(out, encoded);
+            out.flush();
+            encoded.release();
+        }
+    }
+
+    /**
+     * Plays for both local seats at a fixed rate. Nobody is allowed to go out, so
+     * the game never ends; a 7 is followed at once by its suit.
+     */
+    private static class Pacer implements Runnable {
+        private static final int MIN_HAND = 4;
+
+        private final GameRoom room;
+        private final long intervalNanos;
+        volatile boolean running = true;
+        volatile long moves = 0; // Actions the table applied
+
+        Pacer(GameRoom room, int movesPerSecond) {
+            this.room = room;
+            this.intervalNanos = 1000000000L / movesPerSecond;
+        }
+
+        @Override
+        public void run() {
+            long next = System.nanoTime();
+            while (running) {
+                room.execute(this::move);
+                next += intervalNanos;
+                long sleep = next - System.nanoTime();
+                if (sleep > 0) {
+                    try {
+                        Thread.sleep(sleep / 1000000, (int) (sleep % 1000000));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        /**
+         * Runs on the table's worker, so it sees the state the move will apply to
+         */
+        private void move() {
+            moves = room.getStateVersion();
+            Game game = room.getGame();
+            if (game == null || room.isFinished()) {
+                return;
+            }
+            Player current = game.getCurrentPlayer();
+            Card move = null;
+            for (Card card : current.getHand()) {
+                if (current.getHand().size() > MIN_HAND && !game.mustDrawCards()
+                        && card.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+                    move = card;
+                    break;
+                }
+            }
+            room.handlePlayerMove(current.getName(), move != null
+                ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, move)
+                : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD));
+            if (move != null && move.getValue() == 7) {
+                // Nobody moves until a 7's suit is named; it goes right behind the 7, as a bot's does
+                room.handlePlayerMove(current.getName(),
+                    new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, move.getSuit()));
+            }
+        }
+    }
+}
@@ -0,0 +1,235 @@
+import java.util.ArrayDeque;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The audience of one table: connections watching the game without a seat.
+ *
+ * Spectators get the public projection of the table (GameStateData.PUBLIC_VIEW,
+ * every hand hidden) and the table's broadcast events. The table encodes each
+ * public state once and hands it over here, which costs it the same whether
+ * one or ten thousand people are watching. Writing it to every watcher happens
+ * on the server's spectator pool, never on the table's worker, so a large
+ * audience cannot add to the players' move latency.
+ *
+ * With a delay set, every message waits that long before any spectator sees it,
+ * so a watcher cannot relay the game to a player as it happens (ghosting). A
+ * state that is superseded before it falls due is skipped, and each watcher's
+ * OutboundQueue keeps only the newest state for a spectator that reads slowly.
+ */
+public class SpectatorFeed {
+    private static class Pending {
+        final EncodedMessage message;
+        final long dueAt;
+
+        Pending(EncodedMessage message, long dueAt) {
+            this.message = message;
+            this.dueAt = dueAt;
+        }
+
+        boolean isState() {
+            return message.getType() == NetworkMessage.MessageType.GAME_STATE_UPDATE;
+        }
+    }
+
+    private final GameServer gameServer;
+    private final Executor deliveryPool;
+    private final long delayMillis;
+    private final int maxWatchers;
+    private final Set<ClientHandler> watchers = ConcurrentHashMap.newKeySet();
+    private final ConcurrentLinkedQueue<ClientHandler> joining = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    // Guarded by this
+    private final ArrayDeque<Pending> pending = new ArrayDeque<>();
+    private TimingWheel.Timeout dueTimer;
+    private boolean closing = false;
+
+    // Only the delivery task touches this
+    private EncodedMessage current; // Newest state delivered, for spectators who join later
+
+    public SpectatorFeed(GameServer gameServer, Executor deliveryPool, long delayMillis, int maxWatchers) {
+        this.gameServer = gameServer;
+        this.deliveryPool = deliveryPool;
+        this.delayMillis = delayMillis;
+        this.maxWatchers = maxWatchers;
+    }
+
+    /**
+     * A pool for delivering every table's feed. Its threads run below the tables'
+     * priority, like the bot pool, so watchers get what the tables leave over.
+     */
+    public static ExecutorService newDeliveryPool(int threads) {
+        ThreadFactory factory = new ThreadFactory() {
+            private int next = 0;
+
+            @Override
+            public synchronized Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "spectators-" + next++);
+                thread.setDaemon(true);
+                thread.setPriority(Thread.NORM_PRIORITY - 1);
+                return thread;
+            }
+        };
+        return Executors.newFixedThreadPool(Math.max(1, threads), factory);
+    }
+
+    /**
+     * Start sending this table to a spectator, beginning with the latest state
+     * @return false if the table already has as many spectators as it allows
+     */
+    public boolean watch(ClientHandler watcher) {
+        if (watchers.size() >= maxWatchers) {
+            return false;
+        }
+        watchers.add(watcher);
+        joining.add(watcher);
+        requestDelivery();
+        return true;
+    }
+
+    public void unwatch(ClientHandler watcher) {
+        watchers.remove(watcher);
+    }
+
+    /**
+     * Whether anyone is watching, so the table can skip encoding its public view
+     */
+    public boolean isWatched() {
+        return !watchers.isEmpty();
+    }
+
+    /**
+     * Queue a message for every spectator; the feed takes its own reference to it.
+     * Called on the table's worker.
+     */
+    public void publish(EncodedMessage message) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            pending.addLast(new Pending(message.retain(), System.currentTimeMillis() + delayMillis));
+            if (pending.size() > 1) {
+                // Whoever delivers the earlier message picks this one up too
+                return;
+            }
+        }
+        if (delayMillis > 0) {
+            armDueTimer(delayMillis);
+        } else {
+            requestDelivery();
+        }
+    }
+
+    /**
+     * Send what is already on its way, then let every spectator go
+     */
+    public void close() {
+        synchronized (this) {
+            closing = true;
+        }
+        requestDelivery();
+    }
+
+    private synchronized void armDueTimer(long delay) {
+        if (dueTimer == null || dueTimer.isExpired() || dueTimer.isCancelled()) {
+            dueTimer = gameServer.schedule(this::requestDelivery, delay);
+        }
+    }
+
+    private void requestDelivery() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                deliveryPool.execute(this::deliver);
+            } catch (RejectedExecutionException e) {
+                // The server is stopping and closes every connection itself
+            }
+        }
+    }
+
+    /**
+     * Runs on the delivery pool, for one feed at a time
+     */
+    private void deliver() {
+        try {
+            ClientHandler joined;
+            while ((joined = joining.poll()) != null) {
+                if (current != null) {
+                    joined.send(current);
+                }
+            }
+
+            Pending due;
+            while ((due = takeDue(System.currentTimeMillis())) != null) {
+                long start = System.nanoTime();
+                for (ClientHandler watcher : watchers) {
+                    watcher.send(due.message);
+                }
+                gameServer.getMetrics().getSpectatorFanOutTime().record(System.nanoTime() - start);
+                if (due.isState()) {
+                    if (current != null) {
+                        current.release();
+                    }
+                    current = due.message;
+                } else {
+                    due.message.release();
+                }
+            }
+
+            if (isFinished()) {
+                for (ClientHandler watcher : watchers) {
+                    watcher.endInput();
+                }
+                watchers.clear();
+                if (current != null) {
+                    current.release();
+                    current = null;
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+
+        // Work that arrived while this task held the feed
+        if (!joining.isEmpty() || hasDue(System.currentTimeMillis())) {
+            requestDelivery();
+        }
+    }
+
+    /**
+     * The next message that is due, skipping any state with a newer one due right behind it
+     */
+    private synchronized Pending takeDue(long now) {
+        while (hasDue(now)) {
+            Pending due = pending.pollFirst();
+            Pending next = pending.peekFirst();
+            if (due.isState() && next != null && next.isState() && next.dueAt <= now) {
+                due.message.release();
+                continue;
+            }
+            return due;
+        }
+        Pending waiting = pending.peekFirst();
+        if (waiting != null) {
+            armDueTimer(Math.max(1, waiting.dueAt - now));
+        }
+        return null;
+    }
+
+    private synchronized boolean hasDue(long now) {
+        Pending first = pending.peekFirst();
+        return first != null && first.dueAt <= now;
+    }
+
+    private synchronized boolean isFinished() {
+        return closing && pending.isEmpty() && !watchers.isEmpty();
+    }
+
+    public int getWatcherCount() {
+        return watchers.size();
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Multi-table throughput benchmark for the table actors.
+ * Runs many tables of two local players on TableSchedulers of growing size and
+ * reports the moves per second each pool size sustains.
+ *
+ * Usage: java TableBenchmark [tables] [secondsPerRun] [maxThreads]
+ */
+public class TableBenchmark {
+    private static final int MOVES_PER_GAME = 1000; // Start a fresh table after this many moves
+
+    public static void main(String[] args) throws Exception {
+        int tables = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        int maxThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        System.out.println("Tables: " + tables + ", " + seconds + "s per run");
+        double baseline = 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            double movesPerSecond = run(tables, seconds, threads);
+            if (baseline == 0) {
+                baseline = movesPerSecond;
+            }
+            System.out.printf("threads=%d  moves/sec=%,.0f  speedup=%.2fx%n",
+                threads, movesPerSecond, movesPerSecond / baseline);
+        }
+        System.exit(0);
+    }
+
+    private static double run(int tables, int seconds, int threads) throws InterruptedException {
+        TableScheduler scheduler = new TableScheduler(threads);
+        GameServer server = new GameServer(new ServerConfig(), scheduler);
+        LongAdder moves = new LongAdder();
+        List<TableDriver> drivers = new ArrayList<>();
+
+        for (int i = 0; i < tables; i++) {
+            drivers.add(new TableDriver(server, moves));
+        }
+
+        // Warm up, then measure
+        for (TableDriver driver : drivers) {
+            driver.start();
+        }
+        Thread.sleep(1000);
+        long startMoves = moves.sum();
+        long startTime = System.nanoTime();
+        Thread.sleep(seconds * 1000L);
+        long elapsed = System.nanoTime() - startTime;
+        long measured = moves.sum() - startMoves;
+
+        for (TableDriver driver : drivers) {
+            driver.running = false;
+        }
+        server.stop();
+        return measured * 1e9 / elapsed;
+    }
+
+    /**
+     * Keeps one table busy: every turn it picks a legal move for the current player
+     * and re-posts itself behind that move, so each table always has work queued.
+     */
+    private static class TableDriver implements Runnable {
+        private final GameServer server;
+        private final LongAdder moves;
+        private GameRoom room;
+        private int movesThisGame;
+        private long countedVersion; // Actions of this table already added to moves
+        volatile boolean running = true;
+
+        TableDriver(GameServer server, LongAdder moves) {
+            this.server = server;
+            this.moves = moves;
+        }
+
+        void start() {
+            openTable();
+        }
+
+        private void openTable() {
+            room = server.createRoom();
+            movesThisGame = 0;
+            countedVersion = 0;
+            room.addLocalPlayer("P0");
+            room.addLocalPlayer("P1");
+            room.execute(this);
+        }
+
+        @Override
+        public void run() {
+            if (!running) {
+                return;
+            }
+            // Count what the table applied since the last turn; rejected actions are not moves
+            moves.add(room.getStateVersion() - countedVersion);
+            countedVersion = room.getStateVersion();
+            Game game = room.getGame();
+            if (game == null || room.isFinished() || movesThisGame >= MOVES_PER_GAME) {
+                server.closeRoom(room.getGameKey());
+                openTable();
+                return;
+            }
+
+            Player current = game.getCurrentPlayer();
+            Card move = null;
+            for (Card card : current.getHand()) {
+                if (card.canBePlayedOn(game.getTopCard(), game.getForcedSuit())) {
+                    move = card;
+                    break;
+                }
+            }
+            NetworkMessage message = move != null
+                ? new NetworkMessage(NetworkMessage.MessageType.PLAY_CARD, move)
+                : new NetworkMessage(NetworkMessage.MessageType.DRAW_CARD);
+            room.handlePlayerMove(current.getName(), message);
+            if (move != null && move.getValue() == 7) {
+                // Nobody moves until a 7's suit is named; it goes right behind the 7, as a bot's does
+                room.handlePlayerMove(current.getName(),
+                    new NetworkMessage(NetworkMessage.MessageType.CHOOSE_SUIT, move.getSuit()));
+            }
+            movesThisGame++;
+            room.execute(this);
+        }
+    }
+}
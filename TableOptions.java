@@ -0,0 +1,34 @@
+import java.io.Serializable;
+
+/**
+ * What a player asks for when opening a table with CREATE_GAME: how many seats
+ * it has and whether it plays in lockstep (see LockstepSession). The game
+ * starts once every seat is taken.
+ */
+public class TableOptions implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final int MIN_SEATS = 2;
+    public static final int MAX_SEATS = 6; // Four cards each still leaves most of the deck to draw from
+    public static final int DEFAULT_SEATS = 2;
+
+    private final int seats;
+    private final boolean lockstep;
+
+    public TableOptions(int seats, boolean lockstep) {
+        this.seats = seats;
+        this.lockstep = lockstep;
+    }
+
+    public boolean isValid() {
+        return seats >= MIN_SEATS && seats <= MAX_SEATS;
+    }
+
+    public int getSeats() { return seats; }
+    public boolean isLockstep() { return lockstep; }
+
+    @Override
+    public String toString() {
+        return "TableOptions{seats=" + seats + ", lockstep=" + lockstep + "}";
+    }
+}
@@ -0,0 +1,89 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs table actors on a fixed pool of worker threads.
+ * Every table is pinned to one worker (its shard), so a table's mailbox is only
+ * ever drained by a single thread and its moves stay strictly ordered, while
+ * tables on different shards proceed in parallel without sharing any lock.
+ */
+public class TableScheduler {
+    private final Worker[] workers;
+    private volatile boolean isRunning = true;
+
+    public TableScheduler(int threadCount) {
+        workers = new Worker[Math.max(1, threadCount)];
+        for (int i = 0; i < workers.length; i++) {
+            workers[i] = new Worker("table-worker-" + i);
+            workers[i].start();
+        }
+    }
+
+    /**
+     * Default pool: one worker per available core
+     */
+    public TableScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Pick the shard a table with the given key is pinned to
+     */
+    public int shardFor(String gameKey) {
+        return Math.floorMod(gameKey.hashCode(), workers.length);
+    }
+
+    /**
+     * Queue a table whose mailbox has pending messages on its shard's worker
+     */
+    void schedule(GameRoom room) {
+        Worker worker = workers[room.getShard()];
+        worker.readyRooms.offer(room);
+        LockSupport.unpark(worker);
+    }
+
+    /**
+     * Stop all workers; pending mailbox messages are dropped
+     */
+    public void shutdown() {
+        isRunning = false;
+        for (Worker worker : workers) {
+            LockSupport.unpark(worker);
+        }
+    }
+
+    public int getThreadCount() {
+        return workers.length;
+    }
+
+    /**
+     * A worker thread that drains the mailboxes of the tables on its shard
+     */
+    private class Worker extends Thread {
+        private final Queue<GameRoom> readyRooms = new ConcurrentLinkedQueue<>();
+
+        Worker(String name) {
+            super(name);
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            while (isRunning) {
+                GameRoom room = readyRooms.poll();
+                if (room == null) {
+                    // Nothing to do; schedule() unparks us when a table gets mail
+                    LockSupport.park(this);
+                    continue;
+                }
+                try {
+                    room.drainMailbox();
+                } catch (Throwable t) {
+                    System.err.println("Error running table " + room.getGameKey() + ": " + t.getMessage());
+                    t.printStackTrace();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The complete state of a running table, packed for the move log.
+ *
+ * A table writes one when its game starts and again at every checkpoint;
+ * recovery rebuilds the table from the newest one and replays the moves logged
+ * after it. Cards are single bytes as in MoveCodec.
+ */
+public class TableSnapshot {
+    private static final byte VERSION = 2;
+
+    private final boolean lockstep;
+    private final List<String> players;
+    private final List<String> resumeTokens; // null for seats without one
+    private final long[] lastActionSequences; // Per seat, 0 if the seat has sent no numbered action
+    private final long sequence;
+    private final long startSequence;
+    private final long stateVersion;
+    private final int suitChooser;
+    private final Game game;
+    private final long seed; // Lockstep tables only, like the fields below
+    private final long[] salts;
+    private final long moveNumber;
+
+    private TableSnapshot(boolean lockstep, List<String> players, List<String> resumeTokens,
+                          long[] lastActionSequences, long sequence, long startSequence, long stateVersion,
+                          int suitChooser, Game game, long seed, long[] salts, long moveNumber) {
+        this.lockstep = lockstep;
+        this.players = players;
+        this.resumeTokens = resumeTokens;
+        this.lastActionSequences = lastActionSequences;
+        this.sequence = sequence;
+        this.startSequence = startSequence;
+        this.stateVersion = stateVersion;
+        this.suitChooser = suitChooser;
+        this.game = game;
+        this.seed = seed;
+        this.salts = salts;
+        this.moveNumber = moveNumber;
+    }
+
+    /**
+     * Pack a table's state
+     * @param session the table's lockstep session, or null
+     */
+    public static byte[] encode(List<String> players, Map<String, String> resumeTokens,
+                                Map<String, Long> lastActionSequences, long sequence, long startSequence,
+                                long stateVersion, int suitChooser, Game game, LockstepSession session) {
+        try {
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(128);
+            DataOutputStream out = new DataOutputStream(buffer);
+            out.writeByte(VERSION);
+            out.writeBoolean(session != null);
+            out.writeLong(sequence);
+            out.writeLong(startSequence);
+            out.writeLong(stateVersion);
+            out.writeByte(suitChooser);
+
+            out.writeByte(players.size());
+            for (int seat = 0; seat < players.size(); seat++) {
+                String name = players.get(seat);
+                out.writeUTF(name);
+                String token = resumeTokens.get(name);
+                out.writeUTF(token == null ? "" : token);
+                out.writeLong(lastActionSequences.getOrDefault(name, 0L));
+                writeCards(out, game.getPlayers().get(seat).getHand());
+            }
+
+            writeCards(out, game.getDeck().getCards());
+            out.writeByte(MoveCodec.cardCode(game.getTopCard()));
+            out.writeByte(game.getForcedSuit() == null ? -1 : game.getForcedSuit().ordinal());
+            out.writeByte(game.getCurrentPlayerIndex());
+            out.writeBoolean(game.isSkipNext());
+            out.writeShort(game.getAccumulatedDrawCards());
+            out.writeBoolean(game.mustDrawCards());
+            out.writeBoolean(game.lastCardWasOne());
+
+            if (session != null) {
+                LockstepSession.Reveal secrets = session.reveal();
+                out.writeLong(secrets.seed);
+                for (long salt : secrets.salts) {
+                    out.writeLong(salt);
+                }
+                out.writeLong(session.getMoveNumber());
+            }
+            return buffer.toByteArray();
+        } catch (IOException e) {
+            // A ByteArrayOutputStream does not fail
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    public static TableSnapshot decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readByte() != VERSION) {
+            throw new IOException("Unknown table snapshot version");
+        }
+        boolean lockstep = in.readBoolean();
+        long sequence = in.readLong();
+        long startSequence = in.readLong();
+        long stateVersion = in.readLong();
+        int suitChooser = in.readByte();
+
+        int seats = in.readUnsignedByte();
+        List<String> players = new ArrayList<>(seats);
+        List<String> tokens = new ArrayList<>(seats);
+        long[] lastActionSequences = new long[seats];
+        List<Player> seated = new ArrayList<>(seats);
+        for (int seat = 0; seat < seats; seat++) {
+            String name = in.readUTF();
+            String token = in.readUTF();
+            players.add(name);
+            tokens.add(token.isEmpty() ? null : token);
+            lastActionSequences[seat] = in.readLong();
+            Player player = new Player(name);
+            player.getHand().addAll(readCards(in));
+            seated.add(player);
+        }
+
+        Deck deck = new Deck(readCards(in));
+        Card topCard = MoveCodec.decodeCard(in.readByte());
+        int forced = in.readByte();
+        int currentSeat = in.readUnsignedByte();
+        boolean skipNext = in.readBoolean();
+        int accumulatedDrawCards = in.readShort();
+        boolean mustDrawCards = in.readBoolean();
+        boolean lastCardWasOne = in.readBoolean();
+        Game game = new Game(seated, deck, topCard, forced < 0 ? null : Card.Suit.values()[forced], currentSeat,
+            skipNext, accumulatedDrawCards, mustDrawCards, lastCardWasOne);
+
+        long seed = 0;
+        long[] salts = null;
+        long moveNumber = 0;
+        if (lockstep) {
+            seed = in.readLong();
+            salts = new long[seats];
+            for (int seat = 0; seat < seats; seat++) {
+                salts[seat] = in.readLong();
+            }
+            moveNumber = in.readLong();
+        }
+        return new TableSnapshot(lockstep, players, tokens, lastActionSequences, sequence, startSequence, stateVersion,
+            suitChooser, game, seed, salts, moveNumber);
+    }
+
+    private static void writeCards(DataOutputStream out, List<Card> cards) throws IOException {
+        out.writeByte(cards.size());
+        for (Card card : cards) {
+            out.writeByte(MoveCodec.cardCode(card));
+        }
+    }
+
+    private static List<Card> readCards(DataInputStream in) throws IOException {
+        int count = in.readUnsignedByte();
+        List<Card> cards = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            cards.add(MoveCodec.decodeCard(in.readByte()));
+        }
+        return cards;
+    }
+
+    /**
+     * The lockstep session as it stood, or null for an ordinary table
+     */
+    public LockstepSession toSession(String gameKey) {
+        return lockstep ? new LockstepSession(gameKey, seed, salts, moveNumber) : null;
+    }
+
+    public boolean isLockstep() { return lockstep; }
+    public List<String> getPlayers() { return players; }
+    public List<String> getResumeTokens() { return resumeTokens; }
+    public long[] getLastActionSequences() { return lastActionSequences; }
+    public long getSequence() { return sequence; }
+    public long getStartSequence() { return startSequence; }
+    public long getStateVersion() { return stateVersion; }
+    public int getSuitChooser() { return suitChooser; }
+    public Game getGame() { return game; }
+}
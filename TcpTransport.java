@@ -0,0 +1,69 @@
+import java.io.*;
+import java.net.*;
+
+/**
+ * Transport over blocking TCP sockets, one thread per connection on the server
+ */
+public class TcpTransport implements Transport {
+
+    @Override
+    public Acceptor listen(String bindAddress, int port) throws IOException {
+        ServerSocket serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(bindAddress, port));
+        return new Acceptor() {
+            public Connection accept() throws IOException {
+                Socket socket = serverSocket.accept();
+                try {
+                    socket.setTcpNoDelay(true); // The server's replies are as small and as awaited as the moves
+                } catch (IOException e) {
+                    socket.close();
+                    throw e;
+                }
+                return new SocketConnection(socket);
+            }
+            public void close() throws IOException {
+                serverSocket.close();
+            }
+        };
+    }
+
+    @Override
+    public Connection connect(String host, int port, int readTimeoutMillis) throws IOException {
+        return connect(host, port, 0, readTimeoutMillis);
+    }
+
+    @Override
+    public Connection connect(String host, int port, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        Socket socket = new Socket();
+        try {
+            socket.connect(new InetSocketAddress(host, port), connectTimeoutMillis);
+            socket.setSoTimeout(readTimeoutMillis);
+            socket.setTcpNoDelay(true); // Moves are small and someone is waiting for each one
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+        return new SocketConnection(socket);
+    }
+
+    private static class SocketConnection implements Connection {
+        private final Socket socket;
+
+        SocketConnection(Socket socket) {
+            this.socket = socket;
+        }
+
+        public InputStream getInputStream() throws IOException { return socket.getInputStream(); }
+        public OutputStream getOutputStream() throws IOException { return socket.getOutputStream(); }
+        public InetAddress getRemoteAddress() { return socket.getInetAddress(); }
+        public void shutdownInput() throws IOException { socket.shutdownInput(); }
+        public boolean isClosed() { return socket.isClosed(); }
+        public void close() throws IOException { socket.close(); }
+
+        @Override
+        public String toString() {
+            return String.valueOf(socket.getRemoteSocketAddress());
+        }
+    }
+}
@@ -0,0 +1,250 @@
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel that drives every timer on the server: heartbeats, idle
+ * eviction, turn clocks, seat grace periods and room sweeps.
+ *
+ * Timers land in one of wheelSize buckets by deadline; a single thread advances
+ * one bucket per tick and fires what is due. Scheduling and cancelling are O(1)
+ * and lock-free for the caller: new timers and cancellations are handed to the
+ * wheel thread through queues and linked in or out on its next tick. Timer
+ * resolution is one tick, and tasks run on the wheel thread, so they must be
+ * short (typically just posting to a table's mailbox).
+ */
+public class TimingWheel {
+    private static final int MAX_TRANSFERS_PER_TICK = 100000;
+
+    private static final int STATE_PENDING = 0;
+    private static final int STATE_CANCELLED = 1;
+    private static final int STATE_EXPIRED = 2;
+
+    /**
+     * Handle to a scheduled task
+     */
+    public static class Timeout {
+        private final TimingWheel wheel;
+        private final Runnable task;
+        private final long deadlineNanos;
+        private final AtomicInteger state = new AtomicInteger(STATE_PENDING);
+        private long remainingRounds;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(TimingWheel wheel, Runnable task, long deadlineNanos) {
+            this.wheel = wheel;
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /**
+         * Cancel the task if it has not run yet
+         * @return true if this call cancelled it
+         */
+        public boolean cancel() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_CANCELLED)) {
+                return false;
+            }
+            wheel.cancelled.offer(this);
+            return true;
+        }
+
+        public boolean isCancelled() { return state.get() == STATE_CANCELLED; }
+        public boolean isExpired() { return state.get() == STATE_EXPIRED; }
+
+        private void expire() {
+            if (!state.compareAndSet(STATE_PENDING, STATE_EXPIRED)) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (Throwable t) {
+                System.err.println("Error in timer task: " + t.getMessage());
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Doubly linked list of the timers hashed to one slot
+     */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            if (head == null) {
+                head = tail = timeout;
+            } else {
+                tail.next = timeout;
+                timeout.prev = tail;
+                tail = timeout;
+            }
+        }
+
+        Timeout remove(Timeout timeout) {
+            Timeout next = timeout.next;
+            if (timeout.prev != null) {
+                timeout.prev.next = next;
+            }
+            if (timeout.next != null) {
+                timeout.next.prev = timeout.prev;
+            }
+            if (timeout == head) {
+                head = next;
+            }
+            if (timeout == tail) {
+                tail = timeout.prev;
+            }
+            timeout.prev = null;
+            timeout.next = null;
+            timeout.bucket = null;
+            return next;
+        }
+    }
+
+    private final long tickNanos;
+    private final Bucket[] wheel;
+    private final int mask;
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();
+    private final AtomicLong pendingCount = new AtomicLong();
+    private final Thread workerThread;
+    private final long startTime;
+    private volatile boolean isRunning = true;
+    private long tick = 0;
+
+    /**
+     * @param tickMillis Resolution of the wheel
+     * @param wheelSize Number of buckets, rounded up to a power of two
+     */
+    public TimingWheel(String name, long tickMillis, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(2, wheelSize) - 1) << 1;
+        this.tickNanos = tickMillis * 1000000L;
+        this.wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        this.mask = size - 1;
+        this.startTime = System.nanoTime();
+        this.workerThread = new Thread(this::run, name);
+        workerThread.setDaemon(true);
+        workerThread.start();
+    }
+
+    /**
+     * Run a task once after the given delay
+     */
+    public Timeout schedule(Runnable task, long delayMillis) {
+        long deadline = System.nanoTime() - startTime + Math.max(0, delayMillis) * 1000000L;
+        Timeout timeout = new Timeout(this, task, deadline);
+        pendingCount.incrementAndGet();
+        added.offer(timeout);
+        return timeout;
+    }
+
+    /**
+     * Stop the wheel thread; pending timers never fire
+     */
+    public void stop() {
+        isRunning = false;
+        workerThread.interrupt();
+    }
+
+    /**
+     * Timers scheduled but not yet fired or cancelled
+     */
+    public long getPendingCount() {
+        return pendingCount.get();
+    }
+
+    private void run() {
+        while (isRunning) {
+            long deadline = waitForNextTick();
+            if (deadline < 0) {
+                return;
+            }
+            transferAdded();
+            removeCancelled();
+            expireBucket(wheel[(int) (tick & mask)], deadline);
+            tick++;
+        }
+    }
+
+    /**
+     * Sleep until the current tick ends; returns the elapsed wheel time or -1 when stopped
+     */
+    private long waitForNextTick() {
+        long deadline = tickNanos * (tick + 1);
+        while (true) {
+            long now = System.nanoTime() - startTime;
+            long sleepMillis = (deadline - now + 999999) / 1000000;
+            if (sleepMillis <= 0) {
+                return now;
+            }
+            try {
+                Thread.sleep(sleepMillis);
+            } catch (InterruptedException e) {
+                if (!isRunning) {
+                    return -1;
+                }
+            }
+        }
+    }
+
+    private void transferAdded() {
+        for (int i = 0; i < MAX_TRANSFERS_PER_TICK; i++) {
+            Timeout timeout = added.poll();
+            if (timeout == null) {
+                return;
+            }
+            if (timeout.isCancelled()) {
+                pendingCount.decrementAndGet();
+                continue;
+            }
+            long dueTick = timeout.deadlineNanos / tickNanos;
+            timeout.remainingRounds = (dueTick - tick) / wheel.length;
+            // Anything already overdue goes in the current bucket
+            long slotTick = Math.max(dueTick, tick);
+            wheel[(int) (slotTick & mask)].add(timeout);
+        }
+    }
+
+    private void removeCancelled() {
+        while (true) {
+            Timeout timeout = cancelled.poll();
+            if (timeout == null) {
+                return;
+            }
+            // Timers cancelled before they were transferred have no bucket yet
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+                pendingCount.decrementAndGet();
+            }
+        }
+    }
+
+    private void expireBucket(Bucket bucket, long deadline) {
+        Timeout timeout = bucket.head;
+        while (timeout != null) {
+            if (timeout.isCancelled()) {
+                timeout = bucket.remove(timeout);
+                pendingCount.decrementAndGet();
+            } else if (timeout.remainingRounds <= 0 && timeout.deadlineNanos <= deadline) {
+                Timeout next = bucket.remove(timeout);
+                pendingCount.decrementAndGet();
+                timeout.expire();
+                timeout = next;
+            } else {
+                if (timeout.remainingRounds > 0) {
+                    timeout.remainingRounds--;
+                }
+                timeout = timeout.next;
+            }
+        }
+    }
+}
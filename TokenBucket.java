@@ -0,0 +1,49 @@
+/**
+ * Token bucket rate limiter: tokens accrue at a steady rate up to a burst size
+ * and every message spends one.
+ *
+ * Callers reserve a token and are told how long to wait before using it, so a
+ * connection that sends too fast is slowed down rather than cut off. Buckets
+ * shared by all connections from one address are used from several reader
+ * threads, hence the synchronization.
+ */
+public class TokenBucket {
+    private final double tokensPerNano;
+    private final double burst;
+    private double tokens;
+    private long refilledAt;
+
+    public TokenBucket(double ratePerSecond, int burst) {
+        this.tokensPerNano = ratePerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.refilledAt = System.nanoTime();
+    }
+
+    /**
+     * Take one token, going into debt if the bucket is empty
+     * @return nanoseconds to wait before the token may be used; 0 if it is available now
+     */
+    public synchronized long reserve() {
+        refill();
+        tokens -= 1;
+        if (tokens >= 0) {
+            return 0;
+        }
+        return (long) (-tokens / tokensPerNano);
+    }
+
+    /**
+     * Whether the bucket is full, i.e. nobody has used it for a while
+     */
+    public synchronized boolean isIdle() {
+        refill();
+        return tokens >= burst;
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        tokens = Math.min(burst, tokens + (now - refilledAt) * tokensPerNano);
+        refilledAt = now;
+    }
+}
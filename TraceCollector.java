@@ -0,0 +1,67 @@
+/**
+ * Aggregates completed MoveTraces into a per-turn breakdown:
+ * client input to server (uplink), server receive to validation (mailbox wait and
+ * checks), validation to broadcast (applying the move and fan-out), broadcast to
+ * client decode (downlink and queueing) and decode to render.
+ *
+ * Own moves and opponents' moves are kept apart: the first is the actor's
+ * click-to-screen latency, the second what the other players see.
+ */
+public class TraceCollector {
+    private static final String[] SEGMENTS = {"uplink", "server", "fanout", "downlink", "render", "total"};
+
+    private final LatencyHistogram[] ownMoves = newHistograms();
+    private final LatencyHistogram[] remoteMoves = newHistograms();
+    private volatile MoveTrace lastTrace;
+
+    private static LatencyHistogram[] newHistograms() {
+        LatencyHistogram[] histograms = new LatencyHistogram[SEGMENTS.length];
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+        return histograms;
+    }
+
+    /**
+     * Record a trace that has been stamped all the way to render
+     */
+    public void record(MoveTrace trace, String localPlayerName) {
+        // Traces the server did not get to stamp (rejected before validation) have no breakdown
+        if (trace.getValidatedAt() == 0 || trace.getBroadcastAt() == 0) {
+            return;
+        }
+        LatencyHistogram[] histograms = trace.getPlayerName().equals(localPlayerName) ? ownMoves : remoteMoves;
+        histograms[0].record(toNanos(trace.getReceivedAt() - trace.getSentAt()));
+        histograms[1].record(toNanos(trace.getValidatedAt() - trace.getReceivedAt()));
+        histograms[2].record(toNanos(trace.getBroadcastAt() - trace.getValidatedAt()));
+        histograms[3].record(toNanos(trace.getDecodedAt() - trace.getBroadcastAt()));
+        histograms[4].record(toNanos(trace.getRenderedAt() - trace.getDecodedAt()));
+        histograms[5].record(toNanos(trace.getRenderedAt() - trace.getSentAt()));
+        lastTrace = trace;
+    }
+
+    private static long toNanos(long micros) {
+        return micros * 1000;
+    }
+
+    /**
+     * Median and 99th percentile of every segment, in milliseconds
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder();
+        append(summary, "own moves", ownMoves);
+        append(summary, "opponent moves", remoteMoves);
+        return summary.toString();
+    }
+
+    private static void append(StringBuilder summary, String label, LatencyHistogram[] histograms) {
+        summary.append(label).append(" (").append(histograms[5].getCount()).append("):");
+        for (int i = 0; i < SEGMENTS.length; i++) {
+            summary.append(String.format("  %s p50=%.2f p99=%.2f", SEGMENTS[i],
+                histograms[i].getValueAtPercentile(0.5) / 1e6, histograms[i].getValueAtPercentile(0.99) / 1e6));
+        }
+        summary.append('\n');
+    }
+
+    public MoveTrace getLastTrace() { return lastTrace; }
+}
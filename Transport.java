@@ -0,0 +1,65 @@
+import java.io.*;
+import java.net.InetAddress;
+
+/**
+ * How clients and the server reach each other. GameServer, ClientHandler and
+ * GameClient only ever see byte streams carrying length-prefixed frames (see
+ * MessageCodec), so the same stack runs over TCP (TcpTransport) or entirely
+ * inside one JVM (InMemoryTransport), where tests and benchmarks bind no ports.
+ *
+ * Implementations behave like blocking sockets: reads block until data or end
+ * of stream, a read timeout raises SocketTimeoutException, using a closed
+ * connection raises SocketException and a peer hanging up reads as end of stream.
+ */
+public interface Transport {
+
+    /**
+     * Start accepting connections on the given address and port
+     */
+    Acceptor listen(String bindAddress, int port) throws IOException;
+
+    /**
+     * Open a connection to a listening server
+     * @param readTimeoutMillis how long a read may block before it fails; 0 waits forever
+     */
+    Connection connect(String host, int port, int readTimeoutMillis) throws IOException;
+
+    /**
+     * Open a connection, giving up if it cannot be established in time. Transports
+     * that connect without waiting on the network ignore the connect timeout.
+     * @param connectTimeoutMillis how long establishing the connection may take; 0 waits forever
+     */
+    default Connection connect(String host, int port, int connectTimeoutMillis, int readTimeoutMillis) throws IOException {
+        return connect(host, port, readTimeoutMillis);
+    }
+
+    /**
+     * The server's end of a listen call
+     */
+    interface Acceptor extends Closeable {
+        /**
+         * Wait for the next client; throws SocketException once the acceptor is closed
+         */
+        Connection accept() throws IOException;
+    }
+
+    /**
+     * One open connection, seen from either end
+     */
+    interface Connection extends Closeable {
+        InputStream getInputStream() throws IOException;
+        OutputStream getOutputStream() throws IOException;
+
+        /**
+         * Address of the other end, used to rate limit all connections from one host together
+         */
+        InetAddress getRemoteAddress();
+
+        /**
+         * Make further reads see end of stream while writes keep working
+         */
+        void shutdownInput() throws IOException;
+
+        boolean isClosed();
+    }
+}
@@ -0,0 +1,84 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Round-trip latency of one lockstep move frame (MoveCodec, a few bytes) over
+ * each transport: a client writes the frame and waits for an echo thread on the
+ * server side to send it back. Half the round trip is the one-way latency a move
+ * sees on its way to the server.
+ *
+ * Both ends run in this JVM, but the shared memory rings go through mapped files
+ * exactly as they would between processes. Busy-spinning only pays off with a
+ * spare core per waiting thread, so it is measured only when there are at least two.
+ *
+ * Usage: java TransportBenchmark [roundTrips] [shmDirectory]
+ */
+public class TransportBenchmark {
+    private static final int PORT = 23456;
+
+    public static void main(String[] args) throws Exception {
+        int roundTrips = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Path shmRoot = args.length > 1 ? Paths.get(args[1]) : null;
+
+        byte[] frame = MessageCodec.encode(new NetworkMessage(NetworkMessage.MessageType.LOCKSTEP_MOVE,
+            LockstepMove.request(MoveCodec.DRAW))).bytes();
+        System.out.println("Frame: " + frame.length + " bytes, " + roundTrips + " round trips");
+
+        run("tcp loopback", new TcpTransport(), frame, roundTrips);
+        run("in-memory", new InMemoryTransport(), frame, roundTrips);
+        run("shared memory", shmRoot == null ? new SharedMemoryTransport()
+            : new SharedMemoryTransport(shmRoot, false), frame, roundTrips);
+        if (Runtime.getRuntime().availableProcessors() >= 2) {
+            Path root = shmRoot != null ? shmRoot
+                : Paths.get(Files.isDirectory(Paths.get("/dev/shm")) ? "/dev/shm" : System.getProperty("java.io.tmpdir"), "hez");
+            run("shared memory, busy spin", new SharedMemoryTransport(root, true), frame, roundTrips);
+        }
+        System.exit(0);
+    }
+
+    private static void run(String label, Transport transport, byte[] frame, int roundTrips) throws Exception {
+        Transport.Acceptor acceptor = transport.listen("127.0.0.1", PORT);
+        Thread echo = new Thread(() -> {
+            try (Transport.Connection connection = acceptor.accept()) {
+                DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                while (true) {
+                    byte[] received = MessageCodec.readFrame(in);
+                    out.writeInt(received.length);
+                    out.write(received);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                // Client hung up
+            }
+        }, "echo");
+        echo.setDaemon(true);
+        echo.start();
+
+        Transport.Connection connection = transport.connect("127.0.0.1", PORT, 0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(connection.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+
+        long[] samples = new long[roundTrips];
+        int warmup = Math.min(roundTrips, 20000);
+        for (int i = -warmup; i < roundTrips; i++) {
+            long start = System.nanoTime();
+            out.writeInt(frame.length);
+            out.write(frame);
+            out.flush();
+            MessageCodec.readFrame(in);
+            if (i >= 0) {
+                samples[i] = System.nanoTime() - start;
+            }
+        }
+        connection.close();
+        acceptor.close();
+        echo.join(1000);
+
+        Arrays.sort(samples);
+        System.out.printf("%-26s round trip p50=%.1fus p99=%.1fus p99.9=%.1fus%n", label,
+            samples[roundTrips / 2] / 1e3, samples[(int) (roundTrips * 0.99)] / 1e3,
+            samples[(int) (roundTrips * 0.999)] / 1e3);
+    }
+}